@@ -0,0 +1,89 @@
+package api;
+
+import java.io.Serializable;
+
+/**
+ * Represents one page of key-value pairs streamed out of a server-side snapshot through
+ * {@link BinaryKeyValueRpc#exportBatchBytes(long, byte[], int)}. Keys, values and the cursor are
+ * the stored bytes, so keys that are not valid UTF-8 are exported exactly and paging never skips
+ * or repeats a key.
+ */
+public class BinaryKeyValueBatch implements Serializable {
+
+    private final byte[][] keys;
+    private final byte[][] values;
+    private final byte[] nextCursor;
+
+    /**
+     * Constructs a new BinaryKeyValueBatch.
+     *
+     * @param keys The keys in this page, in ascending byte order.
+     * @param values The values in this page; values[i] belongs to keys[i].
+     * @param nextCursor The cursor to pass when requesting the next page, or null if the snapshot is exhausted.
+     */
+    public BinaryKeyValueBatch(byte[][] keys, byte[][] values, byte[] nextCursor) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("Keys and values must have the same length.");
+        }
+        this.keys = keys;
+        this.values = values;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Gets the number of pairs in this page.
+     *
+     * @return The number of pairs.
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Gets the key at the given position in this page.
+     *
+     * @param index The position of the pair.
+     * @return The key bytes.
+     */
+    public byte[] getKey(int index) {
+        return keys[index];
+    }
+
+    /**
+     * Gets the value at the given position in this page.
+     *
+     * @param index The position of the pair.
+     * @return The value bytes.
+     */
+    public byte[] getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Gets the cursor to use for the next page.
+     *
+     * @return The cursor, or null if there are no more pairs in the snapshot.
+     */
+    public byte[] getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Indicates whether this is the last page of the snapshot.
+     *
+     * @return true if no more pages follow, false otherwise.
+     */
+    public boolean isLast() {
+        return nextCursor == null;
+    }
+
+    /**
+     * Returns a string representation of the BinaryKeyValueBatch.
+     *
+     * @return A string containing the size of the page and whether more pages follow.
+     */
+    @Override
+    public String toString() {
+        return String.format("BinaryKeyValueBatch {size=%d, last=%b}", keys.length, isLast());
+    }
+}
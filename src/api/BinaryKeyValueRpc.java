@@ -0,0 +1,63 @@
+package api;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Defines the binary-safe variant of {@link KeyValueRpc}. Keys and values are raw byte arrays, so
+ * serialized objects and other non-text data can be stored directly, without the UTF-16 inflation
+ * of Java strings and without the trimming the string API applies.
+ * The server's remote object implements both interfaces, so the stub obtained from the registry
+ * can be cast to either one.
+ */
+public interface BinaryKeyValueRpc extends Remote {
+
+    /**
+     * Retrieves the value associated with the specified key.
+     *
+     * @param key The key bytes whose associated value is to be returned.
+     * @return A {@link KeyValueResponse} object whose binary value holds the value bytes if the
+     *         operation was successful, or an error message if not.
+     * @throws RemoteException If an error occurs during the remote method call.
+     * @throws InterruptedException if there's an interruption during the remote method call.
+     */
+    KeyValueResponse getBytes(byte[] key) throws RemoteException, InterruptedException;
+
+    /**
+     * Inserts or updates a key-value pair. The bytes are stored exactly as given. Replicated
+     * namespaces reject binary writes with {@link ErrorCode#UNSUPPORTED}.
+     *
+     * @param key The key bytes with which the specified value is to be associated.
+     * @param value The value bytes to be associated with the specified key.
+     * @return A {@link KeyValueResponse} object containing the operation result.
+     * @throws RemoteException If an error occurs during the remote method call.
+     * @throws InterruptedException if there's an interruption during the remote method call.
+     */
+    KeyValueResponse putBytes(byte[] key, byte[] value) throws RemoteException, InterruptedException;
+
+    /**
+     * Removes the key-value pair associated with the specified key, if it exists. Replicated
+     * namespaces reject binary writes with {@link ErrorCode#UNSUPPORTED}.
+     *
+     * @param key The key bytes whose key-value pair is to be removed.
+     * @return A {@link KeyValueResponse} object containing the operation result, and an error
+     *         message if the key was not found.
+     * @throws RemoteException If an error occurs during the remote method call.
+     * @throws InterruptedException if there's an interruption during the remote method call.
+     */
+    KeyValueResponse deleteBytes(byte[] key) throws RemoteException, InterruptedException;
+
+    /**
+     * Reads the next page of a snapshot opened with {@link KeyValueRpc#openSnapshot()}, in ascending
+     * byte order of the keys. Unlike {@link KeyValueRpc#exportBatch(long, String, int)}, it exports
+     * every key, including keys that are not valid UTF-8.
+     *
+     * @param snapshotId The id returned by {@link KeyValueRpc#openSnapshot()}.
+     * @param afterCursor The cursor returned with the previous page, or null to start from the beginning.
+     * @param limit The maximum number of pairs to return.
+     * @return A {@link BinaryKeyValueBatch} holding the pairs and the cursor of the next page.
+     * @throws RemoteException If an error occurs during the remote method call.
+     * @throws InterruptedException if there's an interruption during the remote method call.
+     */
+    BinaryKeyValueBatch exportBatchBytes(long snapshotId, byte[] afterCursor, int limit) throws RemoteException, InterruptedException;
+}
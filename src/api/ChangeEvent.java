@@ -0,0 +1,100 @@
+package api;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Represents one mutation of the key-value store, as delivered to a {@link KeyValueWatcher}.
+ * Every mutation is assigned a sequence number from a single store-wide counter, so events are
+ * totally ordered and a watcher can resume from the last sequence number it has seen.
+ */
+public class ChangeEvent implements Serializable {
+
+    private final long sequence;
+    private final String type;
+    private final byte[] key;
+    private final byte[] value;
+    private final long valueLength;
+
+    /**
+     * Constructs a new ChangeEvent.
+     *
+     * @param sequence The sequence number of the mutation; also the version of the written value.
+     * @param type The kind of mutation, "PUT" or "DELETE".
+     * @param key The key bytes.
+     * @param value The new value bytes for small values, or null for deletes and for values too large to inline.
+     * @param valueLength The length of the new value in bytes, or 0 for deletes.
+     */
+    public ChangeEvent(long sequence, String type, byte[] key, byte[] value, long valueLength) {
+        this.sequence = sequence;
+        this.type = type;
+        this.key = key;
+        this.value = value;
+        this.valueLength = valueLength;
+    }
+
+    /**
+     * Gets the sequence number of the mutation.
+     *
+     * @return The sequence number.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Gets the kind of mutation.
+     *
+     * @return "PUT" or "DELETE".
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Gets the key bytes.
+     *
+     * @return The key bytes.
+     */
+    public byte[] getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the key decoded as UTF-8.
+     *
+     * @return The key as a string.
+     */
+    public String getKeyString() {
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the new value bytes. Large values are not inlined; read them with a get call instead.
+     *
+     * @return The value bytes, or null for deletes and large values.
+     */
+    public byte[] getValue() {
+        return value;
+    }
+
+    /**
+     * Gets the length of the new value.
+     *
+     * @return The value length in bytes, or 0 for deletes.
+     */
+    public long getValueLength() {
+        return valueLength;
+    }
+
+    /**
+     * Returns a string representation of the ChangeEvent.
+     *
+     * @return A string containing the sequence number, type and key of the mutation.
+     */
+    @Override
+    public String toString() {
+        return String.format("ChangeEvent {sequence=%d, type=%s, key=%s, valueLength=%d}",
+                sequence, type, getKeyString(), valueLength);
+    }
+}
@@ -0,0 +1,36 @@
+package api;
+
+/**
+ * Selects, per request, how many of the N replicas of a key must answer before the coordinator
+ * replies. Lower levels answer faster and keep working while replicas are down; higher levels
+ * make it more likely that a read observes the latest write. A read and a write observe each other
+ * whenever their levels together need more than N replicas, e.g. QUORUM reads after QUORUM writes.
+ */
+public enum ConsistencyLevel {
+
+    /** One replica must answer. */
+    ONE,
+
+    /** A majority of the replicas must answer. */
+    QUORUM,
+
+    /** Every replica must answer. */
+    ALL;
+
+    /**
+     * Gets the number of replicas that must answer.
+     *
+     * @param replicas The replication factor N.
+     * @return The number of required answers, between 1 and N.
+     */
+    public int required(int replicas) {
+        switch (this) {
+            case ONE:
+                return 1;
+            case QUORUM:
+                return replicas / 2 + 1;
+            default:
+                return replicas;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package api;
+
+/**
+ * Classifies why a request failed, so that clients can react without parsing the error message.
+ */
+public enum ErrorCode {
+
+    /** The key does not exist. */
+    NOT_FOUND,
+
+    /** Too few replicas answered for the requested consistency level. */
+    QUORUM_FAILED,
+
+    /**
+     * The client has used up its request rate. The request was rejected without being queued;
+     * retry after {@link KeyValueResponse#getRetryAfterMillis()}, or
+     * {@link RequestRejectedException#getRetryAfterMillis()} for RPCs that return no response.
+     */
+    RATE_LIMITED,
+
+    /**
+     * The request was within the client's rate but the server was saturated, and the client's share
+     * of the queue was full or the request waited too long. Retry with backoff.
+     */
+    THROTTLED,
+
+    /**
+     * The server cannot serve the request in its configuration, e.g. a write that only the contacted
+     * server's store could apply on a replicated namespace. Retrying does not help.
+     */
+    UNSUPPORTED
+}
@@ -0,0 +1,89 @@
+package api;
+
+import java.io.Serializable;
+
+/**
+ * Represents one page of key-value pairs streamed out of a server-side snapshot.
+ * Keys and values are held in two parallel arrays so that a page of thousands of pairs
+ * serializes as two compact arrays rather than thousands of small objects.
+ * The cursor of the last key in the page is returned so the caller can request the next page.
+ */
+public class KeyValueBatch implements Serializable {
+
+    private final String[] keys;
+    private final String[] values;
+    private final String nextCursor;
+
+    /**
+     * Constructs a new KeyValueBatch.
+     *
+     * @param keys The keys in this page, in ascending order.
+     * @param values The values in this page; values[i] belongs to keys[i].
+     * @param nextCursor The cursor to pass when requesting the next page, or null if the snapshot is exhausted.
+     */
+    public KeyValueBatch(String[] keys, String[] values, String nextCursor) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("Keys and values must have the same length.");
+        }
+        this.keys = keys;
+        this.values = values;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Gets the number of pairs in this page.
+     *
+     * @return The number of pairs.
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Gets the key at the given position in this page.
+     *
+     * @param index The position of the pair.
+     * @return The key.
+     */
+    public String getKey(int index) {
+        return keys[index];
+    }
+
+    /**
+     * Gets the value at the given position in this page.
+     *
+     * @param index The position of the pair.
+     * @return The value.
+     */
+    public String getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Gets the cursor to use for the next page.
+     *
+     * @return The cursor, or null if there are no more pairs in the snapshot.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Indicates whether this is the last page of the snapshot.
+     *
+     * @return true if no more pages follow, false otherwise.
+     */
+    public boolean isLast() {
+        return nextCursor == null;
+    }
+
+    /**
+     * Returns a string representation of the KeyValueBatch.
+     *
+     * @return A string containing the size of the page and its cursor.
+     */
+    @Override
+    public String toString() {
+        return String.format("KeyValueBatch {size=%d, nextCursor=%s}", keys.length, nextCursor);
+    }
+}
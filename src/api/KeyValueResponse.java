@@ -12,8 +12,11 @@ public class KeyValueResponse implements Serializable {
 
     private String operation;
     private String value;
+    private byte[] binaryValue;
     private boolean success;
     private String errorMsg;
+    private ErrorCode errorCode;
+    private long retryAfterMillis;
 
     /**
      * Default constructor for creating an empty response.
@@ -72,6 +75,24 @@ public class KeyValueResponse implements Serializable {
         this.value = value;
     }
 
+    /**
+     * Gets the binary value returned by a {@link BinaryKeyValueRpc} operation.
+     *
+     * @return The value bytes, or null if not applicable.
+     */
+    public byte[] getBinaryValue() {
+        return binaryValue;
+    }
+
+    /**
+     * Sets the binary value returned by a {@link BinaryKeyValueRpc} operation.
+     *
+     * @param binaryValue The value bytes.
+     */
+    public void setBinaryValue(byte[] binaryValue) {
+        this.binaryValue = binaryValue;
+    }
+
     /**
      * Indicates whether the operation was successful.
      *
@@ -108,6 +129,42 @@ public class KeyValueResponse implements Serializable {
         this.errorMsg = errorMsg;
     }
 
+    /**
+     * Gets the reason the operation failed.
+     *
+     * @return The error code, or null if the operation was successful.
+     */
+    public ErrorCode getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * Sets the reason the operation failed.
+     *
+     * @param errorCode The error code.
+     */
+    public void setErrorCode(ErrorCode errorCode) {
+        this.errorCode = errorCode;
+    }
+
+    /**
+     * Gets how long the client should wait before retrying a rejected request.
+     *
+     * @return The delay in milliseconds, or 0 if not applicable.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * Sets how long the client should wait before retrying a rejected request.
+     *
+     * @param retryAfterMillis The delay in milliseconds.
+     */
+    public void setRetryAfterMillis(long retryAfterMillis) {
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
     /**
      * Returns a string representation of the KeyValueResponse.
      *
@@ -115,7 +172,7 @@ public class KeyValueResponse implements Serializable {
      */
     @Override
     public String toString() {
-        return String.format("KeyValueResponse {operation=%s, value=%s, success=%s, errorMsg=%s}",
-                operation, value, success, errorMsg);
+        return String.format("KeyValueResponse {operation=%s, value=%s, binaryValue=%s, success=%s, errorMsg=%s, errorCode=%s}",
+                operation, value, binaryValue == null ? null : binaryValue.length + " bytes", success, errorMsg, errorCode);
     }
 }
@@ -3,6 +3,7 @@ package api;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.lang.InterruptedException;
+import java.util.Map;
 
 /**
  * Defines the Remote Procedure Call (RPC) interface for interacting with a key-value store.
@@ -44,4 +45,199 @@ public interface KeyValueRpc extends Remote {
      * @throws InterruptedException if there's an interruption during the remote method call.
      */
     KeyValueResponse delete(String key) throws RemoteException, InterruptedException;
+
+    /**
+     * Retrieves the value of a key at a chosen consistency level. On a replicated server the
+     * request is sent to every replica of the key and answered once {@code level} of them have replied,
+     * with the newest of their copies; stale replicas among them are repaired in the background.
+     * A server without replicas serves every level from its own store.
+     *
+     * @param key The key whose associated value is to be returned.
+     * @param level The number of replicas that must answer, or null for the server's default.
+     * @return A {@link KeyValueResponse} object containing the value, or an error message if the key
+     *         was not found or too few replicas answered.
+     * @throws RemoteException If an error occurs during the remote method call.
+     * @throws InterruptedException if there's an interruption during the remote method call.
+     */
+    KeyValueResponse get(String key, ConsistencyLevel level) throws RemoteException, InterruptedException;
+
+    /**
+     * Inserts or updates a key-value pair at a chosen consistency level. On a replicated server the
+     * write is sent to every replica of the key and acknowledged once {@code level} of them have
+     * applied it. Replicas that are down receive the write later from a hint.
+     *
+     * @param key The key with which the specified value is to be associated.
+     * @param value The value to be associated with the specified key.
+     * @param level The number of replicas that must acknowledge, or null for the server's default.
+     * @return A {@link KeyValueResponse} object indicating success, or an error message if too few
+     *         replicas acknowledged; the write may still have reached some replicas in that case.
+     * @throws RemoteException If an error occurs during the remote method call.
+     * @throws InterruptedException if there's an interruption during the remote method call.
+     */
+    KeyValueResponse put(String key, String value, ConsistencyLevel level) throws RemoteException, InterruptedException;
+
+    /**
+     * Removes a key at a chosen consistency level. On a replicated server the deletion is written to
+     * the replicas as a tombstone, exactly like {@link #put(String, String, ConsistencyLevel)}.
+     *
+     * @param key The key whose key-value pair is to be removed.
+     * @param level The number of replicas that must acknowledge, or null for the server's default.
+     * @return A {@link KeyValueResponse} object indicating success, or an error message if the key
+     *         was not found or too few replicas acknowledged.
+     * @throws RemoteException If an error occurs during the remote method call.
+     * @throws InterruptedException if there's an interruption during the remote method call.
+     */
+    KeyValueResponse delete(String key, ConsistencyLevel level) throws RemoteException, InterruptedException;
+
+    /**
+     * Opens a session that identifies the calling client. Requests made through the returned stub
+     * are counted against {@code clientId}'s rate limit and fair share of the server, instead of
+     * against the host the request comes from. The session also implements {@link BinaryKeyValueRpc}.
+     *
+     * @param clientId The name the client, or tenant, is known by on the server.
+     * @return A stub that makes requests on behalf of the client.
+     * @throws RemoteException If an error occurs during the remote method call.
+     */
+    KeyValueRpc openSession(String clientId) throws RemoteException;
+
+    /**
+     * Inserts or updates a batch of key-value pairs in a single call. The server applies the whole
+     * batch under one lock acquisition and logs a single summary line instead of one line per pair,
+     * which makes this the preferred path for loading large data sets. Replicated namespaces reject
+     * it with {@link ErrorCode#UNSUPPORTED}, since the batch would only reach one replica.
+     *
+     * @param entries The key-value pairs to insert or update.
+     * @return A {@link KeyValueResponse} object whose value holds the number of pairs applied.
+     * @throws RemoteException If an error occurs during the remote method call.
+     * @throws InterruptedException if there's an interruption during the remote method call.
+     */
+    KeyValueResponse putAll(Map<String, String> entries) throws RemoteException, InterruptedException;
+
+    /**
+     * Retrieves the values of several keys as of one point in time, so that no write is visible
+     * to one key and not to another. Reads take no lock and never delay writers.
+     *
+     * @param keys The keys whose values are to be retrieved.
+     * @return A {@link KeyValueBatch} holding the keys in the order given, with a null value for keys that are not found.
+     * @throws RemoteException If an error occurs during the remote method call.
+     * @throws InterruptedException if there's an interruption during the remote method call.
+     */
+    KeyValueBatch snapshotGet(String[] keys) throws RemoteException, InterruptedException;
+
+    /**
+     * Captures a point-in-time snapshot of the key-value store for export. The snapshot stays
+     * consistent while writers keep modifying the store, and is read page by page with
+     * {@link #exportBatch(long, String, int)}. Writers are not blocked while the snapshot is read.
+     *
+     * @return The id of the snapshot.
+     * @throws RemoteException If an error occurs during the remote method call.
+     * @throws InterruptedException if there's an interruption during the remote method call.
+     */
+    long openSnapshot() throws RemoteException, InterruptedException;
+
+    /**
+     * Reads the next page of key-value pairs from a snapshot, in ascending key order.
+     *
+     * @param snapshotId The id returned by {@link #openSnapshot()}.
+     * @param afterCursor The cursor returned with the previous page, or null to start from the beginning.
+     * @param limit The maximum number of pairs to return.
+     * @return A {@link KeyValueBatch} holding the pairs and the cursor of the next page.
+     * @throws IllegalArgumentException If the page holds a key that is not valid UTF-8; such keys can
+     *         only be exported with {@link BinaryKeyValueRpc#exportBatchBytes(long, byte[], int)}.
+     * @throws RemoteException If an error occurs during the remote method call.
+     * @throws InterruptedException if there's an interruption during the remote method call.
+     */
+    KeyValueBatch exportBatch(long snapshotId, String afterCursor, int limit) throws RemoteException, InterruptedException;
+
+    /**
+     * Releases a snapshot before it has been read to the end. Snapshots read to the end are released automatically.
+     *
+     * @param snapshotId The id returned by {@link #openSnapshot()}.
+     * @throws RemoteException If an error occurs during the remote method call.
+     */
+    void closeSnapshot(long snapshotId) throws RemoteException;
+
+    /**
+     * Starts a chunked upload of a large value. The value is sent with
+     * {@link #uploadChunk(long, int, byte[])} and becomes visible atomically on
+     * {@link #commitUpload(long)}, so readers never observe a partially uploaded value.
+     *
+     * @param key The key with which the uploaded value is to be associated.
+     * @return The id of the upload.
+     * @throws IllegalStateException Naming {@link ErrorCode#UNSUPPORTED} if the namespace is replicated,
+     *                               since the value would only reach one replica.
+     * @throws RemoteException If an error occurs during the remote method call.
+     * @throws InterruptedException if there's an interruption during the remote method call.
+     */
+    long beginUpload(String key) throws RemoteException, InterruptedException;
+
+    /**
+     * Sends the next chunk of a chunked upload. Chunks must be sent in order, starting at index 0.
+     *
+     * @param uploadId The id returned by {@link #beginUpload(String)}.
+     * @param index The position of this chunk in the value.
+     * @param block The chunk encoded as a {@link ValueCodec} block, compressed or raw.
+     * @throws RemoteException If an error occurs during the remote method call.
+     * @throws InterruptedException if there's an interruption during the remote method call.
+     */
+    void uploadChunk(long uploadId, int index, byte[] block) throws RemoteException, InterruptedException;
+
+    /**
+     * Completes a chunked upload and stores the value.
+     *
+     * @param uploadId The id returned by {@link #beginUpload(String)}.
+     * @return A {@link KeyValueResponse} object containing the operation result; its value holds the
+     *         length of the stored value in bytes.
+     * @throws RemoteException If an error occurs during the remote method call.
+     * @throws InterruptedException if there's an interruption during the remote method call.
+     */
+    KeyValueResponse commitUpload(long uploadId) throws RemoteException, InterruptedException;
+
+    /**
+     * Reads one chunk of a value, exactly as it is stored on the server (compressed chunks stay compressed
+     * on the wire). Pass the version of the first chunk when reading the others to make sure all chunks
+     * belong to the same value.
+     *
+     * @param key The key whose value is to be read.
+     * @param index The position of the chunk to read.
+     * @param expectedVersion The version returned with the first chunk, or -1 to accept any version.
+     * @return The {@link ValueChunk}, or null if the key is not found.
+     * @throws IllegalStateException If the value no longer has the expected version.
+     * @throws RemoteException If an error occurs during the remote method call.
+     * @throws InterruptedException if there's an interruption during the remote method call.
+     */
+    ValueChunk getChunk(String key, int index, long expectedVersion) throws RemoteException, InterruptedException;
+
+    /**
+     * Reports the server's store counters, such as the number of values, raw and stored byte totals
+     * and time spent compressing and decompressing.
+     *
+     * @return A map from counter name to value.
+     * @throws RemoteException If an error occurs during the remote method call.
+     */
+    Map<String, Long> stats() throws RemoteException;
+
+    /**
+     * Registers a watcher for changes to one key or to every key starting with a prefix. The server
+     * pushes the matching events to the watcher in batches, in sequence order. A watcher that stops
+     * keeping up is disconnected with {@link KeyValueWatcher#onWatchEnded(long, String)} rather than
+     * being allowed to slow down writers.
+     *
+     * @param key The key, or key prefix, to watch.
+     * @param prefix true to watch every key starting with {@code key}, false to watch that key only.
+     * @param resumeAfter The sequence number of the last event already seen, or -1 to receive only new changes.
+     * @param watcher The exported callback object that receives the events.
+     * @return The id of the watch.
+     * @throws IllegalArgumentException If the events after {@code resumeAfter} are no longer retained.
+     * @throws RemoteException If an error occurs during the remote method call.
+     */
+    long watch(String key, boolean prefix, long resumeAfter, KeyValueWatcher watcher) throws RemoteException;
+
+    /**
+     * Cancels a watch. No more events are pushed once this returns.
+     *
+     * @param watchId The id returned by {@link #watch(String, boolean, long, KeyValueWatcher)}.
+     * @throws RemoteException If an error occurs during the remote method call.
+     */
+    void unwatch(long watchId) throws RemoteException;
 }
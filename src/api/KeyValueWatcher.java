@@ -0,0 +1,31 @@
+package api;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+
+/**
+ * Defines the callback interface a client exports to receive change events pushed by the server
+ * after registering with {@link KeyValueRpc#watch(String, boolean, long, KeyValueWatcher)}.
+ * Calls for one watch are never made concurrently and always arrive in sequence order.
+ */
+public interface KeyValueWatcher extends Remote {
+
+    /**
+     * Receives the next batch of change events, in ascending sequence order.
+     *
+     * @param events The change events.
+     * @throws RemoteException If an error occurs during the remote method call.
+     */
+    void onChanges(List<ChangeEvent> events) throws RemoteException;
+
+    /**
+     * Notifies that the server has ended the watch, for example because the watcher fell too far
+     * behind. No more events follow; register again with {@code resumeAfter} to continue without gaps.
+     *
+     * @param resumeAfter The sequence number of the last event delivered.
+     * @param reason A description of why the watch ended.
+     * @throws RemoteException If an error occurs during the remote method call.
+     */
+    void onWatchEnded(long resumeAfter, String reason) throws RemoteException;
+}
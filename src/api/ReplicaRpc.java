@@ -0,0 +1,41 @@
+package api;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Defines the calls a coordinating server makes on the replicas of a key. Every server exports
+ * this interface next to {@link KeyValueRpc}; clients do not use it directly.
+ * Writes are idempotent and commutative under last-writer-wins, so a coordinator may safely
+ * retry them, replay them later from a hint, or send them again to repair a stale replica.
+ */
+public interface ReplicaRpc extends Remote {
+
+    /**
+     * Reads this replica's copy of a key.
+     *
+     * @param key The key.
+     * @return The copy, possibly a tombstone, or null if this replica has never seen the key.
+     * @throws RemoteException If an error occurs during the remote method call.
+     */
+    VersionedValue replicaRead(String key) throws RemoteException;
+
+    /**
+     * Applies a write, or a tombstone, to this replica if it is newer than the replica's copy.
+     * The write counts as acknowledged either way, since the replica then holds a copy at least as new.
+     *
+     * @param key The key.
+     * @param value The copy to apply.
+     * @return The replica's copy before the write, or null if it had never seen the key.
+     * @throws RemoteException If an error occurs during the remote method call.
+     */
+    VersionedValue replicaWrite(String key, VersionedValue value) throws RemoteException;
+
+    /**
+     * Gets the id this replica is known by on the hash ring.
+     *
+     * @return The node id, e.g. "localhost:1099".
+     * @throws RemoteException If an error occurs during the remote method call.
+     */
+    String nodeId() throws RemoteException;
+}
@@ -0,0 +1,189 @@
+package api;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Merges concurrent identical requests for the same key into one execution.
+ * <p>
+ * For each key at most one execution runs at a time. Requests join the key's open batch, which
+ * executes once the running one finishes and hands its result to every request in the batch;
+ * requests that arrive after it has started open the next batch. So N concurrent reads of a hot key cost about two lookups instead of N, and
+ * N concurrent writes about two mutations, carrying the value of the last write to join.
+ * <p>
+ * Because a batch only starts after all of its requests have arrived, every request still observes
+ * an execution that happened entirely within its own lifetime: reads never return a value older
+ * than a write that completed before they were issued, and merged writes are equivalent to applying
+ * them one after the other in arrival order. Results are shared between the requests of a batch
+ * and must not be modified.
+ * <p>
+ * An optional window delays each execution so that more requests can join it, trading latency for
+ * fewer executions.
+ *
+ * @param <K> The key type.
+ * @param <V> The type of the value a request carries, e.g. the value of a write; Void for reads.
+ * @param <R> The result type.
+ */
+public class RequestCoalescer<K, V, R> {
+
+    private final ConcurrentHashMap<K, Slot<V, R>> slots = new ConcurrentHashMap<>();
+    private final long windowNanos;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder executions = new LongAdder();
+
+    /**
+     * Constructs a RequestCoalescer that executes each batch as soon as the previous one finishes.
+     */
+    public RequestCoalescer() {
+        this(0);
+    }
+
+    /**
+     * Constructs a RequestCoalescer.
+     *
+     * @param windowMicros How long each execution waits for more requests to join, or 0 for no wait.
+     */
+    public RequestCoalescer(long windowMicros) {
+        if (windowMicros < 0) {
+            throw new IllegalArgumentException("Window must not be negative.");
+        }
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+    }
+
+    /**
+     * Submits a request and waits for the result of the batch it joins.
+     *
+     * @param key The key; only requests with equal keys are merged.
+     * @param value The value the request carries. The batch executes with the value of the last request to join.
+     * @param operation The operation to execute, called once per batch.
+     * @return The result of the batch.
+     * @throws Exception If the batch's execution failed; every request of the batch receives the failure.
+     */
+    public R execute(K key, V value, Operation<V, R> operation) throws Exception {
+        requests.increment();
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Batch<V, R>[] joined = new Batch[1];
+        boolean[] leader = new boolean[1];
+        slots.compute(key, (k, slot) -> {
+            if (slot == null) {
+                slot = new Slot<>();
+            }
+            if (slot.open == null) {
+                slot.open = new Batch<>();
+                leader[0] = true;
+                if (slot.running == null) {
+                    slot.open.start.complete(null);
+                }
+            }
+            joined[0] = slot.open;
+            joined[0].value = value;
+            return slot;
+        });
+        Batch<V, R> batch = joined[0];
+        if (leader[0]) {
+            lead(key, batch, operation);
+        }
+        try {
+            return batch.result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * Gets the number of requests submitted.
+     *
+     * @return The request count.
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Gets the number of times an operation was executed. The ratio of requests to executions is
+     * the coalescing ratio.
+     *
+     * @return The execution count.
+     */
+    public long getExecutions() {
+        return executions.sum();
+    }
+
+    /**
+     * Runs a batch once the batch ahead of it has finished, then lets the next open batch start.
+     */
+    private void lead(K key, Batch<V, R> batch, Operation<V, R> operation) {
+        // Wait without reacting to interrupts: the requests of this batch and of later ones depend on it running.
+        batch.start.join();
+        try {
+            if (windowNanos > 0) {
+                LockSupport.parkNanos(windowNanos);
+            }
+            // Close the batch to new requests; later arrivals open the next batch.
+            @SuppressWarnings("unchecked")
+            V[] value = (V[]) new Object[1];
+            slots.compute(key, (k, slot) -> {
+                slot.open = null;
+                slot.running = batch;
+                value[0] = batch.value;
+                return slot;
+            });
+            executions.increment();
+            batch.result.complete(operation.execute(value[0]));
+        } catch (Exception | Error e) {
+            batch.result.completeExceptionally(e);
+        } finally {
+            slots.compute(key, (k, slot) -> {
+                slot.running = null;
+                if (slot.open == null) {
+                    return null;
+                }
+                slot.open.start.complete(null);
+                return slot;
+            });
+        }
+    }
+
+    /**
+     * An operation executed once for a batch of merged requests.
+     *
+     * @param <V> The type of the value carried by the requests.
+     * @param <R> The result type.
+     */
+    public interface Operation<V, R> {
+
+        /**
+         * Executes the operation.
+         *
+         * @param value The value of the last request in the batch.
+         * @return The result handed to every request of the batch.
+         * @throws Exception If the operation fails.
+         */
+        R execute(V value) throws Exception;
+    }
+
+    /**
+     * The executing batch of one key and the batch still accepting requests.
+     */
+    private static class Slot<V, R> {
+        private Batch<V, R> running;
+        private Batch<V, R> open;
+    }
+
+    /**
+     * A group of requests executed together.
+     */
+    private static class Batch<V, R> {
+        private final CompletableFuture<Void> start = new CompletableFuture<>();
+        private final CompletableFuture<R> result = new CompletableFuture<>();
+        private V value;
+    }
+}
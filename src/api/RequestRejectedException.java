@@ -0,0 +1,51 @@
+package api;
+
+/**
+ * Thrown by the RPCs that return no {@link KeyValueResponse} when the server turns a request away
+ * before running it, carrying the same error code and retry hint a response would.
+ */
+public class RequestRejectedException extends IllegalStateException {
+
+    private final ErrorCode errorCode;
+    private final long retryAfterMillis;
+
+    /**
+     * Constructs a RequestRejectedException.
+     *
+     * @param errorCode Why the request was turned away.
+     * @param message The reason, including the error code.
+     * @param retryAfterMillis How long the client should wait before retrying, or 0 if it should not.
+     */
+    public RequestRejectedException(ErrorCode errorCode, String message, long retryAfterMillis) {
+        super(message);
+        this.errorCode = errorCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * Gets why the request was turned away.
+     *
+     * @return The error code.
+     */
+    public ErrorCode getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * Gets how long the client should wait before retrying.
+     *
+     * @return The delay in milliseconds.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * Tells whether retrying later may succeed, i.e. the request was rate limited or throttled.
+     *
+     * @return true for {@link ErrorCode#RATE_LIMITED} and {@link ErrorCode#THROTTLED}.
+     */
+    public boolean isRetryable() {
+        return errorCode == ErrorCode.RATE_LIMITED || errorCode == ErrorCode.THROTTLED;
+    }
+}
@@ -0,0 +1,92 @@
+package api;
+
+import java.io.Serializable;
+
+/**
+ * Represents one chunk of a value read with {@link KeyValueRpc#getChunk(String, int, long)}.
+ * Large values are transferred as a sequence of chunks so that neither side needs one contiguous
+ * buffer for the whole value and a single large value does not monopolize a connection.
+ * The chunk payload is a {@link ValueCodec} block, sent exactly as it is stored on the server.
+ */
+public class ValueChunk implements Serializable {
+
+    private final byte[] block;
+    private final int index;
+    private final int chunkCount;
+    private final long valueLength;
+    private final long version;
+
+    /**
+     * Constructs a new ValueChunk.
+     *
+     * @param block The encoded chunk, see {@link ValueCodec}.
+     * @param index The position of this chunk in the value.
+     * @param chunkCount The total number of chunks in the value.
+     * @param valueLength The length in bytes of the whole decoded value.
+     * @param version The version of the value this chunk belongs to.
+     */
+    public ValueChunk(byte[] block, int index, int chunkCount, long valueLength, long version) {
+        this.block = block;
+        this.index = index;
+        this.chunkCount = chunkCount;
+        this.valueLength = valueLength;
+        this.version = version;
+    }
+
+    /**
+     * Gets the encoded chunk.
+     *
+     * @return The chunk as a {@link ValueCodec} block.
+     */
+    public byte[] getBlock() {
+        return block;
+    }
+
+    /**
+     * Gets the position of this chunk in the value.
+     *
+     * @return The chunk index, starting at 0.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets the total number of chunks in the value.
+     *
+     * @return The number of chunks.
+     */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Gets the length of the whole decoded value.
+     *
+     * @return The value length in bytes.
+     */
+    public long getValueLength() {
+        return valueLength;
+    }
+
+    /**
+     * Gets the version of the value. Passing it back when reading the remaining chunks guarantees
+     * that all chunks belong to the same value even if the key is overwritten concurrently.
+     *
+     * @return The value version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns a string representation of the ValueChunk.
+     *
+     * @return A string containing the position and size of the chunk.
+     */
+    @Override
+    public String toString() {
+        return String.format("ValueChunk {index=%d, chunkCount=%d, blockSize=%d, valueLength=%d, version=%d}",
+                index, chunkCount, block.length, valueLength, version);
+    }
+}
@@ -0,0 +1,175 @@
+package api;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes value bytes into the self-describing block format shared by the client and the server,
+ * both for values at rest in the store and for value chunks on the wire.
+ * <p>
+ * A block is a one-byte codec flag, the four-byte length of the original bytes, and the payload.
+ * Blocks at or above the compression threshold are Deflate-compressed; if compression does not
+ * make a block smaller, it is kept raw so incompressible data never grows.
+ */
+public final class ValueCodec {
+
+    public static final byte RAW = 0;
+    public static final byte DEFLATE = 1;
+
+    // Size of the codec flag plus the original length that prefix every block.
+    public static final int HEADER_SIZE = 5;
+
+    // Compression threshold that disables compression.
+    public static final int NEVER_COMPRESS = Integer.MAX_VALUE;
+
+    private ValueCodec() {
+    }
+
+    /**
+     * Encodes a range of bytes into a block, compressing it if it is at least {@code threshold} bytes long.
+     *
+     * @param data The source bytes.
+     * @param offset The start of the range.
+     * @param length The length of the range.
+     * @param threshold The minimum length at which compression is attempted.
+     * @return The encoded block.
+     */
+    public static byte[] encode(byte[] data, int offset, int length, int threshold) {
+        if (length >= threshold) {
+            byte[] compressed = deflate(data, offset, length);
+            if (compressed.length < length) {
+                return withHeader(DEFLATE, length, compressed, 0, compressed.length);
+            }
+        }
+        return withHeader(RAW, length, data, offset, length);
+    }
+
+    /**
+     * Compresses a raw block if it is at least {@code threshold} bytes long. Blocks that are already
+     * compressed, or below the threshold, are returned unchanged.
+     *
+     * @param block An encoded block.
+     * @param threshold The minimum length at which compression is attempted.
+     * @return The block, compressed if worthwhile.
+     */
+    public static byte[] recompress(byte[] block, int threshold) {
+        if (block[0] != RAW || block.length - HEADER_SIZE < threshold) {
+            return block;
+        }
+        return encode(block, HEADER_SIZE, block.length - HEADER_SIZE, threshold);
+    }
+
+    /**
+     * Decodes a block back into the original bytes.
+     *
+     * @param block An encoded block.
+     * @return The original bytes.
+     * @throws IllegalArgumentException If the block is corrupt.
+     */
+    public static byte[] decode(byte[] block) {
+        int length = rawLength(block);
+        if (block[0] == RAW) {
+            byte[] raw = new byte[length];
+            System.arraycopy(block, HEADER_SIZE, raw, 0, length);
+            return raw;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(block, HEADER_SIZE, block.length - HEADER_SIZE);
+            byte[] raw = new byte[length];
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, n, length - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+            if (n != length) {
+                throw new IllegalArgumentException("Compressed block is truncated.");
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Compressed block is corrupt: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Checks that a block received from elsewhere decodes, so that a corrupt block is rejected when
+     * it arrives rather than failing every later read. Compressed blocks are inflated and dropped.
+     *
+     * @param block An encoded block.
+     * @return The length of the original bytes.
+     * @throws IllegalArgumentException If the block is corrupt.
+     */
+    public static int verify(byte[] block) {
+        int length = rawLength(block);
+        if (block[0] == DEFLATE) {
+            decode(block);
+        }
+        return length;
+    }
+
+    /**
+     * Reads the length of the original bytes from a block header without decoding the block.
+     *
+     * @param block An encoded block.
+     * @return The length of the original bytes.
+     * @throws IllegalArgumentException If the block header is invalid.
+     */
+    public static int rawLength(byte[] block) {
+        if (block == null || block.length < HEADER_SIZE || (block[0] != RAW && block[0] != DEFLATE)) {
+            throw new IllegalArgumentException("Invalid value block header.");
+        }
+        int length = ((block[1] & 0xff) << 24) | ((block[2] & 0xff) << 16) | ((block[3] & 0xff) << 8) | (block[4] & 0xff);
+        if (length < 0 || (block[0] == RAW && length != block.length - HEADER_SIZE)) {
+            throw new IllegalArgumentException("Invalid value block length.");
+        }
+        return length;
+    }
+
+    /**
+     * Indicates whether a block is stored compressed.
+     *
+     * @param block An encoded block.
+     * @return true if the block is Deflate-compressed, false if it is raw.
+     */
+    public static boolean isCompressed(byte[] block) {
+        return block[0] == DEFLATE;
+    }
+
+    private static byte[] deflate(byte[] data, int offset, int length) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 2));
+            byte[] buffer = new byte[Math.min(Math.max(length, 64), 1 << 16)];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+                if (out.size() >= length) {
+                    break; // Not worth it; the caller keeps the raw bytes.
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] withHeader(byte codec, int rawLength, byte[] payload, int offset, int length) {
+        byte[] block = new byte[HEADER_SIZE + length];
+        block[0] = codec;
+        block[1] = (byte) (rawLength >>> 24);
+        block[2] = (byte) (rawLength >>> 16);
+        block[3] = (byte) (rawLength >>> 8);
+        block[4] = (byte) rawLength;
+        System.arraycopy(payload, offset, block, HEADER_SIZE, length);
+        return block;
+    }
+}
@@ -0,0 +1,92 @@
+package api;
+
+import java.io.Serializable;
+
+/**
+ * Represents one replica's copy of a value together with the timestamp of the write that produced
+ * it. Replicas resolve conflicting writes by last-writer-wins: the copy with the higher timestamp
+ * wins, and the writer id breaks ties so that every replica picks the same winner.
+ * A deletion is kept as a tombstone, a copy without a value, so that it can win over older writes.
+ */
+public class VersionedValue implements Serializable {
+
+    private final String value;
+    private final long timestamp;
+    private final String writerId;
+
+    /**
+     * Constructs a new VersionedValue.
+     *
+     * @param value The value, or null for a tombstone.
+     * @param timestamp The timestamp assigned by the coordinator of the write.
+     * @param writerId The id of the node that coordinated the write.
+     */
+    public VersionedValue(String value, long timestamp, String writerId) {
+        this.value = value;
+        this.timestamp = timestamp;
+        this.writerId = writerId;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return The value, or null if this is a tombstone.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Indicates whether this copy records a deletion.
+     *
+     * @return true if the key was deleted.
+     */
+    public boolean isTombstone() {
+        return value == null;
+    }
+
+    /**
+     * Gets the timestamp of the write.
+     *
+     * @return The timestamp.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Gets the id of the node that coordinated the write.
+     *
+     * @return The writer id.
+     */
+    public String getWriterId() {
+        return writerId;
+    }
+
+    /**
+     * Checks whether this copy wins over another under last-writer-wins.
+     *
+     * @param other The other copy, or null if the key is unknown.
+     * @return true if this copy is strictly newer.
+     */
+    public boolean isNewerThan(VersionedValue other) {
+        if (other == null) {
+            return true;
+        }
+        if (timestamp != other.timestamp) {
+            return timestamp > other.timestamp;
+        }
+        return writerId.compareTo(other.writerId) > 0;
+    }
+
+    /**
+     * Returns a string representation of the VersionedValue.
+     *
+     * @return A string containing the value, timestamp and writer.
+     */
+    @Override
+    public String toString() {
+        return String.format("VersionedValue {value=%s, timestamp=%d, writerId=%s}",
+                isTombstone() ? "<deleted>" : value, timestamp, writerId);
+    }
+}
@@ -0,0 +1,68 @@
+package client;
+
+import java.rmi.RemoteException;
+
+import api.ErrorCode;
+import api.KeyValueResponse;
+import api.RequestRejectedException;
+
+/**
+ * Runs remote calls, waiting out the {@code RATE_LIMITED} and {@code THROTTLED} rejections of the
+ * server's admission control and trying again, the way {@link BulkLoader} does for rejected
+ * batches. Other failures are returned or rethrown.
+ */
+final class AdmissionRetry {
+
+    /**
+     * A remote call that may be turned away by the server's admission control.
+     *
+     * @param <T> The result type.
+     */
+    interface Call<T> {
+        T run() throws RemoteException, InterruptedException;
+    }
+
+    private AdmissionRetry() {
+    }
+
+    /**
+     * Runs a call until the server admits it.
+     *
+     * @param call The call.
+     * @param <T> The result type.
+     * @return The call's result.
+     * @throws RemoteException If the call fails remotely.
+     * @throws InterruptedException If interrupted while calling or waiting to retry.
+     */
+    static <T> T call(Call<T> call) throws RemoteException, InterruptedException {
+        while (true) {
+            try {
+                return call.run();
+            } catch (RequestRejectedException e) {
+                if (!e.isRetryable()) {
+                    throw e;
+                }
+                // The server turned the call away before running it, so running it again is safe
+                Thread.sleep(Math.max(1, e.getRetryAfterMillis()));
+            }
+        }
+    }
+
+    /**
+     * Runs a call returning a {@link KeyValueResponse} until the server admits it.
+     *
+     * @param call The call.
+     * @return The first response that is not a {@code RATE_LIMITED} or {@code THROTTLED} rejection.
+     * @throws RemoteException If the call fails remotely.
+     * @throws InterruptedException If interrupted while calling or waiting to retry.
+     */
+    static KeyValueResponse respond(Call<KeyValueResponse> call) throws RemoteException, InterruptedException {
+        while (true) {
+            KeyValueResponse response = call.run();
+            if (response.getErrorCode() != ErrorCode.RATE_LIMITED && response.getErrorCode() != ErrorCode.THROTTLED) {
+                return response;
+            }
+            Thread.sleep(Math.max(1, response.getRetryAfterMillis()));
+        }
+    }
+}
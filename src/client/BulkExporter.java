@@ -0,0 +1,70 @@
+package client;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import api.KeyValueBatch;
+import api.KeyValueRpc;
+
+/**
+ * Streams a consistent point-in-time snapshot of the server's key-value store into a bulk data file.
+ * The snapshot is read page by page, so neither side has to hold the whole export in one message,
+ * and writers on the server keep running while the export is in progress. Pages the server turns
+ * away with {@code RATE_LIMITED} or {@code THROTTLED} are requested again once the retry hint has passed.
+ */
+public class BulkExporter {
+
+    private final KeyValueRpc stub;
+    private final int pageSize;
+
+    /**
+     * Constructs a BulkExporter.
+     *
+     * @param stub The remote stub of the key-value store service.
+     * @param pageSize The number of pairs requested per exportBatch call.
+     */
+    public BulkExporter(KeyValueRpc stub, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be a positive number.");
+        }
+        this.stub = stub;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Exports the whole store into a file, sorted by key.
+     *
+     * @param file The file to write; an existing file is overwritten.
+     * @param format The file format: "csv", "jsonl" or "bin".
+     * @throws IOException If the file cannot be written or the export fails on the server.
+     * @throws InterruptedException if the export is interrupted.
+     */
+    public void export(Path file, String format) throws IOException, InterruptedException {
+        long startNanos = System.nanoTime();
+        long pairs = 0;
+        long snapshotId = AdmissionRetry.call(stub::openSnapshot);
+        boolean finished = false;
+        try (BulkRecordWriter writer = new BulkRecordWriter(file, format)) {
+            String cursor = null;
+            KeyValueBatch batch;
+            do {
+                String after = cursor;
+                batch = AdmissionRetry.call(() -> stub.exportBatch(snapshotId, after, pageSize));
+                for (int i = 0; i < batch.size(); i++) {
+                    writer.write(batch.getKey(i), batch.getValue(i));
+                }
+                pairs += batch.size();
+                cursor = batch.getNextCursor();
+            } while (!batch.isLast());
+            finished = true;
+
+            double seconds = Math.max((System.nanoTime() - startNanos) / 1e9, 1e-3);
+            ClientLogger.info(String.format("Export finished: %d pairs written to %s in %.1f s (%.0f keys/s, %.2f MB/s).",
+                    pairs, file, seconds, pairs / seconds, writer.getBytesWritten() / seconds / (1024 * 1024)));
+        } finally {
+            if (!finished) {
+                stub.closeSnapshot(snapshotId);
+            }
+        }
+    }
+}
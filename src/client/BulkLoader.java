@@ -0,0 +1,241 @@
+package client;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import api.ErrorCode;
+import api.KeyValueResponse;
+import api.KeyValueRpc;
+
+/**
+ * Streams key-value pairs from a bulk data file into the server in large pipelined batches
+ * using {@link KeyValueRpc#putAll(Map)}.
+ * <p>
+ * Records are spread over a number of lanes by key hash. Each lane sends its batches one after
+ * another, so several batches are in flight at once while every key still reaches the server in
+ * file order. Progress is checkpointed next to the input file; when a load is interrupted it can
+ * be re-run with the same arguments and continues after the last record known to be applied.
+ */
+public class BulkLoader {
+
+    // How often progress is logged and the checkpoint file is refreshed.
+    private static final long PROGRESS_INTERVAL_MILLIS = 1000;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final KeyValueRpc stub;
+    private final int batchSize;
+    private final int lanes;
+
+    // First record index of every batch that has been started but not yet acknowledged.
+    private final TreeSet<Long> unackedBatches = new TreeSet<>();
+    private long recordsRead;
+    private long recordsApplied;
+    private volatile Exception failure;
+
+    /**
+     * Constructs a BulkLoader.
+     *
+     * @param stub The remote stub of the key-value store service.
+     * @param batchSize The number of pairs sent per putAll call.
+     * @param lanes The number of batches that may be in flight at the same time.
+     */
+    public BulkLoader(KeyValueRpc stub, int batchSize, int lanes) {
+        if (batchSize <= 0 || lanes <= 0) {
+            throw new IllegalArgumentException("Batch size and lanes must be positive numbers.");
+        }
+        this.stub = stub;
+        this.batchSize = batchSize;
+        this.lanes = lanes;
+    }
+
+    /**
+     * Loads a bulk data file into the server, resuming from its checkpoint if one exists.
+     * The checkpoint is removed once the whole file has been applied.
+     *
+     * @param file The file to load.
+     * @param format The file format: "csv", "jsonl" or "bin".
+     * @throws IOException If the file cannot be read or the server keeps rejecting a batch.
+     * @throws InterruptedException if the load is interrupted.
+     */
+    public void load(Path file, String format) throws IOException, InterruptedException {
+        Path checkpoint = Paths.get(file.toString() + ".checkpoint");
+        long resumeFrom = readCheckpoint(checkpoint);
+        if (resumeFrom > 0) {
+            ClientLogger.info(String.format("Resuming import of %s after record %d.", file, resumeFrom));
+        }
+
+        ExecutorService[] laneExecutors = new ExecutorService[lanes];
+        List<Map<String, String>> buffers = newBuffers();
+        long[] bufferFirstRecord = new long[lanes];
+        for (int i = 0; i < lanes; i++) {
+            laneExecutors[i] = Executors.newSingleThreadExecutor();
+        }
+        // Bound the number of batches queued behind the lanes so memory stays flat for any file size.
+        Semaphore permits = new Semaphore(lanes * 2);
+
+        long startNanos = System.nanoTime();
+        long lastProgress = System.currentTimeMillis();
+        long startBytes = 0;
+        try (BulkRecordReader reader = new BulkRecordReader(file, format)) {
+            synchronized (this) {
+                recordsRead = 0;
+                recordsApplied = 0;
+            }
+            while (failure == null && reader.next()) {
+                long record;
+                synchronized (this) {
+                    record = recordsRead++;
+                }
+                if (record < resumeFrom) {
+                    startBytes = reader.getBytesRead();
+                    continue;
+                }
+                int lane = (reader.getKey().hashCode() & 0x7fffffff) % lanes;
+                if (buffers.get(lane).isEmpty()) {
+                    bufferFirstRecord[lane] = record;
+                    synchronized (this) {
+                        unackedBatches.add(record);
+                    }
+                }
+                buffers.get(lane).put(reader.getKey(), reader.getValue());
+                if (buffers.get(lane).size() >= batchSize) {
+                    submit(laneExecutors[lane], permits, buffers.get(lane), bufferFirstRecord[lane]);
+                    buffers.set(lane, new HashMap<>(batchSize * 2));
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastProgress >= PROGRESS_INTERVAL_MILLIS) {
+                    lastProgress = now;
+                    writeCheckpoint(checkpoint);
+                    report("Import progress", startNanos, reader.getBytesRead() - startBytes);
+                }
+            }
+            for (int i = 0; i < lanes; i++) {
+                if (failure == null && !buffers.get(i).isEmpty()) {
+                    submit(laneExecutors[i], permits, buffers.get(i), bufferFirstRecord[i]);
+                }
+            }
+            for (ExecutorService executor : laneExecutors) {
+                executor.shutdown();
+            }
+            for (ExecutorService executor : laneExecutors) {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            report("Import finished", startNanos, reader.getBytesRead() - startBytes);
+        } finally {
+            for (ExecutorService executor : laneExecutors) {
+                executor.shutdownNow();
+            }
+        }
+
+        if (failure != null) {
+            long applied = writeCheckpoint(checkpoint);
+            throw new IOException(String.format("Import stopped after record %d: %s. Re-run the same command to resume.",
+                    applied, failure.getMessage()), failure);
+        }
+        Files.deleteIfExists(checkpoint);
+    }
+
+    private List<Map<String, String>> newBuffers() {
+        List<Map<String, String>> buffers = new ArrayList<>(lanes);
+        for (int i = 0; i < lanes; i++) {
+            buffers.add(new HashMap<>(batchSize * 2));
+        }
+        return buffers;
+    }
+
+    private void submit(ExecutorService lane, Semaphore permits, Map<String, String> batch, long firstRecord)
+            throws InterruptedException {
+        permits.acquire();
+        lane.execute(() -> {
+            try {
+                if (failure == null) {
+                    sendWithRetry(batch);
+                    synchronized (this) {
+                        unackedBatches.remove(firstRecord);
+                        recordsApplied += batch.size();
+                    }
+                }
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    private void sendWithRetry(Map<String, String> batch) throws RemoteException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                KeyValueResponse response = stub.putAll(batch);
+                if (response.getErrorCode() == ErrorCode.RATE_LIMITED || response.getErrorCode() == ErrorCode.THROTTLED) {
+                    // The server turned the batch away before applying it; back off without using up an attempt.
+                    attempt--;
+                    Thread.sleep(Math.max(1, response.getRetryAfterMillis()));
+                    continue;
+                }
+                if (!response.isSuccess()) {
+                    throw new IllegalStateException(String.format("Batch of %d pairs was rejected: [%s] %s", batch.size(),
+                            response.getErrorCode(), response.getErrorMsg()));
+                }
+                return;
+            } catch (RemoteException e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                ClientLogger.error(String.format("Batch of %d pairs failed (attempt %d/%d): %s",
+                        batch.size(), attempt, MAX_ATTEMPTS, e.getMessage()));
+                Thread.sleep(500L * attempt);
+            }
+        }
+    }
+
+    /**
+     * Persists the number of leading records that are known to be applied. Every record before
+     * the oldest unacknowledged batch has been applied, whichever lane it went to.
+     */
+    private long writeCheckpoint(Path checkpoint) throws IOException {
+        long applied;
+        synchronized (this) {
+            applied = unackedBatches.isEmpty() ? recordsRead : unackedBatches.first();
+        }
+        Path tmp = Paths.get(checkpoint.toString() + ".tmp");
+        Files.write(tmp, (applied + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return applied;
+    }
+
+    private static long readCheckpoint(Path checkpoint) throws IOException {
+        if (!Files.exists(checkpoint)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException(String.format("Checkpoint file %s is corrupt; delete it to restart the import.", checkpoint));
+        }
+    }
+
+    private void report(String label, long startNanos, long bytes) {
+        long applied;
+        synchronized (this) {
+            applied = recordsApplied;
+        }
+        double seconds = Math.max((System.nanoTime() - startNanos) / 1e9, 1e-3);
+        ClientLogger.info(String.format("%s: %d pairs applied in %.1f s (%.0f keys/s, %.2f MB/s).",
+                label, applied, seconds, applied / seconds, bytes / seconds / (1024 * 1024)));
+    }
+}
@@ -0,0 +1,354 @@
+package client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads key-value records one at a time from a bulk data file, so files with millions of pairs
+ * can be streamed without being loaded into memory. Three formats are supported:
+ * <ul>
+ *     <li>{@code csv}: one {@code key,value} pair per line; fields may be double-quoted with {@code ""} escapes,
+ *     and quoted fields may span lines.</li>
+ *     <li>{@code jsonl}: one {@code {"key": "...", "value": "..."}} object per line.</li>
+ *     <li>{@code bin}: the {@link #BINARY_MAGIC} header followed by length-prefixed UTF-8 keys and values.</li>
+ * </ul>
+ */
+public class BulkRecordReader implements Closeable {
+
+    // Header written at the start of every binary bulk file.
+    public static final int BINARY_MAGIC = 0x4B564231; // "KVB1"
+
+    private final String format;
+    private final BufferedReader textIn;
+    private final DataInputStream binaryIn;
+    private final char[] textBuffer = new char[1 << 16];
+    private int textPos;
+    private int textLimit;
+    private String key;
+    private String value;
+    private long lineNumber;
+    private long bytesRead;
+
+    /**
+     * Opens a bulk data file for reading.
+     *
+     * @param path The file to read.
+     * @param format The file format: "csv", "jsonl" or "bin".
+     * @throws IOException If the file cannot be opened or has an invalid header.
+     */
+    public BulkRecordReader(Path path, String format) throws IOException {
+        this.format = format;
+        switch (format) {
+            case "csv":
+            case "jsonl":
+                this.textIn = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+                this.binaryIn = null;
+                break;
+            case "bin":
+                this.textIn = null;
+                this.binaryIn = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+                if (binaryIn.readInt() != BINARY_MAGIC) {
+                    binaryIn.close();
+                    throw new IOException(String.format("File %s is not a binary bulk file.", path));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unsupported bulk format [%s]. Expect csv, jsonl or bin.", format));
+        }
+    }
+
+    /**
+     * Advances to the next record. Blank lines in text formats are skipped.
+     *
+     * @return true if a record was read, false at the end of the file.
+     * @throws IOException If the file cannot be read or a record is malformed.
+     */
+    public boolean next() throws IOException {
+        if (binaryIn != null) {
+            return nextBinary();
+        }
+        String line;
+        do {
+            if (format.equals("csv")) {
+                line = readCsvRecord();
+                if (line == null) {
+                    return false;
+                }
+                continue;
+            }
+            line = textIn.readLine();
+            if (line == null) {
+                return false;
+            }
+            lineNumber++;
+            bytesRead += line.length() + 1;
+        } while (line.trim().isEmpty());
+        if (format.equals("csv")) {
+            parseCsv(line);
+        } else {
+            parseJson(line);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the key of the current record.
+     *
+     * @return The key.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the value of the current record.
+     *
+     * @return The value.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Gets the approximate number of bytes consumed from the file so far.
+     *
+     * @return The number of bytes read.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (textIn != null) {
+            textIn.close();
+        }
+        if (binaryIn != null) {
+            binaryIn.close();
+        }
+    }
+
+    private boolean nextBinary() throws IOException {
+        int keyLength;
+        try {
+            keyLength = binaryIn.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+        key = readUtf8(keyLength);
+        value = readUtf8(binaryIn.readInt());
+        bytesRead += 8;
+        return true;
+    }
+
+    private String readUtf8(int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Negative length in binary bulk file.");
+        }
+        byte[] bytes = new byte[length];
+        binaryIn.readFully(bytes);
+        bytesRead += length;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the text of one CSV record, which ends at the first line break outside a quoted field,
+     * so that values holding line breaks come back as they were exported.
+     *
+     * @return The record without its line break, or null at the end of the file.
+     */
+    private String readCsvRecord() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        boolean fieldStart = true;
+        boolean afterQuote = false;
+        boolean keyDone = false;
+        while (true) {
+            if (textPos == textLimit) {
+                textLimit = textIn.read(textBuffer, 0, textBuffer.length);
+                textPos = 0;
+                if (textLimit <= 0) {
+                    textLimit = 0;
+                    if (sb.length() == 0) {
+                        return null;
+                    }
+                    lineNumber++;
+                    bytesRead += sb.length();
+                    return sb.toString();
+                }
+            }
+            char c = textBuffer[textPos++];
+            if (quoted) {
+                if (c == '"') {
+                    quoted = false;
+                    afterQuote = true;
+                } else if (c == '\n') {
+                    lineNumber++;
+                }
+            } else if (c == '\n') {
+                lineNumber++;
+                bytesRead += sb.length() + 1;
+                if (sb.length() > 0 && sb.charAt(sb.length() - 1) == '\r') {
+                    sb.setLength(sb.length() - 1);
+                }
+                return sb.toString();
+            } else if (c == '"' && (fieldStart || afterQuote)) {
+                // Opens a quoted field, or is the second quote of a "" escape
+                quoted = true;
+                afterQuote = false;
+            } else {
+                afterQuote = false;
+                if (c == ',' && !keyDone) {
+                    keyDone = true;
+                    fieldStart = true;
+                    sb.append(c);
+                    continue;
+                }
+            }
+            fieldStart = false;
+            sb.append(c);
+        }
+    }
+
+    private void parseCsv(String line) throws IOException {
+        int[] pos = {0};
+        key = readCsvField(line, pos, false);
+        if (pos[0] >= line.length() || line.charAt(pos[0]) != ',') {
+            throw malformed("expected a comma after the key");
+        }
+        pos[0]++;
+        value = readCsvField(line, pos, true);
+    }
+
+    private String readCsvField(String line, int[] pos, boolean lastField) throws IOException {
+        int i = pos[0];
+        if (i < line.length() && line.charAt(i) == '"') {
+            StringBuilder sb = new StringBuilder();
+            i++;
+            while (true) {
+                if (i >= line.length()) {
+                    throw malformed("unterminated quoted field");
+                }
+                char c = line.charAt(i++);
+                if (c == '"') {
+                    if (i < line.length() && line.charAt(i) == '"') {
+                        sb.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                } else {
+                    sb.append(c);
+                }
+            }
+            pos[0] = i;
+            return sb.toString();
+        }
+        // An unquoted key ends at the first comma; an unquoted value runs to the end of the line.
+        int end = lastField ? line.length() : line.indexOf(',', i);
+        if (end < 0) {
+            end = line.length();
+        }
+        pos[0] = end;
+        return line.substring(i, end);
+    }
+
+    private void parseJson(String line) throws IOException {
+        key = null;
+        value = null;
+        int[] pos = {skipWhitespace(line, 0)};
+        expect(line, pos, '{');
+        while (true) {
+            pos[0] = skipWhitespace(line, pos[0]);
+            String field = readJsonString(line, pos);
+            pos[0] = skipWhitespace(line, pos[0]);
+            expect(line, pos, ':');
+            pos[0] = skipWhitespace(line, pos[0]);
+            String fieldValue = readJsonString(line, pos);
+            if (field.equals("key")) {
+                key = fieldValue;
+            } else if (field.equals("value")) {
+                value = fieldValue;
+            }
+            pos[0] = skipWhitespace(line, pos[0]);
+            if (pos[0] < line.length() && line.charAt(pos[0]) == ',') {
+                pos[0]++;
+                continue;
+            }
+            expect(line, pos, '}');
+            break;
+        }
+        if (key == null || value == null) {
+            throw malformed("object must contain \"key\" and \"value\" strings");
+        }
+    }
+
+    private String readJsonString(String line, int[] pos) throws IOException {
+        expect(line, pos, '"');
+        StringBuilder sb = new StringBuilder();
+        int i = pos[0];
+        while (true) {
+            if (i >= line.length()) {
+                throw malformed("unterminated string");
+            }
+            char c = line.charAt(i++);
+            if (c == '"') {
+                break;
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (i >= line.length()) {
+                throw malformed("unterminated escape");
+            }
+            char escaped = line.charAt(i++);
+            switch (escaped) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    if (i + 4 > line.length()) {
+                        throw malformed("truncated unicode escape");
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(line.substring(i, i + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw malformed("invalid unicode escape");
+                    }
+                    i += 4;
+                    break;
+                default: sb.append(escaped); break;
+            }
+        }
+        pos[0] = i;
+        return sb.toString();
+    }
+
+    private void expect(String line, int[] pos, char expected) throws IOException {
+        if (pos[0] >= line.length() || line.charAt(pos[0]) != expected) {
+            throw malformed(String.format("expected '%c'", expected));
+        }
+        pos[0]++;
+    }
+
+    private static int skipWhitespace(String line, int i) {
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private IOException malformed(String reason) {
+        return new IOException(String.format("Malformed %s record on line %d: %s.", format, lineNumber, reason));
+    }
+}
@@ -0,0 +1,123 @@
+package client;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes key-value records to a bulk data file in one of the formats understood by
+ * {@link BulkRecordReader}, so an exported file can be imported again unchanged.
+ */
+public class BulkRecordWriter implements Closeable {
+
+    private final String format;
+    private final BufferedWriter textOut;
+    private final DataOutputStream binaryOut;
+    private long bytesWritten;
+
+    /**
+     * Creates (or truncates) a bulk data file for writing.
+     *
+     * @param path The file to write.
+     * @param format The file format: "csv", "jsonl" or "bin".
+     * @throws IOException If the file cannot be created.
+     */
+    public BulkRecordWriter(Path path, String format) throws IOException {
+        this.format = format;
+        switch (format) {
+            case "csv":
+            case "jsonl":
+                this.textOut = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+                this.binaryOut = null;
+                break;
+            case "bin":
+                this.textOut = null;
+                this.binaryOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+                binaryOut.writeInt(BulkRecordReader.BINARY_MAGIC);
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unsupported bulk format [%s]. Expect csv, jsonl or bin.", format));
+        }
+    }
+
+    /**
+     * Appends one key-value record to the file.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(String key, String value) throws IOException {
+        if (binaryOut != null) {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+            binaryOut.writeInt(keyBytes.length);
+            binaryOut.write(keyBytes);
+            binaryOut.writeInt(valueBytes.length);
+            binaryOut.write(valueBytes);
+            bytesWritten += 8 + keyBytes.length + valueBytes.length;
+            return;
+        }
+        String line = format.equals("csv")
+                ? csvField(key) + "," + csvField(value)
+                : "{\"key\":" + jsonString(key) + ",\"value\":" + jsonString(value) + "}";
+        textOut.write(line);
+        textOut.newLine();
+        bytesWritten += line.length() + 1;
+    }
+
+    /**
+     * Gets the approximate number of bytes written to the file so far.
+     *
+     * @return The number of bytes written.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (textOut != null) {
+            textOut.close();
+        }
+        if (binaryOut != null) {
+            binaryOut.close();
+        }
+    }
+
+    private static String csvField(String field) {
+        boolean needsQuotes = field.indexOf(',') >= 0 || field.indexOf('"') >= 0
+                || field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0;
+        if (!needsQuotes) {
+            return field;
+        }
+        return "\"" + field.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String jsonString(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,109 @@
+package client;
+
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
+
+import api.ChangeEvent;
+import api.KeyValueRpc;
+import api.KeyValueWatcher;
+
+/**
+ * Watches a key or key prefix on the server and logs every change pushed to it. When the server
+ * ends the watch, for example because this client fell behind, the watcher registers again from
+ * the last event it received so no change is missed.
+ * <p>
+ * The server calls back into this object over RMI, so the client must be reachable from the
+ * server; set {@code -Djava.rmi.server.hostname} to an address the server can resolve.
+ */
+public class ChangeWatcher extends UnicastRemoteObject implements KeyValueWatcher {
+
+    // Delay before registering again after the server ended the watch.
+    private static final long RESUME_DELAY_MILLIS = 500;
+
+    private final KeyValueRpc stub;
+    private final String key;
+    private final boolean prefix;
+    private volatile long lastSequence;
+    private volatile long watchId;
+
+    /**
+     * Constructs a ChangeWatcher and exports it for callbacks.
+     *
+     * @param stub The remote stub of the key-value store service.
+     * @param key The key, or key prefix, to watch.
+     * @param prefix true to watch every key starting with {@code key}.
+     * @throws RemoteException If the object cannot be exported.
+     */
+    public ChangeWatcher(KeyValueRpc stub, String key, boolean prefix) throws RemoteException {
+        super();
+        this.stub = stub;
+        this.key = key;
+        this.prefix = prefix;
+    }
+
+    /**
+     * Registers this watcher with the server.
+     *
+     * @param resumeAfter The last sequence number already seen, or -1 for new changes only.
+     * @throws RemoteException If the registration fails.
+     */
+    public void start(long resumeAfter) throws RemoteException {
+        lastSequence = resumeAfter;
+        watchId = stub.watch(key, prefix, resumeAfter, this);
+        ClientLogger.info(String.format("Watching %s=%s as watch id=%d after sequence %d.",
+                prefix ? "prefix" : "key", key, watchId, resumeAfter));
+    }
+
+    /**
+     * Cancels the watch on the server and stops accepting callbacks.
+     *
+     * @throws RemoteException If the cancellation fails.
+     */
+    public void stop() throws RemoteException {
+        stub.unwatch(watchId);
+        UnicastRemoteObject.unexportObject(this, true);
+    }
+
+    @Override
+    public void onChanges(List<ChangeEvent> events) throws RemoteException {
+        for (ChangeEvent event : events) {
+            if (event.getType().equals("PUT")) {
+                ClientLogger.info(String.format("[seq=%d] PUT key=%s (%d bytes)%s", event.getSequence(), event.getKeyString(),
+                        event.getValueLength(), event.getValue() == null ? "" : " value=" + new String(event.getValue(),
+                                StandardCharsets.UTF_8)));
+            } else {
+                ClientLogger.info(String.format("[seq=%d] DELETE key=%s", event.getSequence(), event.getKeyString()));
+            }
+            lastSequence = event.getSequence();
+        }
+    }
+
+    @Override
+    public void onWatchEnded(long resumeAfter, String reason) throws RemoteException {
+        ClientLogger.error(String.format("Server ended watch id=%d after sequence %d: %s. Resuming...", watchId, resumeAfter, reason));
+        // Register again from a separate thread so the server's callback returns immediately.
+        Thread resume = new Thread(() -> {
+            try {
+                Thread.sleep(RESUME_DELAY_MILLIS);
+                start(resumeAfter);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                ClientLogger.error("Could not resume the watch: " + e.getMessage());
+            }
+        });
+        resume.setDaemon(true);
+        resume.start();
+    }
+
+    /**
+     * Gets the sequence number of the last event received.
+     *
+     * @return The last sequence number.
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+}
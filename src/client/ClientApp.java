@@ -1,15 +1,26 @@
 package client;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.ConnectIOException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 import java.lang.Thread;
 
+import api.ConsistencyLevel;
+import api.KeyValueBatch;
 import api.KeyValueRpc;
 import api.KeyValueResponse;
 
@@ -25,6 +36,9 @@ public class ClientApp {
     private static int port;
     private static String serverName;
 
+    // Consistency level of get/put/delete requests, from KV_CONSISTENCY; null leaves the choice to the server.
+    static ConsistencyLevel consistency;
+
     public static final String INSTRUCTIONS = "\nHow to Enter Your Request:\n" +
             "Enter 1: GET the value by a certain key\n" +
             "Enter 2: ADD or UPDATE a key-value pair\n" +
@@ -35,6 +49,14 @@ public class ClientApp {
     public static final String INVALID_OPERATION = "Invalid input. Please enter 1 or 2 or 3 or 4 to select an operation.";
     public static final String INVALID_KEY_OR_VALUE = "Key or value must NOT be NULL or EMPTY. Please enter a valid input.";
 
+    // Number of pairs per putAll call / exportBatch call, and batches in flight during an import.
+    private static final int BULK_BATCH_SIZE = 1000;
+    private static final int BULK_LANES = 4;
+
+    // Chunk size and compression threshold used for --put-file uploads.
+    private static final int UPLOAD_CHUNK_SIZE = 64 * 1024;
+    private static final int UPLOAD_COMPRESS_THRESHOLD = 1024;
+
     /**
      * Main entry point of the application. Parses command-line arguments to
      * establish a connection to the server and handles connection errors.
@@ -47,19 +69,37 @@ public class ClientApp {
             System.setProperty("sun.rmi.transport.tcp.responseTimeout", "3000");
 
             if (args.length < 2) {
-                System.out.println("Invalid arguments, usage: java ClientApp <host> <port> [--preload]" +
+                System.out.println("Invalid arguments, usage: java ClientApp <host> <port> " +
+                        "[--preload | --import <file> [csv|jsonl|bin] | --export <file> [csv|jsonl|bin] | " +
+                        "--put-file <key> <file> | --get-file <key> <file> | --stats | --watch <prefix> [resumeAfter] | " +
+                        "--get <key> | --put <key> <value> | --delete <key> | --snapshot-get <key>... | --hot-bench [threads] [seconds]] " +
                         "e.g. `java ClientApp localhost 1099 --preload` or `java ClientApp localhost 1099`");
                 return;
             }
             host = args[0];
             port = Integer.parseInt(args[1]);
             serverName = "rpc-server-" + port;
+            // Namespaces other than the default one are bound under rpc-server-<port>/<namespace>
+            String namespace = System.getenv("KV_NAMESPACE");
+            if (namespace != null && !namespace.trim().isEmpty() && !namespace.trim().equals("default")) {
+                serverName += "/" + namespace.trim();
+            }
+            String level = System.getenv("KV_CONSISTENCY");
+            if (level != null && !level.trim().isEmpty()) {
+                consistency = ConsistencyLevel.valueOf(level.trim().toUpperCase());
+            }
             boolean choosePreload = args.length > 2 && args[2].equals("--preload");
 
-            ClientLogger.info(String.format("Client attempting to build RMI connection with host[%s] port[%s]...", host, port));
+            ClientLogger.info(String.format("Client attempting to build RMI connection with host[%s] port[%s] service[%s]...", host, port, serverName));
 
             Registry registry = LocateRegistry.getRegistry(host, port);
             KeyValueRpc serverStub = (KeyValueRpc) registry.lookup(serverName);
+            // Identify this client so the server applies its rate limit and fair share
+            String clientId = System.getenv("KV_CLIENT_ID");
+            if (clientId != null && !clientId.trim().isEmpty()) {
+                serverStub = serverStub.openSession(clientId.trim());
+                ClientLogger.info(String.format("Opened a session as client %s.", clientId.trim()));
+            }
 
             ClientLogger.info(String.format("Client successfully built RMI connection with host[%s] port[%s]...", host, port));
 
@@ -67,6 +107,75 @@ public class ClientApp {
                 preloadData(serverStub);
             }
 
+            if (args.length > 3 && (args[2].equals("--import") || args[2].equals("--export"))) {
+                Path file = Paths.get(args[3]);
+                String format = args.length > 4 ? args[4] : formatOf(file);
+                if (args[2].equals("--import")) {
+                    new BulkLoader(serverStub, BULK_BATCH_SIZE, BULK_LANES).load(file, format);
+                } else {
+                    new BulkExporter(serverStub, BULK_BATCH_SIZE).export(file, format);
+                }
+                return;
+            }
+
+            if (args.length > 4 && (args[2].equals("--put-file") || args[2].equals("--get-file"))) {
+                LargeValueClient transfer = new LargeValueClient(serverStub, UPLOAD_CHUNK_SIZE, UPLOAD_COMPRESS_THRESHOLD);
+                Path file = Paths.get(args[4]);
+                if (args[2].equals("--put-file")) {
+                    try (InputStream in = Files.newInputStream(file)) {
+                        transfer.upload(args[3], in);
+                    }
+                } else {
+                    try (OutputStream out = Files.newOutputStream(file)) {
+                        if (!transfer.download(args[3], out)) {
+                            ClientLogger.error(String.format("Key=%s is not found in the database.", args[3]));
+                        }
+                    }
+                }
+                return;
+            }
+
+            if (args.length > 3 && args[2].equals("--watch")) {
+                ChangeWatcher watcher = new ChangeWatcher(serverStub, args[3], true);
+                watcher.start(args.length > 4 ? Long.parseLong(args[4]) : -1);
+                System.out.println("Watching for changes. Press ENTER to stop.");
+                new Scanner(System.in).nextLine();
+                watcher.stop();
+                return;
+            }
+
+            if (args.length > 3 && args[2].equals("--snapshot-get")) {
+                // Read several keys as of one point in time
+                KeyValueBatch batch = serverStub.snapshotGet(Arrays.copyOfRange(args, 3, args.length));
+                for (int i = 0; i < batch.size(); i++) {
+                    ClientLogger.info(batch.getValue(i) == null
+                            ? String.format("Key=%s is not found in the snapshot.", batch.getKey(i))
+                            : String.format("Key=%s has value=%s in the snapshot.", batch.getKey(i), batch.getValue(i)));
+                }
+                return;
+            }
+
+            if (args.length > 3 && (args[2].equals("--get") || args[2].equals("--delete")
+                    || (args[2].equals("--put") && args.length > 4))) {
+                // One-shot operations, for scripts
+                Runnable task = args[2].equals("--get") ? new ClientGetTask(args[3], serverStub)
+                        : args[2].equals("--put") ? new ClientPutTask(args[3], args[4], serverStub)
+                        : new ClientDeleteTask(args[3], serverStub);
+                task.run();
+                return;
+            }
+
+            if (args.length > 2 && args[2].equals("--hot-bench")) {
+                hotKeyBenchmark(serverStub, args.length > 3 ? Integer.parseInt(args[3]) : 32,
+                        args.length > 4 ? Integer.parseInt(args[4]) : 5);
+                return;
+            }
+
+            if (args.length > 2 && args[2].equals("--stats")) {
+                printStats(serverStub.stats());
+                return;
+            }
+
             /** Test concurrent client requests */
 //            int numberOfThreads = 5;
 //
@@ -89,7 +198,105 @@ public class ClientApp {
             handleConnection(serverStub);
         } catch (RemoteException | NotBoundException | IllegalStateException | NumberFormatException | InterruptedException ex) {
             ClientLogger.error("Client setup error: " + ex.getMessage());
+        } catch (IOException | IllegalArgumentException ex) {
+            ClientLogger.error("Bulk transfer error: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Prints the server's store counters, followed by the compression ratio, memory saved and
+     * compression CPU time derived from them.
+     *
+     * @param stats The counters returned by the server.
+     */
+    private static void printStats(Map<String, Long> stats) {
+        for (Map.Entry<String, Long> entry : stats.entrySet()) {
+            System.out.println(String.format("%-32s %d", entry.getKey(), entry.getValue()));
+        }
+        long raw = stats.getOrDefault("store.rawBytes", 0L);
+        long stored = stats.getOrDefault("store.storedBytes", 0L);
+        long encodes = stats.getOrDefault("codec.encodeCalls", 0L);
+        long decodes = stats.getOrDefault("codec.decompressCalls", 0L);
+        System.out.println(String.format("Compression ratio %.2f, memory saved %d bytes (%.1f%%).",
+                stored == 0 ? 1.0 : (double) raw / stored, raw - stored, raw == 0 ? 0.0 : 100.0 * (raw - stored) / raw));
+        System.out.println(String.format("CPU: %.1f us per encode, %.1f us per compressed decode.",
+                encodes == 0 ? 0.0 : stats.getOrDefault("codec.compressNanos", 0L) / 1e3 / encodes,
+                decodes == 0 ? 0.0 : stats.getOrDefault("codec.decompressNanos", 0L) / 1e3 / decodes));
+    }
+
+    /**
+     * Compares plain remote calls with a {@link CoalescingKeyValueClient} on a hot-key workload:
+     * many threads reading, and occasionally writing, a few keys. Prints the throughput of both and
+     * how many requests each remote call served.
+     *
+     * @param stub The remote stub of the key-value store service.
+     * @param threads The number of client threads.
+     * @param seconds The duration of each run.
+     * @throws InterruptedException if the benchmark is interrupted.
+     */
+    private static void hotKeyBenchmark(KeyValueRpc stub, int threads, int seconds) throws InterruptedException {
+        CoalescingKeyValueClient coalescing = new CoalescingKeyValueClient(stub, consistency, 0);
+        String[] keys = {"hot-0", "hot-1", "hot-2", "hot-3"};
+        String value = "Scalable Distributed Systems";
+        double[] throughput = new double[2];
+        for (int run = 0; run < 2; run++) {
+            boolean coalesce = run == 1;
+            LongAdder ops = new LongAdder();
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            String key = keys[random.nextInt(keys.length)];
+                            boolean read = random.nextInt(10) > 0;
+                            if (coalesce) {
+                                if (read) {
+                                    coalescing.get(key);
+                                } else {
+                                    coalescing.put(key, value);
+                                }
+                            } else if (read) {
+                                stub.get(key, consistency);
+                            } else {
+                                stub.put(key, value, consistency);
+                            }
+                            ops.increment();
+                        }
+                    } catch (RemoteException | InterruptedException e) {
+                        ClientLogger.error("Benchmark thread failed: " + e.getMessage());
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            throughput[run] = ops.sum() / (double) seconds;
+            System.out.println(String.format("coalescing %-3s: %,10.0f ops/s", coalesce ? "on" : "off", throughput[run]));
+        }
+        long[] gets = coalescing.getCounts();
+        long[] puts = coalescing.putCounts();
+        System.out.println(String.format("gets %,d -> %,d calls (ratio %.1f), puts %,d -> %,d calls (ratio %.1f), gain %.2fx",
+                gets[0], gets[1], gets[1] == 0 ? 1.0 : (double) gets[0] / gets[1],
+                puts[0], puts[1], puts[1] == 0 ? 1.0 : (double) puts[0] / puts[1], throughput[1] / throughput[0]));
+    }
+
+    /**
+     * Infers the bulk file format from the file extension, defaulting to csv.
+     *
+     * @param file The bulk data file.
+     * @return The format name: "csv", "jsonl" or "bin".
+     */
+    private static String formatOf(Path file) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(".jsonl") || name.endsWith(".json")) {
+            return "jsonl";
+        } else if (name.endsWith(".bin")) {
+            return "bin";
         }
+        return "csv";
     }
 
     /**
@@ -22,13 +22,13 @@ public class ClientDeleteTask implements Runnable {
     public void run() {
         String value;
         try {
-            value = stub.get(key).getValue();
-            this.result = stub.delete(this.key);
+            value = stub.get(key, ClientApp.consistency).getValue();
+            this.result = stub.delete(this.key, ClientApp.consistency);
             if (result.isSuccess()) {
                 String success = String.format("DELETE Operation for <key=%s, value=%s> completed successfully!", this.key, value);
                 System.out.println(success);
             } else {
-                System.out.println(String.format("Error! %s", result.getErrorMsg()));
+                System.out.println(String.format("Error! [%s] %s", result.getErrorCode(), result.getErrorMsg()));
             }
         } catch (IllegalArgumentException e) {
             System.out.println(ClientApp.INVALID_KEY_OR_VALUE);
@@ -22,14 +22,14 @@ public class ClientGetTask implements Runnable {
     public void run() {
         String value;
         try {
-            this.result = stub.get(this.key);
+            this.result = stub.get(this.key, ClientApp.consistency);
             value = result.getValue();
             if (result.isSuccess()){
                 String success = String.format("GET Operation for <key=%s> completed successfully! <value=%s>", this.key, value);
                 ClientLogger.info(success);
                 System.out.println(success);
             } else {
-                System.out.println(String.format("Error! %s", result.getErrorMsg()));
+                System.out.println(String.format("Error! [%s] %s", result.getErrorCode(), result.getErrorMsg()));
             }
         } catch (IllegalArgumentException e) {
             System.out.println(ClientApp.INVALID_KEY_OR_VALUE);
@@ -23,13 +23,13 @@ public class ClientPutTask implements Runnable {
     @Override
     public void run() {
         try {
-            this.result = stub.put(this.key, this.value);
+            this.result = stub.put(this.key, this.value, ClientApp.consistency);
             if (result.isSuccess() ){
                 String success = String.format("PUT/UPDATE Operation for <key=%s, value=%s> completed successfully!", this.key, this.value);
                 ClientLogger.info(success);
                 System.out.println(success);
             } else {
-                System.out.println(String.format("Error! %s", result.getErrorMsg()));
+                System.out.println(String.format("Error! [%s] %s", result.getErrorCode(), result.getErrorMsg()));
             }
         } catch (IllegalArgumentException e) {
             System.out.println(ClientApp.INVALID_KEY_OR_VALUE);
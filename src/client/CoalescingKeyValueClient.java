@@ -0,0 +1,103 @@
+package client;
+
+import java.rmi.RemoteException;
+
+import api.ConsistencyLevel;
+import api.KeyValueResponse;
+import api.KeyValueRpc;
+import api.RequestCoalescer;
+
+/**
+ * Wraps a key-value store stub for use by many threads of one client process. Concurrent gets of
+ * the same key share a single remote call and its response, and concurrent puts to the same key
+ * are sent as one remote call carrying the last value, see {@link RequestCoalescer}. This saves a
+ * round trip per merged request on hot keys. Responses may be shared between threads and must not
+ * be modified. Deletes are passed through unchanged.
+ */
+public class CoalescingKeyValueClient {
+
+    private final KeyValueRpc stub;
+    private final ConsistencyLevel level;
+    private final RequestCoalescer<String, Void, KeyValueResponse> gets = new RequestCoalescer<>();
+    private final RequestCoalescer<String, String, KeyValueResponse> puts;
+
+    /**
+     * Constructs a CoalescingKeyValueClient.
+     *
+     * @param stub The remote stub of the key-value store service.
+     * @param level The consistency level of every request, or null for the server's default.
+     * @param writeWindowMicros How long a put waits for more puts to the same key, or 0 for no wait.
+     */
+    public CoalescingKeyValueClient(KeyValueRpc stub, ConsistencyLevel level, long writeWindowMicros) {
+        this.stub = stub;
+        this.level = level;
+        this.puts = new RequestCoalescer<>(writeWindowMicros);
+    }
+
+    /**
+     * Retrieves the value of a key, sharing the remote call with concurrent gets of the same key.
+     *
+     * @param key The key whose associated value is to be returned.
+     * @return The response of the shared call.
+     * @throws RemoteException If an error occurs during the remote method call.
+     * @throws InterruptedException if there's an interruption during the remote method call.
+     */
+    public KeyValueResponse get(String key) throws RemoteException, InterruptedException {
+        return execute(gets, key, null, ignored -> stub.get(key, level));
+    }
+
+    /**
+     * Inserts or updates a key-value pair, merged with concurrent puts to the same key.
+     *
+     * @param key The key with which the specified value is to be associated.
+     * @param value The value to be associated with the specified key.
+     * @return The response of the merged call.
+     * @throws RemoteException If an error occurs during the remote method call.
+     * @throws InterruptedException if there's an interruption during the remote method call.
+     */
+    public KeyValueResponse put(String key, String value) throws RemoteException, InterruptedException {
+        return execute(puts, key, value, merged -> stub.put(key, merged, level));
+    }
+
+    /**
+     * Removes a key. Deletes are not merged.
+     *
+     * @param key The key whose key-value pair is to be removed.
+     * @return The response of the call.
+     * @throws RemoteException If an error occurs during the remote method call.
+     * @throws InterruptedException if there's an interruption during the remote method call.
+     */
+    public KeyValueResponse delete(String key) throws RemoteException, InterruptedException {
+        return stub.delete(key, level);
+    }
+
+    /**
+     * Gets the number of gets issued and the number of remote calls they were merged into.
+     *
+     * @return The request and call counts, in that order.
+     */
+    public long[] getCounts() {
+        return new long[]{gets.getRequests(), gets.getExecutions()};
+    }
+
+    /**
+     * Gets the number of puts issued and the number of remote calls they were merged into.
+     *
+     * @return The request and call counts, in that order.
+     */
+    public long[] putCounts() {
+        return new long[]{puts.getRequests(), puts.getExecutions()};
+    }
+
+    private static <V> KeyValueResponse execute(RequestCoalescer<String, V, KeyValueResponse> coalescer, String key, V value,
+                                                RequestCoalescer.Operation<V, KeyValueResponse> operation)
+            throws RemoteException, InterruptedException {
+        try {
+            return coalescer.execute(key, value, operation);
+        } catch (RuntimeException | RemoteException | InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RemoteException("Request failed: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.rmi.RemoteException;
+
+import api.KeyValueResponse;
+import api.KeyValueRpc;
+import api.RequestRejectedException;
+import api.ValueChunk;
+import api.ValueCodec;
+
+/**
+ * Streams large values to and from the server in chunks, so that a multi-megabyte value never
+ * needs one contiguous buffer on either side and other requests can interleave with the transfer.
+ * Chunks at or above the compression threshold are Deflate-compressed before they are sent;
+ * downloaded chunks arrive exactly as the server stores them and are decompressed here. A call the
+ * server turns away with {@code RATE_LIMITED} or {@code THROTTLED} is repeated once the retry hint
+ * has passed, so a rejected chunk does not cost the transfer.
+ */
+public class LargeValueClient {
+
+    // Chunk attempts before giving up when a value keeps changing during a download.
+    private static final int MAX_DOWNLOAD_ATTEMPTS = 3;
+
+    private final KeyValueRpc stub;
+    private final int chunkSize;
+    private final int compressThreshold;
+
+    /**
+     * Constructs a LargeValueClient.
+     *
+     * @param stub The remote stub of the key-value store service.
+     * @param chunkSize The number of value bytes per uploaded chunk; must not exceed the server's chunk size.
+     * @param compressThreshold The chunk size at which chunks are compressed before upload.
+     */
+    public LargeValueClient(KeyValueRpc stub, int chunkSize, int compressThreshold) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be a positive number.");
+        }
+        this.stub = stub;
+        this.chunkSize = chunkSize;
+        this.compressThreshold = compressThreshold <= 0 ? ValueCodec.NEVER_COMPRESS : compressThreshold;
+    }
+
+    /**
+     * Uploads a value read from a stream. The value becomes visible on the server only once every
+     * chunk has been received.
+     *
+     * @param key The key to insert or update.
+     * @param in The stream holding the value; it is read to the end but not closed.
+     * @return The number of value bytes uploaded.
+     * @throws IOException If the stream cannot be read.
+     * @throws InterruptedException if the upload is interrupted.
+     */
+    public long upload(String key, InputStream in) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long uploadId = AdmissionRetry.call(() -> stub.beginUpload(key));
+        byte[] buffer = new byte[chunkSize];
+        long rawBytes = 0;
+        long sentBytes = 0;
+        int index = 0;
+        int n;
+        while ((n = readFully(in, buffer)) > 0) {
+            byte[] block = ValueCodec.encode(buffer, 0, n, compressThreshold);
+            int chunkIndex = index++;
+            AdmissionRetry.call(() -> {
+                stub.uploadChunk(uploadId, chunkIndex, block);
+                return null;
+            });
+            rawBytes += n;
+            sentBytes += block.length;
+        }
+        KeyValueResponse response = AdmissionRetry.respond(() -> stub.commitUpload(uploadId));
+        if (!response.isSuccess()) {
+            throw new IOException(response.getErrorMsg());
+        }
+        ClientLogger.info(String.format("Uploaded %d bytes for key=%s in %d chunks (%d bytes on the wire, ratio %.2f) in %.1f ms.",
+                rawBytes, key, index, sentBytes, ratio(rawBytes, sentBytes), (System.nanoTime() - start) / 1e6));
+        return rawBytes;
+    }
+
+    /**
+     * Downloads a value into a stream, one chunk at a time. If the value is overwritten while it is
+     * being read, the download restarts so the output never mixes two versions.
+     *
+     * @param key The key whose value is to be read.
+     * @param out The stream to write the value to; it is not closed.
+     * @return true if the value was found and written, false if the key does not exist.
+     * @throws IOException If the stream cannot be written.
+     * @throws InterruptedException if the download is interrupted.
+     */
+    public boolean download(String key, OutputStream out) throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return downloadOnce(key, out);
+            } catch (RequestRejectedException e) {
+                throw e;
+            } catch (IllegalStateException e) {
+                if (attempt >= MAX_DOWNLOAD_ATTEMPTS) {
+                    throw new IOException(e.getMessage(), e);
+                }
+                ClientLogger.error(e.getMessage());
+            }
+        }
+    }
+
+    private boolean downloadOnce(String key, OutputStream out) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        ValueChunk chunk = AdmissionRetry.call(() -> stub.getChunk(key, 0, -1));
+        if (chunk == null) {
+            return false;
+        }
+        // Decode every chunk before writing any of it, so a retry never leaves a mixed value behind.
+        byte[][] decoded = new byte[chunk.getChunkCount()][];
+        long wireBytes = 0;
+        for (int i = 0; i < decoded.length; i++) {
+            if (i > 0) {
+                int index = i;
+                long version = chunk.getVersion();
+                chunk = AdmissionRetry.call(() -> stub.getChunk(key, index, version));
+                if (chunk == null) {
+                    throw new IllegalStateException(String.format("Key=%s was deleted while being read.", key));
+                }
+            }
+            decoded[i] = ValueCodec.decode(chunk.getBlock());
+            wireBytes += chunk.getBlock().length;
+        }
+        for (byte[] part : decoded) {
+            out.write(part);
+        }
+        ClientLogger.info(String.format("Downloaded %d bytes for key=%s in %d chunks (%d bytes on the wire, ratio %.2f) in %.1f ms.",
+                chunk.getValueLength(), key, decoded.length, wireBytes, ratio(chunk.getValueLength(), wireBytes),
+                (System.nanoTime() - start) / 1e6));
+        return true;
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int n = in.read(buffer, total, buffer.length - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    private static double ratio(long raw, long encoded) {
+        return encoded == 0 ? 1.0 : (double) raw / encoded;
+    }
+}
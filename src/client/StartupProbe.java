@@ -0,0 +1,70 @@
+package client;
+
+import api.ErrorCode;
+import api.KeyValueResponse;
+import api.KeyValueRpc;
+
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+
+/**
+ * Measures how long a starting server takes to answer its first GET. It polls the server every
+ * 10 ms, looking up the default namespace and sending a GET, until a GET is answered. A not-found
+ * answer counts, because the server has served the request. It then prints the time elapsed, how
+ * long that GET took, and the wall-clock time of its answer. startup_benchmark.sh starts the probe before the server and
+ * uses that time, so the probe's own JVM startup is not counted.
+ * <p>
+ * Usage: {@code java -cp client.jar client.StartupProbe <host> <port> [sinceEpochMillis] [timeoutSeconds]}.
+ * Pass the time the server was launched as {@code sinceEpochMillis} to count from it rather than from
+ * the start of the probe. The exit status is 1 if no GET is answered before the timeout.
+ */
+public class StartupProbe {
+
+    private static final long POLL_MILLIS = 10;
+
+    /**
+     * Runs the probe.
+     *
+     * @param args The host, the port, and optionally the launch time and the timeout.
+     * @throws InterruptedException If interrupted while waiting between attempts.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2) {
+            System.out.println("Invalid arguments, usage: java client.StartupProbe <host> <port> [sinceEpochMillis] [timeoutSeconds]");
+            System.exit(2);
+        }
+        long start = System.currentTimeMillis();
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        long since = args.length > 2 ? Long.parseLong(args[2]) : start;
+        long deadline = start + (args.length > 3 ? Long.parseLong(args[3]) : 60) * 1000;
+        // Fail fast on a server that accepts connections but is not answering yet
+        System.setProperty("sun.rmi.transport.tcp.responseTimeout", "2000");
+        String serviceName = "rpc-server-" + port;
+        int attempts = 0;
+        String lastError = null;
+        while (System.currentTimeMillis() < deadline) {
+            attempts++;
+            try {
+                KeyValueRpc stub = (KeyValueRpc) LocateRegistry.getRegistry(host, port).lookup(serviceName);
+                long callStart = System.nanoTime();
+                KeyValueResponse response = stub.get("startup-probe");
+                if (response.isSuccess() || response.getErrorCode() == ErrorCode.NOT_FOUND) {
+                    long now = System.currentTimeMillis();
+                    System.out.println(String.format("First successful GET at %d, %d ms after %d (%d attempts, the GET took %.1f ms).",
+                            now, now - since, since, attempts, (System.nanoTime() - callStart) / 1e6));
+                    return;
+                }
+                lastError = String.format("[%s] %s", response.getErrorCode(), response.getErrorMsg());
+            } catch (RemoteException | NotBoundException e) {
+                // Not listening or not bound yet
+                lastError = e.toString();
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+        System.out.println(String.format("No GET was answered within %d ms (%d attempts); last error: %s",
+                System.currentTimeMillis() - start, attempts, lastError));
+        System.exit(1);
+    }
+}
@@ -22,7 +22,7 @@ docker build --progress=plain -t $CLIENT_IMAGE2 -f client/Dockerfile .
 
 echo "----------Running client app----------"
 # Run the client container in the same network as the server.
-docker run -it --name $CLIENT_CONTAINER2 --network $PROJECT_NETWORK -e RMI_PORT=$RMI_PORT $CLIENT_IMAGE2 \
+docker run -it --name $CLIENT_CONTAINER2 --network $PROJECT_NETWORK -e RMI_PORT=$RMI_PORT -e KV_CLIENT_ID=${KV_CLIENT_ID:-$CLIENT_CONTAINER2} $CLIENT_IMAGE2 \
         java -cp client.jar client.ClientApp $SERVER_CONTAINER $RMI_PORT
 
 echo "----------watching logs from client app----------"
@@ -22,7 +22,7 @@ docker build --progress=plain -t $CLIENT_IMAGE -f client/Dockerfile .
 
 echo "----------Running client app----------"
 # Run the client container in the same network as the server.
-docker run -it --name $CLIENT_CONTAINER --network $PROJECT_NETWORK -e RMI_PORT=$RMI_PORT $CLIENT_IMAGE \
+docker run -it --name $CLIENT_CONTAINER --network $PROJECT_NETWORK -e RMI_PORT=$RMI_PORT -e KV_CLIENT_ID=${KV_CLIENT_ID:-$CLIENT_CONTAINER} $CLIENT_IMAGE \
         java -cp client.jar client.ClientApp $SERVER_CONTAINER $RMI_PORT --preload
 
 echo "----------watching logs from client app----------"
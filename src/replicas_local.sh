@@ -0,0 +1,53 @@
+# Runs a local cluster of replicated servers as plain processes, for trying out quorum reads and
+# writes and fault injection without Docker.
+#
+#   ./replicas_local.sh start          compile and start three servers on ports 1101-1103
+#   ./replicas_local.sh down <port>    make a replica fail every call (KV_FAULT_DOWN_FILE)
+#   ./replicas_local.sh up <port>      bring it back; pending hints are replayed to it
+#   ./replicas_local.sh stop           stop all servers
+#
+# Clients connect to any server, e.g.
+#   KV_CONSISTENCY=ALL java -cp $OUT_DIR client.ClientApp localhost 1101 --put 6650 "Distributed Systems"
+PORTS=${PORTS:-"1101 1102 1103"}
+OUT_DIR=${OUT_DIR:-/tmp/kv-cluster}
+DOWN_FILE_PREFIX=$OUT_DIR/replica-
+
+peers_of() {
+  local self=$1 peers=""
+  for p in $PORTS; do
+    if [ "$p" != "$self" ]; then peers="$peers${peers:+,}localhost:$p"; fi
+  done
+  echo "$peers"
+}
+
+case "$1" in
+  start)
+    echo "----------Compiling into $OUT_DIR----------"
+    mkdir -p "$OUT_DIR"
+    javac -d "$OUT_DIR" api/*.java server/*.java client/*.java || exit 1
+    for p in $PORTS; do
+      echo "----------Starting replica on port $p----------"
+      RMI_PORT=$p KV_PEERS=$(peers_of "$p") KV_REPLICAS=${KV_REPLICAS:-3} \
+        KV_FAULT_DOWN_FILE="$DOWN_FILE_PREFIX$p.down" \
+        nohup java -cp "$OUT_DIR" server.ServerApp "$p" > "$OUT_DIR/server-$p.log" 2>&1 &
+      echo $! > "$OUT_DIR/server-$p.pid"
+    done
+    echo "Logs are in $OUT_DIR/server-<port>.log"
+    ;;
+  down)
+    touch "$DOWN_FILE_PREFIX$2.down" && echo "Replica $2 is down."
+    ;;
+  up)
+    rm -f "$DOWN_FILE_PREFIX$2.down" && echo "Replica $2 is up."
+    ;;
+  stop)
+    for p in $PORTS; do
+      [ -f "$OUT_DIR/server-$p.pid" ] && kill "$(cat "$OUT_DIR/server-$p.pid")" 2> /dev/null
+      rm -f "$OUT_DIR/server-$p.pid" "$DOWN_FILE_PREFIX$p.down"
+    done
+    echo "Stopped."
+    ;;
+  *)
+    echo "Usage: $0 start | down <port> | up <port> | stop"
+    ;;
+esac
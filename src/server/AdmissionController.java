@@ -0,0 +1,199 @@
+package server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import api.ErrorCode;
+
+/**
+ * Decides whether, and when, a client's request may enter the store. Each client first passes its
+ * own {@link TokenBucket}, which rejects requests over its rate with {@link ErrorCode#RATE_LIMITED},
+ * and then waits in the server-wide {@link FairScheduler}, which shares the store between the
+ * clients by weight and rejects requests it cannot admit in time with {@link ErrorCode#THROTTLED}.
+ * One controller is shared by all namespaces of a server.
+ * <p>
+ * Client ids are chosen by the clients. Every id gets its own bucket, but once there are more than
+ * {@value #MAX_IDLE_BUCKETS} buckets, those that have refilled completely are dropped; a full bucket
+ * is the same as a new one, so a client gains no fresh burst by changing its id, and only buckets
+ * that are still refilling stay in memory. Only the ids named in {@code KV_CLIENT_RATES} or
+ * {@code KV_CLIENT_WEIGHTS} get counters of their own; all other clients are counted together as
+ * {@value #OTHER_CLIENTS}. Configured from the environment:
+ * <ul>
+ *     <li>{@code KV_RATE_LIMIT} and {@code KV_RATE_BURST}: the default requests per second and burst of
+ *     each client; 0, the default, means unlimited.</li>
+ *     <li>{@code KV_CLIENT_RATES}: per-client rates overriding the default, e.g. {@code batch=200,web=5000}.</li>
+ *     <li>{@code KV_CLIENT_WEIGHTS}: per-client fair-share weights, e.g. {@code web=4}; the default weight is 1.</li>
+ *     <li>{@code KV_STORE_CONCURRENCY}: requests allowed in the store at once before queuing starts; default 32.</li>
+ *     <li>{@code KV_CLIENT_QUEUE}: requests each client may have waiting; default 256.</li>
+ *     <li>{@code KV_MAX_QUEUE_MS}: how long a request may wait to be admitted; default 1000.</li>
+ * </ul>
+ */
+public class AdmissionController {
+
+    // The id that clients without their own rate or weight are counted under
+    static final String OTHER_CLIENTS = "others";
+    // Buckets kept before full ones are dropped
+    static final int MAX_IDLE_BUCKETS = 10_000;
+
+    private final double defaultRate;
+    private final double defaultBurst;
+    private final Map<String, Double> rates;
+    private final Map<String, Double> weights;
+    private final FairScheduler scheduler;
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger sweepAt = new AtomicInteger(MAX_IDLE_BUCKETS);
+    private final StoreStats stats = new StoreStats();
+
+    /**
+     * Constructs an AdmissionController.
+     *
+     * @param defaultRate The requests per second of clients without their own rate, or 0 for unlimited.
+     * @param defaultBurst The burst of every client, or 0 to use one second's worth of its rate.
+     * @param rates Per-client rates; a rate of 0 means unlimited.
+     * @param weights Per-client weights.
+     * @param scheduler The scheduler sharing the store between clients.
+     */
+    public AdmissionController(double defaultRate, double defaultBurst, Map<String, Double> rates, Map<String, Double> weights,
+                               FairScheduler scheduler) {
+        for (double weight : weights.values()) {
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Client weights must be positive.");
+            }
+        }
+        this.defaultRate = defaultRate;
+        this.defaultBurst = defaultBurst;
+        this.rates = new HashMap<>(rates);
+        this.weights = new HashMap<>(weights);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Reads the limits from the environment.
+     *
+     * @return The controller.
+     * @throws IllegalArgumentException If a setting is malformed.
+     */
+    public static AdmissionController fromEnv() {
+        FairScheduler scheduler = new FairScheduler((int) number("KV_STORE_CONCURRENCY", 32), (int) number("KV_CLIENT_QUEUE", 256),
+                (long) number("KV_MAX_QUEUE_MS", 1000));
+        return new AdmissionController(number("KV_RATE_LIMIT", 0), number("KV_RATE_BURST", 0),
+                perClient("KV_CLIENT_RATES"), perClient("KV_CLIENT_WEIGHTS"), scheduler);
+    }
+
+    /**
+     * Admits a request, waiting for a fair share of the store if it is saturated. The caller must
+     * call {@link #release()} once the request is done.
+     *
+     * @param clientId The client making the request.
+     * @throws AdmissionException If the request is rate limited or throttled.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public void admit(String clientId) throws AdmissionException, InterruptedException {
+        String counted = rates.containsKey(clientId) || weights.containsKey(clientId) ? clientId : OTHER_CLIENTS;
+        TokenBucket bucket = bucketFor(clientId);
+        if (bucket != null) {
+            long retryAfter = bucket.tryAcquire();
+            if (retryAfter > 0) {
+                stats.increment("client." + counted + ".rateLimited");
+                throw new AdmissionException(ErrorCode.RATE_LIMITED,
+                        String.format("Client %s exceeded its rate of %.0f requests per second.", clientId, rateOf(clientId)), retryAfter);
+            }
+        }
+        try {
+            long waited = scheduler.acquire(clientId, weights.getOrDefault(clientId, 1.0));
+            stats.increment("client." + counted + ".admitted");
+            stats.add("client." + counted + ".queueMicros", TimeUnit.NANOSECONDS.toMicros(waited));
+        } catch (AdmissionException e) {
+            stats.increment("client." + counted + ".throttled");
+            throw e;
+        }
+    }
+
+    /**
+     * Ends a request admitted by {@link #admit(String)}.
+     */
+    public void release() {
+        scheduler.release();
+    }
+
+    /**
+     * Takes a copy of the per-client counters: admitted, rate-limited and throttled requests, and
+     * the total time admitted requests spent queued. Clients without their own rate or weight are
+     * counted together as {@value #OTHER_CLIENTS}.
+     *
+     * @return A map from counter name to value.
+     */
+    public Map<String, Long> stats() {
+        Map<String, Long> copy = stats.toMap();
+        copy.put("admission.queued", (long) scheduler.getQueued());
+        copy.put("admission.buckets", (long) buckets.size());
+        return copy;
+    }
+
+    private TokenBucket bucketFor(String clientId) {
+        double rate = rateOf(clientId);
+        if (rate <= 0) {
+            return null;
+        }
+        TokenBucket bucket = buckets.get(clientId);
+        if (bucket != null) {
+            return bucket;
+        }
+        int threshold = sweepAt.get();
+        if (buckets.size() >= threshold && sweepAt.compareAndSet(threshold, Integer.MAX_VALUE)) {
+            dropFullBuckets();
+        }
+        return buckets.computeIfAbsent(clientId, id -> new TokenBucket(rate, defaultBurst > 0 ? defaultBurst : Math.max(1, rate)));
+    }
+
+    /**
+     * Drops the buckets that have refilled completely. The next sweep waits until the map has
+     * doubled, so that buckets which are all still refilling are not scanned on every new client.
+     */
+    private void dropFullBuckets() {
+        int before = buckets.size();
+        buckets.values().removeIf(TokenBucket::isFull);
+        int after = buckets.size();
+        sweepAt.set(Math.max(MAX_IDLE_BUCKETS, 2 * after));
+        stats.add("admission.bucketsDropped", before - after);
+    }
+
+    private double rateOf(String clientId) {
+        return rates.getOrDefault(clientId, defaultRate);
+    }
+
+    private static double number(String name, double defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("%s must be a number: %s", name, value));
+        }
+    }
+
+    private static Map<String, Double> perClient(String name) {
+        Map<String, Double> values = new HashMap<>();
+        String list = System.getenv(name);
+        if (list == null) {
+            return values;
+        }
+        for (String entry : list.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            String[] kv = entry.split("=", 2);
+            try {
+                values.put(kv[0].trim(), Double.parseDouble(kv[1].trim()));
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Invalid entry [%s] in %s. Expect client=number.", entry, name));
+            }
+        }
+        return values;
+    }
+}
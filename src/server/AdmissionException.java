@@ -0,0 +1,54 @@
+package server;
+
+import api.ErrorCode;
+
+/**
+ * Thrown when the {@link AdmissionController} turns a request away.
+ */
+public class AdmissionException extends Exception {
+
+    private final ErrorCode errorCode;
+    private final long retryAfterMillis;
+
+    /**
+     * Constructs an AdmissionException.
+     *
+     * @param errorCode {@link ErrorCode#RATE_LIMITED} or {@link ErrorCode#THROTTLED}.
+     * @param message The reason.
+     * @param retryAfterMillis How long the client should wait before retrying.
+     */
+    public AdmissionException(ErrorCode errorCode, String message, long retryAfterMillis) {
+        super(message);
+        this.errorCode = errorCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * Creates an exception for a request rejected because the server is saturated.
+     *
+     * @param message The reason.
+     * @param retryAfterMillis How long the client should wait before retrying.
+     * @return The exception.
+     */
+    public static AdmissionException throttled(String message, long retryAfterMillis) {
+        return new AdmissionException(ErrorCode.THROTTLED, message, retryAfterMillis);
+    }
+
+    /**
+     * Gets the reason code reported to the client.
+     *
+     * @return The error code.
+     */
+    public ErrorCode getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * Gets how long the client should wait before retrying.
+     *
+     * @return The delay in milliseconds.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
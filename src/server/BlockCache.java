@@ -0,0 +1,100 @@
+package server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps recently read {@link SegmentFile} blocks in memory, so that reads of hot keys are served
+ * without touching disk. Blocks are evicted least recently used first once the cached bytes
+ * exceed the capacity. This class is thread-safe.
+ */
+public class BlockCache {
+
+    private final long capacityBytes;
+    private final LinkedHashMap<Long, byte[]> blocks = new LinkedHashMap<>(256, 0.75f, true);
+    private long cachedBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructs a BlockCache.
+     *
+     * @param capacityBytes The maximum number of block bytes to keep, or 0 to disable caching.
+     */
+    public BlockCache(long capacityBytes) {
+        this.capacityBytes = Math.max(0, capacityBytes);
+    }
+
+    /**
+     * Builds the cache key of a block.
+     *
+     * @param segmentId The id of the segment holding the block.
+     * @param blockIndex The index of the block within the segment.
+     * @return The cache key.
+     */
+    public static long key(long segmentId, int blockIndex) {
+        return (segmentId << 24) ^ blockIndex;
+    }
+
+    /**
+     * Looks up a block.
+     *
+     * @param key The cache key from {@link #key(long, int)}.
+     * @return The block bytes, or null if the block is not cached.
+     */
+    public synchronized byte[] get(long key) {
+        byte[] block = blocks.get(key);
+        if (block == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return block;
+    }
+
+    /**
+     * Adds a block, evicting the least recently used blocks to stay within the capacity.
+     *
+     * @param key The cache key from {@link #key(long, int)}.
+     * @param block The block bytes, which must not be modified afterwards.
+     */
+    public synchronized void put(long key, byte[] block) {
+        if (block.length > capacityBytes) {
+            return;
+        }
+        byte[] previous = blocks.put(key, block);
+        cachedBytes += block.length - (previous == null ? 0 : previous.length);
+        Iterator<Map.Entry<Long, byte[]>> eldest = blocks.entrySet().iterator();
+        while (cachedBytes > capacityBytes && eldest.hasNext()) {
+            cachedBytes -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops every block of a segment, once the segment has been compacted away.
+     *
+     * @param segmentId The id of the segment.
+     * @param blockCount The number of blocks in the segment.
+     */
+    public synchronized void invalidate(long segmentId, int blockCount) {
+        for (int i = 0; i < blockCount; i++) {
+            byte[] removed = blocks.remove(key(segmentId, i));
+            if (removed != null) {
+                cachedBytes -= removed.length;
+            }
+        }
+    }
+
+    /**
+     * Reports the cache counters.
+     *
+     * @param stats The map to add the hits, misses and cached bytes to.
+     */
+    public synchronized void report(Map<String, Long> stats) {
+        stats.put("lsm.cacheHits", hits);
+        stats.put("lsm.cacheMisses", misses);
+        stats.put("lsm.cacheBytes", cachedBytes);
+    }
+}
@@ -0,0 +1,133 @@
+package server;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A Bloom filter over key bytes, kept with each {@link SegmentFile} so that lookups of keys a
+ * segment does not hold skip reading it. It answers "definitely absent" or "possibly present";
+ * with 10 bits per key about 1% of absent keys are reported as possibly present.
+ * Filters are built once, while a segment is written, and are read-only afterwards.
+ */
+public class BloomFilter {
+
+    private final long[] bits;
+    private final int hashCount;
+
+    private BloomFilter(long[] bits, int hashCount) {
+        this.bits = bits;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * Creates an empty filter sized for a number of keys.
+     *
+     * @param expectedKeys The number of keys that will be added.
+     * @param bitsPerKey The number of filter bits per key; more bits mean fewer false positives.
+     * @return The filter.
+     */
+    public static BloomFilter create(long expectedKeys, int bitsPerKey) {
+        long bitCount = Math.max(64, expectedKeys * bitsPerKey);
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, (bitCount + 63) / 64);
+        // k = ln 2 * bits per key minimises the false positive rate
+        int hashCount = Math.max(1, Math.min(30, (int) Math.round(bitsPerKey * 0.69)));
+        return new BloomFilter(new long[words], hashCount);
+    }
+
+    /**
+     * Adds a key.
+     *
+     * @param key The key bytes.
+     */
+    public void add(byte[] key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long bitCount = (long) bits.length * 64;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitCount;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Tests whether a key may have been added.
+     *
+     * @param key The key bytes.
+     * @return false if the key was definitely not added, true if it possibly was.
+     */
+    public boolean mightContain(byte[] key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long bitCount = (long) bits.length * 64;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitCount;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the size of the filter.
+     *
+     * @return The number of bytes the filter bits occupy.
+     */
+    public long sizeInBytes() {
+        return (long) bits.length * 8;
+    }
+
+    /**
+     * Writes the filter to a data stream.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(hashCount);
+        out.writeInt(bits.length);
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+    }
+
+    /**
+     * Reads a filter written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in The stream to read from.
+     * @return The filter.
+     * @throws IOException If the stream cannot be read or is corrupt.
+     */
+    public static BloomFilter readFrom(DataInput in) throws IOException {
+        int hashCount = in.readInt();
+        int words = in.readInt();
+        if (hashCount <= 0 || words <= 0) {
+            throw new IOException("Corrupt Bloom filter header.");
+        }
+        long[] bits = new long[words];
+        for (int i = 0; i < words; i++) {
+            bits[i] = in.readLong();
+        }
+        return new BloomFilter(bits, hashCount);
+    }
+
+    /**
+     * 64-bit FNV-1a followed by a finalizer, so that both halves of the hash are well mixed.
+     */
+    private static long hash(byte[] key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
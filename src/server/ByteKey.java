@@ -0,0 +1,93 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A key in the {@link KeyValue} store: an immutable wrapper around the key bytes with its hash
+ * code computed once up front, so hash-table lookups never rehash the key bytes.
+ * Keys order by unsigned lexicographic byte comparison, which for UTF-8 encoded strings matches
+ * code point order.
+ */
+public final class ByteKey implements Comparable<ByteKey> {
+
+    private final byte[] bytes;
+    private final int hash;
+
+    /**
+     * Wraps key bytes without copying them. The caller must not modify the array afterwards.
+     *
+     * @param bytes The key bytes.
+     */
+    public ByteKey(byte[] bytes) {
+        this.bytes = bytes;
+        this.hash = Arrays.hashCode(bytes);
+    }
+
+    /**
+     * Creates a key from a string, encoded as UTF-8.
+     *
+     * @param key The string key.
+     * @return The key.
+     */
+    public static ByteKey of(String key) {
+        return new ByteKey(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Gets the key bytes. The returned array must not be modified.
+     *
+     * @return The key bytes.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Gets the number of bytes in the key.
+     *
+     * @return The key length.
+     */
+    public int length() {
+        return bytes.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ByteKey)) {
+            return false;
+        }
+        ByteKey other = (ByteKey) o;
+        return hash == other.hash && Arrays.equals(bytes, other.bytes);
+    }
+
+    @Override
+    public int compareTo(ByteKey other) {
+        int n = Math.min(bytes.length, other.bytes.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (bytes[i] & 0xff) - (other.bytes[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return bytes.length - other.bytes.length;
+    }
+
+    /**
+     * Decodes the key as UTF-8, for logging and for the string API.
+     *
+     * @return The key as a string.
+     */
+    @Override
+    public String toString() {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,505 @@
+package server;
+
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import api.ChangeEvent;
+import api.KeyValueWatcher;
+
+/**
+ * Publishes the mutations of a {@link KeyValue} store to registered watchers.
+ * <p>
+ * Writers only append each event to a fixed-size history ring, which costs an array store and a
+ * volatile write and never depends on the number of watchers. A single dispatcher thread reads
+ * new events from the ring, matches them against an index of watched keys and prefixes, and
+ * queues them into each matching watcher's bounded buffer. A shared pool of pusher threads drains
+ * those buffers and delivers the events in batches over RMI, one call at a time per watcher.
+ * A watcher whose buffer fills up is disconnected and can resume from the last event it received,
+ * as long as that event is still in the history ring.
+ * <p>
+ * If writers lap the dispatcher, they record the key of each event they overwrite before it was
+ * routed, so that only the watchers of those keys are disconnected and the others keep a gap-free stream.
+ */
+public class ChangeFeed {
+
+    // Maximum number of events delivered to a watcher in a single callback.
+    private static final int MAX_BATCH = 1000;
+
+    // How long the dispatcher sleeps when idle before rechecking, in case a wake-up is missed.
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ChangeEvent[] history;
+    private final int bufferCapacity;
+    private final int pusherThreads;
+    private final StoreStats stats;
+
+    // Sequence number of the last event appended; written only by writers holding the store lock.
+    private final long startSequence;
+    private volatile long lastSequence;
+
+    private final ConcurrentHashMap<Long, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Subscription> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Subscription> pendingRemovals = new ConcurrentLinkedQueue<>();
+    private final AtomicLong nextWatchId = new AtomicLong(1);
+
+    // Keys of events writers overwrote before they were routed, with the highest such sequence of each;
+    // at most one history's worth of keys.
+    private final ConcurrentHashMap<ByteKey, Long> overrun = new ConcurrentHashMap<>();
+    // Highest sequence overwritten before being routed while the overrun map was full, or 0.
+    private volatile long untrackedOverrun;
+
+    // Owned by the dispatcher thread.
+    private final HashMap<ByteKey, List<Subscription>> exactIndex = new HashMap<>();
+    private final TreeMap<Integer, HashMap<ByteKey, List<Subscription>>> prefixIndex = new TreeMap<>();
+    // Advanced by the dispatcher thread; read by writers to tell whether an overwritten event was routed.
+    private volatile long dispatchedSequence;
+
+    private volatile Thread dispatcher;
+    private volatile boolean dispatcherIdle;
+    private volatile boolean running = true;
+    private ExecutorService pushers;
+
+    /**
+     * Constructs a ChangeFeed.
+     *
+     * @param historySize The number of most recent events retained for watchers that resume.
+     * @param bufferCapacity The number of undelivered events a watcher may fall behind before it is disconnected.
+     * @param pusherThreads The number of threads delivering events to watchers.
+     * @param stats The store counters to report watch activity to.
+     * @param startSequence The sequence number the store has already reached, e.g. after loading
+     *                      persisted data; events up to it are not in the history.
+     */
+    public ChangeFeed(int historySize, int bufferCapacity, int pusherThreads, StoreStats stats, long startSequence) {
+        this.history = new ChangeEvent[Math.max(1, historySize)];
+        this.bufferCapacity = Math.max(1, bufferCapacity);
+        this.pusherThreads = Math.max(1, pusherThreads);
+        this.stats = stats;
+        this.startSequence = startSequence;
+        this.lastSequence = startSequence;
+    }
+
+    /**
+     * Appends an event to the history. Must be called with strictly increasing, gap-free sequence
+     * numbers, which the store guarantees by calling it while holding its mutex.
+     *
+     * @param event The event to publish.
+     */
+    public void append(ChangeEvent event) {
+        int slot = slot(event.getSequence());
+        ChangeEvent replaced = history[slot];
+        if (replaced != null && dispatcher != null && replaced.getSequence() > dispatchedSequence) {
+            setAside(replaced);
+        }
+        history[slot] = event;
+        lastSequence = event.getSequence();
+        Thread thread = dispatcher;
+        if (thread != null && dispatcherIdle) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Gets the sequence number of the most recent event.
+     *
+     * @return The last sequence number, or 0 if nothing has been written yet.
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Registers a watcher. Events after {@code resumeAfter} are replayed from the history first,
+     * followed by live events.
+     *
+     * @param key The key, or key prefix, to watch.
+     * @param prefix true to match every key starting with {@code key}.
+     * @param resumeAfter The last sequence number already seen, or -1 for new changes only.
+     * @param watcher The callback receiving the events.
+     * @return The id of the watch.
+     * @throws IllegalArgumentException If the requested events are no longer in the history.
+     */
+    public long watch(ByteKey key, boolean prefix, long resumeAfter, KeyValueWatcher watcher) {
+        long last = lastSequence;
+        if (resumeAfter < 0) {
+            resumeAfter = last;
+        } else if (resumeAfter > last) {
+            throw new IllegalArgumentException(String.format("Sequence %d has not been written yet; the last sequence is %d.",
+                    resumeAfter, last));
+        } else if (resumeAfter < oldestRetained(last) - 1) {
+            throw new IllegalArgumentException(String.format("Events after sequence %d are no longer retained; the oldest is %d.",
+                    resumeAfter, oldestRetained(last)));
+        }
+        ensureStarted();
+        Subscription subscription = new Subscription(nextWatchId.getAndIncrement(), key, prefix, resumeAfter, watcher);
+        subscriptions.put(subscription.id, subscription);
+        pendingRegistrations.add(subscription);
+        stats.increment("watch.active");
+        LockSupport.unpark(dispatcher);
+        ServerLogger.info(String.format("Registered watch id=%d on %s=%s after sequence %d.",
+                subscription.id, prefix ? "prefix" : "key", key, resumeAfter));
+        return subscription.id;
+    }
+
+    /**
+     * Cancels a watch. Unknown ids are ignored.
+     *
+     * @param watchId The id returned by {@link #watch(ByteKey, boolean, long, KeyValueWatcher)}.
+     */
+    public void unwatch(long watchId) {
+        Subscription subscription = subscriptions.get(watchId);
+        if (subscription != null) {
+            end(subscription, null);
+        }
+    }
+
+    /**
+     * Stops the dispatcher and pusher threads. Watchers are not notified.
+     */
+    public void close() {
+        running = false;
+        Thread thread = dispatcher;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+        synchronized (this) {
+            if (pushers != null) {
+                pushers.shutdownNow();
+            }
+        }
+    }
+
+    private synchronized void ensureStarted() {
+        if (dispatcher != null) {
+            return;
+        }
+        pushers = Executors.newFixedThreadPool(pusherThreads, r -> {
+            Thread t = new Thread(r, "change-feed-pusher");
+            t.setDaemon(true);
+            return t;
+        });
+        dispatchedSequence = lastSequence;
+        Thread thread = new Thread(this::dispatchLoop, "change-feed-dispatcher");
+        thread.setDaemon(true);
+        dispatcher = thread;
+        thread.start();
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            applyRemovals();
+            applyRegistrations();
+            long last = lastSequence;
+            if (last == dispatchedSequence) {
+                dispatcherIdle = true;
+                if (lastSequence == dispatchedSequence && pendingRegistrations.isEmpty() && pendingRemovals.isEmpty()) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                dispatcherIdle = false;
+                continue;
+            }
+            for (long seq = dispatchedSequence + 1; seq <= last; seq++) {
+                ChangeEvent event = history[slot(seq)];
+                if (event == null || event.getSequence() != seq) {
+                    skipOverrun(seq);
+                    break;
+                }
+                route(event);
+                dispatchedSequence = seq;
+            }
+        }
+    }
+
+    /**
+     * Records the key of an event a writer is about to overwrite before the dispatcher routed it.
+     * Called by writers, one at a time. An event that may already have been routed is recorded as
+     * well, which can only end a watch that did not need to end.
+     */
+    private void setAside(ChangeEvent event) {
+        ByteKey key = new ByteKey(event.getKey());
+        if (overrun.size() < history.length || overrun.containsKey(key)) {
+            overrun.merge(key, event.getSequence(), Math::max);
+        } else {
+            untrackedOverrun = event.getSequence();
+        }
+    }
+
+    /**
+     * Moves the dispatcher past events writers overwrote before it could route them, starting at
+     * {@code from}, to the oldest event still in the history. Ends the watches of the keys those
+     * events changed, or every watch if some of the keys were not recorded.
+     */
+    private void skipOverrun(long from) {
+        long resume = oldestRetained(lastSequence);
+        boolean untracked = untrackedOverrun >= from;
+        int keys = 0;
+        for (Map.Entry<ByteKey, Long> entry : overrun.entrySet()) {
+            long sequence = entry.getValue();
+            // Keys last recorded before the gap were routed before they were overwritten; keys recorded
+            // after it lose events later on, and stay recorded for the next gap
+            if (sequence >= from && !untracked) {
+                keys++;
+                forEachMatching(entry.getKey().getBytes(), subscription ->
+                        end(subscription, "server fell behind; events matching the watch were lost"));
+            }
+            if (sequence < resume) {
+                overrun.remove(entry.getKey(), sequence);
+            }
+        }
+        if (untracked) {
+            for (Subscription subscription : subscriptions.values()) {
+                end(subscription, "server fell behind; events were lost");
+            }
+        }
+        stats.add("watch.eventsSkipped", resume - from);
+        ServerLogger.error(String.format("Change feed fell behind: skipped events %d to %d, which changed %s keys.",
+                from, resume - 1, untracked ? "too many" : String.valueOf(keys)));
+        dispatchedSequence = resume - 1;
+    }
+
+    private void applyRegistrations() {
+        Subscription subscription;
+        while ((subscription = pendingRegistrations.poll()) != null) {
+            if (subscription.endReason != null) {
+                continue;
+            }
+            // Replay what the watcher missed between its resume point and the events routed so far.
+            for (long seq = subscription.resumeAfter + 1; seq <= dispatchedSequence; seq++) {
+                ChangeEvent event = history[slot(seq)];
+                if (event == null || event.getSequence() != seq) {
+                    end(subscription, String.format("events after sequence %d are no longer retained", seq - 1));
+                    break;
+                }
+                if (subscription.matches(event.getKey())) {
+                    offer(subscription, event);
+                }
+            }
+            if (subscription.endReason != null) {
+                continue;
+            }
+            if (subscription.prefix) {
+                prefixIndex.computeIfAbsent(subscription.key.length(), n -> new HashMap<>())
+                        .computeIfAbsent(subscription.key, k -> new ArrayList<>()).add(subscription);
+            } else {
+                exactIndex.computeIfAbsent(subscription.key, k -> new ArrayList<>()).add(subscription);
+            }
+            subscription.indexed = true;
+        }
+    }
+
+    private void applyRemovals() {
+        Subscription subscription;
+        while ((subscription = pendingRemovals.poll()) != null) {
+            if (!subscription.indexed) {
+                continue;
+            }
+            Map<ByteKey, List<Subscription>> index = subscription.prefix
+                    ? prefixIndex.get(subscription.key.length())
+                    : exactIndex;
+            List<Subscription> list = index.get(subscription.key);
+            list.remove(subscription);
+            if (list.isEmpty()) {
+                index.remove(subscription.key);
+                if (subscription.prefix && index.isEmpty()) {
+                    prefixIndex.remove(subscription.key.length());
+                }
+            }
+            subscription.indexed = false;
+        }
+    }
+
+    /**
+     * Offers an event to every watcher whose key or prefix matches.
+     */
+    private void route(ChangeEvent event) {
+        forEachMatching(event.getKey(), subscription -> offer(subscription, event));
+    }
+
+    /**
+     * Visits every indexed watcher whose key or prefix matches a key. Prefix watchers are found by
+     * one hash lookup per distinct prefix length, so the cost does not grow with the number of watchers.
+     */
+    private void forEachMatching(byte[] key, Consumer<Subscription> action) {
+        List<Subscription> exact = exactIndex.get(new ByteKey(key));
+        if (exact != null) {
+            for (Subscription subscription : exact) {
+                action.accept(subscription);
+            }
+        }
+        for (Map.Entry<Integer, HashMap<ByteKey, List<Subscription>>> entry : prefixIndex.entrySet()) {
+            int length = entry.getKey();
+            if (length > key.length) {
+                break;
+            }
+            List<Subscription> matching = entry.getValue().get(new ByteKey(Arrays.copyOf(key, length)));
+            if (matching != null) {
+                for (Subscription subscription : matching) {
+                    action.accept(subscription);
+                }
+            }
+        }
+    }
+
+    private void offer(Subscription subscription, ChangeEvent event) {
+        boolean overflow = false;
+        synchronized (subscription) {
+            if (subscription.endReason != null) {
+                return;
+            }
+            if (subscription.buffer.size() >= bufferCapacity) {
+                overflow = true;
+            } else {
+                subscription.buffer.add(event);
+                schedule(subscription);
+            }
+        }
+        if (overflow) {
+            stats.increment("watch.overflows");
+            end(subscription, String.format("watcher fell more than %d events behind", bufferCapacity));
+        }
+    }
+
+    /**
+     * Ends a watch. When a reason is given, the watcher is told through the same delivery path as
+     * its events, so the notification never overlaps an in-flight batch.
+     */
+    private void end(Subscription subscription, String reason) {
+        synchronized (subscription) {
+            if (subscription.endReason != null) {
+                return;
+            }
+            subscription.endReason = reason == null ? "cancelled" : reason;
+            subscription.notifyEnd = reason != null;
+            subscription.buffer.clear();
+            if (subscription.notifyEnd) {
+                schedule(subscription);
+            }
+        }
+        subscriptions.remove(subscription.id);
+        pendingRemovals.add(subscription);
+        stats.add("watch.active", -1);
+        Thread thread = dispatcher;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+        ServerLogger.info(String.format("Ended watch id=%d: %s.", subscription.id, subscription.endReason));
+    }
+
+    /**
+     * Makes sure a pusher will drain the subscription. Must be called while holding its monitor.
+     */
+    private void schedule(Subscription subscription) {
+        if (!subscription.scheduled) {
+            subscription.scheduled = true;
+            pushers.execute(() -> deliver(subscription));
+        }
+    }
+
+    private void deliver(Subscription subscription) {
+        while (true) {
+            List<ChangeEvent> batch;
+            boolean sendEnd = false;
+            synchronized (subscription) {
+                if (subscription.endReason != null) {
+                    sendEnd = subscription.notifyEnd;
+                    subscription.notifyEnd = false;
+                    batch = null;
+                } else if (subscription.buffer.isEmpty()) {
+                    subscription.scheduled = false;
+                    return;
+                } else {
+                    batch = new ArrayList<>(Math.min(MAX_BATCH, subscription.buffer.size()));
+                    while (batch.size() < MAX_BATCH && !subscription.buffer.isEmpty()) {
+                        batch.add(subscription.buffer.poll());
+                    }
+                }
+            }
+            if (batch == null) {
+                if (sendEnd) {
+                    try {
+                        subscription.watcher.onWatchEnded(subscription.lastDelivered, subscription.endReason);
+                    } catch (RemoteException e) {
+                        ServerLogger.error(String.format("Could not notify watch id=%d of its end: %s", subscription.id, e.getMessage()));
+                    }
+                }
+                synchronized (subscription) {
+                    subscription.scheduled = false;
+                }
+                return;
+            }
+            try {
+                subscription.watcher.onChanges(batch);
+                subscription.lastDelivered = batch.get(batch.size() - 1).getSequence();
+                stats.add("watch.eventsDelivered", batch.size());
+                stats.increment("watch.batchesDelivered");
+            } catch (RemoteException e) {
+                synchronized (subscription) {
+                    subscription.scheduled = false;
+                }
+                end(subscription, null);
+                ServerLogger.error(String.format("Watch id=%d is unreachable and was removed: %s", subscription.id, e.getMessage()));
+                return;
+            }
+        }
+    }
+
+    private long oldestRetained(long last) {
+        return Math.max(startSequence + 1, last - history.length + 1);
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % history.length);
+    }
+
+    /**
+     * A registered watcher and its buffer of undelivered events.
+     */
+    private static class Subscription {
+        private final long id;
+        private final ByteKey key;
+        private final boolean prefix;
+        private final long resumeAfter;
+        private final KeyValueWatcher watcher;
+        private final ArrayDeque<ChangeEvent> buffer = new ArrayDeque<>();
+        private volatile long lastDelivered;
+        private volatile String endReason;
+        private boolean notifyEnd;
+        private boolean scheduled;
+        private boolean indexed;
+
+        private Subscription(long id, ByteKey key, boolean prefix, long resumeAfter, KeyValueWatcher watcher) {
+            this.id = id;
+            this.key = key;
+            this.prefix = prefix;
+            this.resumeAfter = resumeAfter;
+            this.lastDelivered = resumeAfter;
+            this.watcher = watcher;
+        }
+
+        private boolean matches(byte[] candidate) {
+            byte[] watched = key.getBytes();
+            if (prefix ? candidate.length < watched.length : candidate.length != watched.length) {
+                return false;
+            }
+            for (int i = 0; i < watched.length; i++) {
+                if (candidate[i] != watched[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package server;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.rmi.server.Unreferenced;
+import java.util.Map;
+
+import api.BinaryKeyValueBatch;
+import api.BinaryKeyValueRpc;
+import api.ConsistencyLevel;
+import api.KeyValueBatch;
+import api.KeyValueResponse;
+import api.KeyValueRpc;
+import api.KeyValueWatcher;
+import api.ValueChunk;
+
+/**
+ * A remote stub handed out by {@link KeyValueRpcImpl#openSession(String)}. Every call is forwarded to
+ * the namespace's service tagged with the client id the session was opened with, so that the
+ * client's requests are rate limited and scheduled as that client wherever they come from.
+ * The session is unexported once the client no longer holds a reference to it.
+ */
+public class ClientSession extends UnicastRemoteObject implements KeyValueRpc, BinaryKeyValueRpc, Unreferenced {
+
+    private final KeyValueRpcImpl service;
+    private final String clientId;
+
+    /**
+     * Constructs a ClientSession and exports it to allow remote access.
+     *
+     * @param service The service of the namespace the session belongs to.
+     * @param clientId The client the session acts for.
+     * @throws RemoteException if an error occurs during object export.
+     */
+    public ClientSession(KeyValueRpcImpl service, String clientId) throws RemoteException {
+        super();
+        this.service = service;
+        this.clientId = clientId;
+    }
+
+    @Override
+    public KeyValueResponse get(String key) throws RemoteException, InterruptedException {
+        return service.runAs(clientId, () -> service.get(key));
+    }
+
+    @Override
+    public KeyValueResponse put(String key, String value) throws RemoteException, InterruptedException {
+        return service.runAs(clientId, () -> service.put(key, value));
+    }
+
+    @Override
+    public KeyValueResponse delete(String key) throws RemoteException, InterruptedException {
+        return service.runAs(clientId, () -> service.delete(key));
+    }
+
+    @Override
+    public KeyValueResponse get(String key, ConsistencyLevel level) throws RemoteException, InterruptedException {
+        return service.runAs(clientId, () -> service.get(key, level));
+    }
+
+    @Override
+    public KeyValueResponse put(String key, String value, ConsistencyLevel level) throws RemoteException, InterruptedException {
+        return service.runAs(clientId, () -> service.put(key, value, level));
+    }
+
+    @Override
+    public KeyValueResponse delete(String key, ConsistencyLevel level) throws RemoteException, InterruptedException {
+        return service.runAs(clientId, () -> service.delete(key, level));
+    }
+
+    @Override
+    public KeyValueRpc openSession(String clientId) throws RemoteException {
+        return service.openSession(clientId);
+    }
+
+    @Override
+    public KeyValueResponse putAll(Map<String, String> entries) throws RemoteException, InterruptedException {
+        return service.runAs(clientId, () -> service.putAll(entries));
+    }
+
+    @Override
+    public long openSnapshot() throws RemoteException, InterruptedException {
+        return service.runAs(clientId, service::openSnapshot);
+    }
+
+    @Override
+    public KeyValueBatch snapshotGet(String[] keys) throws RemoteException, InterruptedException {
+        return service.runAs(clientId, () -> service.snapshotGet(keys));
+    }
+
+    @Override
+    public KeyValueBatch exportBatch(long snapshotId, String afterCursor, int limit) throws RemoteException, InterruptedException {
+        return service.runAs(clientId, () -> service.exportBatch(snapshotId, afterCursor, limit));
+    }
+
+    @Override
+    public void closeSnapshot(long snapshotId) throws RemoteException {
+        service.closeSnapshot(snapshotId);
+    }
+
+    @Override
+    public long beginUpload(String key) throws RemoteException, InterruptedException {
+        return service.runAs(clientId, () -> service.beginUpload(key));
+    }
+
+    @Override
+    public void uploadChunk(long uploadId, int index, byte[] block) throws RemoteException, InterruptedException {
+        service.runAs(clientId, () -> {
+            service.uploadChunk(uploadId, index, block);
+            return null;
+        });
+    }
+
+    @Override
+    public KeyValueResponse commitUpload(long uploadId) throws RemoteException, InterruptedException {
+        return service.runAs(clientId, () -> service.commitUpload(uploadId));
+    }
+
+    @Override
+    public ValueChunk getChunk(String key, int index, long expectedVersion) throws RemoteException, InterruptedException {
+        return service.runAs(clientId, () -> service.getChunk(key, index, expectedVersion));
+    }
+
+    @Override
+    public Map<String, Long> stats() throws RemoteException {
+        return service.stats();
+    }
+
+    @Override
+    public long watch(String key, boolean prefix, long resumeAfter, KeyValueWatcher watcher) throws RemoteException {
+        return service.watch(key, prefix, resumeAfter, watcher);
+    }
+
+    @Override
+    public void unwatch(long watchId) throws RemoteException {
+        service.unwatch(watchId);
+    }
+
+    @Override
+    public BinaryKeyValueBatch exportBatchBytes(long snapshotId, byte[] afterCursor, int limit) throws RemoteException, InterruptedException {
+        return service.runAs(clientId, () -> service.exportBatchBytes(snapshotId, afterCursor, limit));
+    }
+
+    @Override
+    public KeyValueResponse getBytes(byte[] key) throws RemoteException, InterruptedException {
+        return service.runAs(clientId, () -> service.getBytes(key));
+    }
+
+    @Override
+    public KeyValueResponse putBytes(byte[] key, byte[] value) throws RemoteException, InterruptedException {
+        return service.runAs(clientId, () -> service.putBytes(key, value));
+    }
+
+    @Override
+    public KeyValueResponse deleteBytes(byte[] key) throws RemoteException, InterruptedException {
+        return service.runAs(clientId, () -> service.deleteBytes(key));
+    }
+
+    /**
+     * Unexports the session once no client holds it any more.
+     */
+    @Override
+    public void unreferenced() {
+        try {
+            unexportObject(this, true);
+            ServerLogger.info(String.format("Closed session of client %s.", clientId));
+        } catch (RemoteException e) {
+            ServerLogger.error(String.format("Failed to close session of client %s: %s", clientId, e.getMessage()));
+        }
+    }
+}
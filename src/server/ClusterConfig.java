@@ -0,0 +1,237 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import api.ConsistencyLevel;
+
+/**
+ * Holds the replication settings of a server, read from the environment:
+ * <ul>
+ *     <li>{@code KV_PEERS}: the other servers as comma-separated {@code host:port} ids. Without peers,
+ *     the server is standalone and serves every request from its own store.</li>
+ *     <li>{@code KV_NODE_ID}: the id of this server, as the peers list it; defaults to {@code localhost:<port>}.</li>
+ *     <li>{@code KV_REPLICAS}: the replication factor N; defaults to 3, capped at the cluster size.</li>
+ *     <li>{@code KV_CONSISTENCY}: the level of requests that do not choose one; defaults to QUORUM.</li>
+ *     <li>{@code KV_QUORUM_TIMEOUT_MS}: how long a coordinator waits for replicas; defaults to 2000.</li>
+ *     <li>{@code KV_HINT_REPLAY_MS}: how often hints are replayed to replicas that were down; defaults to 2000.</li>
+ *     <li>{@code KV_MAX_HINTS}: the maximum number of hints kept per namespace; defaults to 100000.</li>
+ *     <li>{@code KV_HINT_TTL_MS}: how long a hint is kept before it is dropped undelivered; defaults to one hour.</li>
+ *     <li>{@code KV_TOMBSTONE_GRACE_MS}: how long replicas keep the tombstone of a deleted key; defaults to
+ *     three hours, and must be longer than the hint TTL so that no hint older than a tombstone outlives it.</li>
+ * </ul>
+ * Every server of a cluster must use the same peers, ids and replication factor.
+ */
+public class ClusterConfig {
+
+    private final String nodeId;
+    private final List<String> peers;
+    private final int replicationFactor;
+    private final ConsistencyLevel defaultLevel;
+    private final int timeoutMillis;
+    private final int hintReplayMillis;
+    private final int maxHints;
+    private final int hintTtlMillis;
+    private final int tombstoneGraceMillis;
+
+    /**
+     * Constructs a ClusterConfig.
+     *
+     * @param nodeId The id of this server.
+     * @param peers The ids of the other servers, as {@code host:port}.
+     * @param replicationFactor The number of replicas per key.
+     * @param defaultLevel The level of requests that do not choose one.
+     * @param timeoutMillis How long a coordinator waits for replicas.
+     * @param hintReplayMillis How often hints are replayed.
+     * @param maxHints The maximum number of hints kept per namespace.
+     * @param hintTtlMillis How long a hint is kept before it is dropped undelivered.
+     * @param tombstoneGraceMillis How long replicas keep a tombstone; must exceed the hint TTL.
+     */
+    public ClusterConfig(String nodeId, List<String> peers, int replicationFactor, ConsistencyLevel defaultLevel,
+                         int timeoutMillis, int hintReplayMillis, int maxHints, int hintTtlMillis, int tombstoneGraceMillis) {
+        for (String peer : peers) {
+            parsePeer(peer);
+        }
+        if (peers.contains(nodeId)) {
+            throw new IllegalArgumentException(String.format("KV_PEERS must not list this server's own id %s.", nodeId));
+        }
+        if (replicationFactor < 1) {
+            throw new IllegalArgumentException("Replication factor must be a positive number.");
+        }
+        if (hintTtlMillis < 1 || tombstoneGraceMillis <= hintTtlMillis) {
+            throw new IllegalArgumentException(String.format("KV_TOMBSTONE_GRACE_MS (%d) must be longer than a positive KV_HINT_TTL_MS (%d).",
+                    tombstoneGraceMillis, hintTtlMillis));
+        }
+        this.nodeId = nodeId;
+        this.peers = Collections.unmodifiableList(new ArrayList<>(peers));
+        this.replicationFactor = Math.min(replicationFactor, peers.size() + 1);
+        this.defaultLevel = defaultLevel;
+        this.timeoutMillis = timeoutMillis;
+        this.hintReplayMillis = hintReplayMillis;
+        this.maxHints = maxHints;
+        this.hintTtlMillis = hintTtlMillis;
+        this.tombstoneGraceMillis = tombstoneGraceMillis;
+    }
+
+    /**
+     * Reads the replication settings from the environment.
+     *
+     * @param port The RMI port of this server, used for the default node id.
+     * @return The settings.
+     * @throws IllegalArgumentException If a setting is malformed.
+     */
+    public static ClusterConfig fromEnv(int port) {
+        List<String> peers = new ArrayList<>();
+        String peerList = System.getenv("KV_PEERS");
+        if (peerList != null) {
+            for (String peer : peerList.split(",")) {
+                if (!peer.trim().isEmpty()) {
+                    peers.add(peer.trim());
+                }
+            }
+        }
+        String nodeId = System.getenv("KV_NODE_ID");
+        String level = System.getenv("KV_CONSISTENCY");
+        return new ClusterConfig(nodeId == null || nodeId.trim().isEmpty() ? "localhost:" + port : nodeId.trim(), peers,
+                intFromEnv("KV_REPLICAS", 3),
+                level == null || level.trim().isEmpty() ? ConsistencyLevel.QUORUM : ConsistencyLevel.valueOf(level.trim().toUpperCase()),
+                intFromEnv("KV_QUORUM_TIMEOUT_MS", 2000), intFromEnv("KV_HINT_REPLAY_MS", 2000), intFromEnv("KV_MAX_HINTS", 100_000),
+                intFromEnv("KV_HINT_TTL_MS", 3_600_000), intFromEnv("KV_TOMBSTONE_GRACE_MS", 10_800_000));
+    }
+
+    /**
+     * Splits a {@code host:port} id.
+     *
+     * @param peer The id.
+     * @return The host and the port.
+     * @throws IllegalArgumentException If the id is malformed.
+     */
+    public static String[] parsePeer(String peer) {
+        int colon = peer.lastIndexOf(':');
+        if (colon <= 0 || colon == peer.length() - 1) {
+            throw new IllegalArgumentException(String.format("Invalid peer [%s]. Expect host:port.", peer));
+        }
+        try {
+            Integer.parseInt(peer.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid port in peer [%s].", peer));
+        }
+        return new String[]{peer.substring(0, colon), peer.substring(colon + 1)};
+    }
+
+    private static int intFromEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("%s must be an integer: %s", name, value));
+        }
+    }
+
+    /**
+     * Indicates whether this server replicates to peers.
+     *
+     * @return true if peers are configured.
+     */
+    public boolean isReplicated() {
+        return !peers.isEmpty();
+    }
+
+    /**
+     * Gets the id of this server.
+     *
+     * @return The node id.
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Gets the ids of the other servers.
+     *
+     * @return The peer ids.
+     */
+    public List<String> getPeers() {
+        return peers;
+    }
+
+    /**
+     * Gets the replication factor N.
+     *
+     * @return The number of replicas per key.
+     */
+    public int getReplicationFactor() {
+        return replicationFactor;
+    }
+
+    /**
+     * Gets the level of requests that do not choose one.
+     *
+     * @return The default level.
+     */
+    public ConsistencyLevel getDefaultLevel() {
+        return defaultLevel;
+    }
+
+    /**
+     * Gets how long a coordinator waits for replicas.
+     *
+     * @return The timeout in milliseconds.
+     */
+    public int getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Gets how often hints are replayed to replicas that were down.
+     *
+     * @return The interval in milliseconds.
+     */
+    public int getHintReplayMillis() {
+        return hintReplayMillis;
+    }
+
+    /**
+     * Gets the maximum number of hints kept per namespace.
+     *
+     * @return The hint limit.
+     */
+    public int getMaxHints() {
+        return maxHints;
+    }
+
+    /**
+     * Gets how long a hint is kept before it is dropped undelivered.
+     *
+     * @return The TTL in milliseconds.
+     */
+    public int getHintTtlMillis() {
+        return hintTtlMillis;
+    }
+
+    /**
+     * Gets how long replicas keep the tombstone of a deleted key.
+     *
+     * @return The grace period in milliseconds.
+     */
+    public int getTombstoneGraceMillis() {
+        return tombstoneGraceMillis;
+    }
+
+    /**
+     * Returns a string representation of the ClusterConfig.
+     *
+     * @return A string containing all settings.
+     */
+    @Override
+    public String toString() {
+        return String.format("ClusterConfig {nodeId=%s, peers=%s, replicationFactor=%d, defaultLevel=%s, timeoutMillis=%d, " +
+                        "hintReplayMillis=%d, maxHints=%d, hintTtlMillis=%d, tombstoneGraceMillis=%d}",
+                nodeId, peers, replicationFactor, defaultLevel, timeoutMillis, hintReplayMillis, maxHints, hintTtlMillis,
+                tombstoneGraceMillis);
+    }
+}
@@ -0,0 +1,177 @@
+package server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admits requests into the store with weighted fair queuing. At most {@code concurrency} requests
+ * run at once; while the store is saturated, further requests wait and are admitted in order of
+ * their virtual finish time. A client's requests advance its finish time by {@code 1 / weight}, so
+ * every active client gets a share of the admissions proportional to its weight no matter how many
+ * requests it has waiting, and a client flooding the server only lengthens its own queue.
+ * <p>
+ * Each client may have at most {@code maxQueued} requests waiting, and a request that has not been
+ * admitted within {@code maxWaitMillis} gives up, which bounds the latency the queue can add.
+ */
+public class FairScheduler {
+
+    private final int concurrency;
+    private final int maxQueued;
+    private final long maxWaitNanos;
+    private final ReentrantLock mutex = new ReentrantLock();
+    private final PriorityQueue<Waiter> waiting = new PriorityQueue<>();
+    private final Map<String, Flow> flows = new HashMap<>();
+    private int running;
+    private double virtualTime;
+    private long arrivals;
+
+    /**
+     * Constructs a FairScheduler.
+     *
+     * @param concurrency The number of requests that may run at once.
+     * @param maxQueued The number of requests each client may have waiting.
+     * @param maxWaitMillis How long a request may wait before it is rejected.
+     */
+    public FairScheduler(int concurrency, int maxQueued, long maxWaitMillis) {
+        if (concurrency < 1 || maxQueued < 0 || maxWaitMillis < 0) {
+            throw new IllegalArgumentException("Concurrency must be positive, and queue size and wait must not be negative.");
+        }
+        this.concurrency = concurrency;
+        this.maxQueued = maxQueued;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    /**
+     * Waits until a request may run. Every successful call must be followed by {@link #release()}.
+     *
+     * @param clientId The client making the request.
+     * @param weight The client's share relative to other clients.
+     * @return The number of nanoseconds the request waited.
+     * @throws AdmissionException With {@link api.ErrorCode#THROTTLED} if the client's queue is full or the wait timed out.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public long acquire(String clientId, double weight) throws AdmissionException, InterruptedException {
+        long start = System.nanoTime();
+        Waiter waiter;
+        try {
+            mutex.lock();
+            if (running < concurrency && waiting.isEmpty()) {
+                running++;
+                return 0;
+            }
+            Flow flow = flows.computeIfAbsent(clientId, id -> new Flow());
+            if (flow.queued >= maxQueued) {
+                throw AdmissionException.throttled(String.format("Client %s already has %d requests waiting.", clientId, flow.queued),
+                        TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) / 2 + 1);
+            }
+            double startTag = Math.max(flow.finishTag, virtualTime);
+            flow.finishTag = startTag + 1 / weight;
+            flow.queued++;
+            waiter = new Waiter(flow, startTag, flow.finishTag, arrivals++, mutex.newCondition());
+            waiting.add(waiter);
+            long remaining = maxWaitNanos;
+            while (!waiter.admitted) {
+                if (remaining <= 0) {
+                    waiting.remove(waiter);
+                    flow.queued--;
+                    throw AdmissionException.throttled(String.format("Request of client %s waited %d ms without being admitted.",
+                            clientId, TimeUnit.NANOSECONDS.toMillis(maxWaitNanos)), TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) / 2 + 1);
+                }
+                try {
+                    remaining = waiter.signal.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    if (waiter.admitted) {
+                        // Pass the slot on rather than leak it.
+                        releaseLocked();
+                    } else {
+                        waiting.remove(waiter);
+                        flow.queued--;
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            mutex.unlock();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Ends a request admitted by {@link #acquire(String, double)}, admitting the waiting request
+     * with the smallest finish time, if any.
+     */
+    public void release() {
+        try {
+            mutex.lock();
+            releaseLocked();
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of requests waiting.
+     *
+     * @return The queue length.
+     */
+    public int getQueued() {
+        try {
+            mutex.lock();
+            return waiting.size();
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    private void releaseLocked() {
+        Waiter next = waiting.poll();
+        if (next == null) {
+            running--;
+            // Nothing is waiting, so no client has a backlog to be fair about; start afresh.
+            flows.clear();
+            return;
+        }
+        virtualTime = Math.max(virtualTime, next.startTag);
+        next.flow.queued--;
+        next.admitted = true;
+        next.signal.signal();
+    }
+
+    /**
+     * The scheduling state of one client.
+     */
+    private static class Flow {
+        private double finishTag;
+        private int queued;
+    }
+
+    /**
+     * A request waiting to be admitted.
+     */
+    private static class Waiter implements Comparable<Waiter> {
+        private final Flow flow;
+        private final double startTag;
+        private final double finishTag;
+        private final long arrival;
+        private final Condition signal;
+        private boolean admitted;
+
+        private Waiter(Flow flow, double startTag, double finishTag, long arrival, Condition signal) {
+            this.flow = flow;
+            this.startTag = startTag;
+            this.finishTag = finishTag;
+            this.arrival = arrival;
+            this.signal = signal;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int cmp = Double.compare(finishTag, other.finishTag);
+            return cmp != 0 ? cmp : Long.compare(arrival, other.arrival);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package server;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.rmi.RemoteException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Injects failures into the replica calls a server receives, so that quorum behavior can be
+ * exercised with local processes. Configured from the environment:
+ * <ul>
+ *     <li>{@code KV_FAULT_DROP_RATE}: the fraction of calls, between 0 and 1, that fail.</li>
+ *     <li>{@code KV_FAULT_DELAY_MS}: each call is delayed by a random time up to this many milliseconds.</li>
+ *     <li>{@code KV_FAULT_DOWN_FILE}: while this file exists, every call fails as if the replica were down.
+ *     Creating and removing the file takes a replica out of and back into service without restarting it.</li>
+ * </ul>
+ */
+public class FaultInjector {
+
+    private final double dropRate;
+    private final int maxDelayMillis;
+    private final Path downFile;
+    private final StoreStats stats;
+
+    /**
+     * Constructs a FaultInjector.
+     *
+     * @param dropRate The fraction of calls that fail.
+     * @param maxDelayMillis The maximum delay added to each call, or 0 for none.
+     * @param downFile The file whose presence takes the replica down, or null.
+     * @param stats The counters to report injected faults to.
+     */
+    public FaultInjector(double dropRate, int maxDelayMillis, Path downFile, StoreStats stats) {
+        if (dropRate < 0 || dropRate > 1) {
+            throw new IllegalArgumentException("Drop rate must be between 0 and 1.");
+        }
+        this.dropRate = dropRate;
+        this.maxDelayMillis = Math.max(0, maxDelayMillis);
+        this.downFile = downFile;
+        this.stats = stats;
+    }
+
+    /**
+     * Reads the fault settings from the environment. Without them, no faults are injected.
+     *
+     * @param stats The counters to report injected faults to.
+     * @return The injector.
+     * @throws IllegalArgumentException If a setting is malformed.
+     */
+    public static FaultInjector fromEnv(StoreStats stats) {
+        String dropRate = System.getenv("KV_FAULT_DROP_RATE");
+        String delay = System.getenv("KV_FAULT_DELAY_MS");
+        String downFile = System.getenv("KV_FAULT_DOWN_FILE");
+        try {
+            return new FaultInjector(dropRate == null || dropRate.trim().isEmpty() ? 0 : Double.parseDouble(dropRate.trim()),
+                    delay == null || delay.trim().isEmpty() ? 0 : Integer.parseInt(delay.trim()),
+                    downFile == null || downFile.trim().isEmpty() ? null : Paths.get(downFile.trim()), stats);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid fault injection setting: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies the configured faults before a replica call is served.
+     *
+     * @param operation The name of the call, for logging.
+     * @throws RemoteException If the call is chosen to fail.
+     */
+    public void beforeCall(String operation) throws RemoteException {
+        if (downFile != null && Files.exists(downFile)) {
+            stats.increment("fault.down");
+            throw new RemoteException(String.format("Injected fault: replica is down (%s exists), %s rejected.", downFile, operation));
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (maxDelayMillis > 0) {
+            try {
+                Thread.sleep(random.nextInt(maxDelayMillis + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Interrupted while injecting a delay.");
+            }
+        }
+        if (dropRate > 0 && random.nextDouble() < dropRate) {
+            stats.increment("fault.dropped");
+            throw new RemoteException(String.format("Injected fault: %s dropped.", operation));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Places keys on servers with consistent hashing. Each server owns many points on a ring of 64-bit
+ * hashes, and the replicas of a key are the first distinct servers found walking clockwise from the
+ * key's hash. Every server builds the same ring from the same ids, so all of them agree on the
+ * replicas of every key without talking to each other.
+ */
+public class HashRing {
+
+    // Points per server; more points spread keys more evenly.
+    private static final int VIRTUAL_NODES = 128;
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final int nodeCount;
+
+    /**
+     * Constructs a HashRing.
+     *
+     * @param nodeIds The ids of all servers, including this one.
+     */
+    public HashRing(Collection<String> nodeIds) {
+        for (String nodeId : nodeIds) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(nodeId + "#" + i), nodeId);
+            }
+        }
+        this.nodeCount = nodeIds.size();
+    }
+
+    /**
+     * Finds the replicas of a key.
+     *
+     * @param key The key.
+     * @param count The number of replicas wanted.
+     * @return The ids of up to {@code count} distinct servers, the preferred one first.
+     */
+    public List<String> replicasFor(String key, int count) {
+        count = Math.min(count, nodeCount);
+        List<String> replicas = new ArrayList<>(count);
+        long h = hash(key);
+        for (Map.Entry<Long, String> entry : ring.tailMap(h, true).entrySet()) {
+            if (replicas.size() == count) {
+                return replicas;
+            }
+            if (!replicas.contains(entry.getValue())) {
+                replicas.add(entry.getValue());
+            }
+        }
+        for (String nodeId : ring.values()) {
+            if (replicas.size() == count) {
+                break;
+            }
+            if (!replicas.contains(nodeId)) {
+                replicas.add(nodeId);
+            }
+        }
+        return replicas;
+    }
+
+    /**
+     * Hashes a string with 64-bit FNV-1a followed by a bit mixer, so that similar keys land far apart.
+     */
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
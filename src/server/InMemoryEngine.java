@@ -0,0 +1,130 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps all entries in a heap {@link ConcurrentHashMap}, so lookups may run concurrently with the
+ * store's single writer. When the namespace has a data directory, the map
+ * is loaded from a snapshot file on startup and written back on {@link #flush()} and
+ * {@link #close()}, so data survives a graceful restart. The snapshot header records the highest
+ * change sequence, which removals would otherwise take with them.
+ */
+public class InMemoryEngine implements StorageEngine {
+
+    // Header of the snapshot file: "KVS2", followed by the highest change sequence.
+    private static final int SNAPSHOT_MAGIC = 0x4B565332;
+    // Header of snapshot files written before the sequence was recorded: "KVS1".
+    private static final int SNAPSHOT_MAGIC_V1 = 0x4B565331;
+
+    private final ConcurrentHashMap<ByteKey, StoredValue> keyValStore = new ConcurrentHashMap<>();
+    private final Path snapshotFile;
+    private volatile long sequence;
+
+    /**
+     * Constructs an InMemoryEngine, loading its snapshot file if one exists.
+     *
+     * @param snapshotFile The file to persist the map to, or null for a memory-only engine.
+     * @throws IOException If an existing snapshot cannot be read.
+     */
+    public InMemoryEngine(Path snapshotFile) throws IOException {
+        this.snapshotFile = snapshotFile;
+        if (snapshotFile != null && Files.exists(snapshotFile)) {
+            load();
+        }
+    }
+
+    @Override
+    public StoredValue get(ByteKey key) {
+        return keyValStore.get(key);
+    }
+
+    @Override
+    public StoredValue put(ByteKey key, StoredValue value) {
+        sequence = Math.max(sequence, value.getVersion());
+        return keyValStore.put(key, value);
+    }
+
+    @Override
+    public StoredValue remove(ByteKey key, long sequence) {
+        this.sequence = Math.max(this.sequence, sequence);
+        return keyValStore.remove(key);
+    }
+
+    @Override
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public int size() {
+        return keyValStore.size();
+    }
+
+    @Override
+    public void forEach(BiConsumer<ByteKey, StoredValue> visitor) {
+        keyValStore.forEach(visitor);
+    }
+
+    /**
+     * Writes the whole map to the snapshot file. The file is replaced atomically, so a crash
+     * during the write leaves the previous snapshot intact.
+     *
+     * @throws IOException If the snapshot cannot be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (snapshotFile == null) {
+            return;
+        }
+        Files.createDirectories(snapshotFile.toAbsolutePath().getParent());
+        Path tmp = Paths.get(snapshotFile.toString() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(sequence);
+            out.writeInt(keyValStore.size());
+            for (Map.Entry<ByteKey, StoredValue> entry : keyValStore.entrySet()) {
+                out.writeInt(entry.getKey().length());
+                out.write(entry.getKey().getBytes());
+                entry.getValue().writeTo(out);
+            }
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        ServerLogger.info(String.format("Wrote %d pairs to %s.", keyValStore.size(), snapshotFile));
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile), 1 << 16))) {
+            int magic = in.readInt();
+            if (magic != SNAPSHOT_MAGIC && magic != SNAPSHOT_MAGIC_V1) {
+                throw new IOException(String.format("File %s is not a store snapshot.", snapshotFile));
+            }
+            long loaded = magic == SNAPSHOT_MAGIC ? in.readLong() : 0;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+                StoredValue value = StoredValue.readFrom(in);
+                loaded = Math.max(loaded, value.getVersion());
+                keyValStore.put(new ByteKey(key), value);
+            }
+            sequence = loaded;
+        }
+        ServerLogger.info(String.format("Loaded %d pairs from %s.", keyValStore.size(), snapshotFile));
+    }
+}
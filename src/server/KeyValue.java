@@ -1,52 +1,133 @@
 package server;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
 import java.util.concurrent.locks.ReentrantLock;
-//import java.util.concurrent.ConcurrentHashMap;
+
+import api.ChangeEvent;
+import api.ValueCodec;
 
 /**
- * Implements a thread-safe singleton pattern to store and manage key-value pairs. This class
- * utilizes {@link ReentrantLock} for key-value store storage to ensure thread-safe operations.
+ * Stores and manages the key-value pairs of one namespace. This class utilizes
+ * {@link ReentrantLock} for key-value store storage to ensure thread-safe operations.
  * It provides methods to add, delete, and retrieve key-value pairs.
- * Another option is to use a {@link ConcurrentHashMap}.
+ * <p>
+ * A store is built once by {@link ServerApp} from a {@link StoreConfig} and handed to the
+ * {@link KeyValueRpcImpl} that serves it; a server hosts one store per namespace. The entries live
+ * in the {@link StorageEngine} named by the configuration, and {@link #close()} flushes the engine
+ * so that persistent namespaces survive a graceful shutdown.
+ * <p>
+ * Keys are kept as {@link ByteKey}s and values as {@link StoredValue}s, so binary keys and values
+ * are stored without conversion and string keys and values are UTF-8 encoded once at the boundary.
+ * Values are split into chunks of {@code chunkSize} bytes and Deflate-compressed when a chunk
+ * reaches {@code compressThreshold} bytes. Encoding and decoding happen outside the mutex so
+ * that compression does not lengthen the critical section.
+ * <p>
+ * Only writers take the mutex. Every write is stamped with the next store version, and reads go
+ * straight to the engine without locking. {@link #openSnapshot()} gives a consistent view of the
+ * store as of one version, which the {@link MvccIndex} keeps intact while writers carry on, so
+ * multi-key reads, scans and exports never block writes.
  */
 public class KeyValue {
 
-    // Static variable reference of single_instance of type KeyValue
-    private static KeyValue singletonInstance = null;
-
-//    private final ConcurrentHashMap<String, String> keyValStore;
-
-    private final HashMap<String, String> keyValStore;
+    private final StoreConfig config;
+    private final String name;
+    private final StorageEngine keyValStore;
     private final ReentrantLock mutex;
+    private final StoreStats stats;
+    private final int compressThreshold;
+    private final int chunkSize;
+    private final ChangeFeed changeFeed;
+    private final MvccIndex mvcc;
+    private volatile long lastVersion;
+    private boolean closed;
 
     /**
-     * Private constructor to prevent instantiation from outside this class.
-     * Initializes the key-value store and the mutex lock.
+     * Constructs a KeyValue store for a namespace and opens its storage engine, loading any data
+     * the namespace persisted before.
+     *
+     * @param config The namespace configuration.
+     * @throws IOException If persisted data cannot be read.
+     * @throws IllegalArgumentException If the configured engine is unknown.
      */
-    private KeyValue() {
-//        keyValStore = new ConcurrentHashMap<>();
-        this.keyValStore = new HashMap<>();
+    public KeyValue(StoreConfig config) throws IOException {
+        this.config = config;
+        this.name = config.getName();
         this.mutex = new ReentrantLock();
-        this.singletonInstance = null;
+        this.stats = new StoreStats();
+        this.compressThreshold = config.getCompressThreshold();
+        this.chunkSize = config.getChunkSize();
+        this.keyValStore = openEngine(config);
+        // Values an engine replaced without returning them from put leave the counters once it finds them
+        this.keyValStore.setReplacedListener(value -> account(value, -1));
+        // Removals leave no value behind, so the engine's own record of the sequence may be higher
+        this.lastVersion = keyValStore.getSequence();
+        this.keyValStore.forEach((key, value) -> {
+            account(value, 1);
+            lastVersion = Math.max(lastVersion, value.getVersion());
+        });
+        this.changeFeed = new ChangeFeed(config.getChangeHistory(), config.getWatchBuffer(), config.getWatchThreads(),
+                stats, lastVersion);
+        this.mvcc = new MvccIndex(keyValStore, name, () -> lastVersion, stats);
+        ServerLogger.info(String.format("Opened namespace %s with %d pairs: %s", name, keyValStore.size(), config));
+    }
+
+    private static StorageEngine openEngine(StoreConfig config) throws IOException {
+        return openEngine(config, config.getName());
     }
 
     /**
-     * Provides a global point of access to the singleton instance of the {@link KeyValue} class.
-     * If the instance does not exist, it is created. This method ensures that only one instance
-     * of the class is created and returned.
-     *
-     * @return The singleton instance of the {@link KeyValue} class.
+     * Opens the engine a configuration names, with its files named after {@code fileName}.
      */
-    public static KeyValue getInstance() {
-        if (singletonInstance == null) {
-            synchronized (KeyValue.class) {
-                if (singletonInstance == null) { // Double-check locking pattern
-                    singletonInstance = new KeyValue();
+    private static StorageEngine openEngine(StoreConfig config, String fileName) throws IOException {
+        Path dataDir = config.getDataDir();
+        switch (config.getEngine()) {
+            case "memory":
+                return new InMemoryEngine(dataDir == null ? null : dataDir.resolve(fileName + ".kvs"));
+            case "lsm":
+                if (dataDir == null) {
+                    throw new IllegalArgumentException(String.format("Engine lsm of namespace %s needs a dataDir.", config.getName()));
                 }
-            }
+                return new LsmEngine(dataDir.resolve(fileName + ".lsm"), fileName, config.getMemtableBytes(),
+                        config.getBlockCacheBytes(), config.getCompactionTrigger());
+            default:
+                throw new IllegalArgumentException(String.format("Unknown engine [%s] for namespace %s.",
+                        config.getEngine(), config.getName()));
         }
-        return singletonInstance;
+    }
+
+    /**
+     * Opens a second engine of the same type, and in the same data directory, as this store's, for
+     * data kept with the namespace that its clients must not see, such as a replica's tombstones.
+     * Its files are named after the namespace and a suffix, which namespace names cannot clash with.
+     * The caller must close the engine.
+     *
+     * @param suffix The suffix, appended to the namespace name after a dot.
+     * @return The engine.
+     * @throws IOException If the engine's files cannot be read.
+     */
+    StorageEngine openCompanionEngine(String suffix) throws IOException {
+        return openEngine(config, name + "." + suffix);
+    }
+
+    /**
+     * Gets the configuration the store was opened with.
+     *
+     * @return The namespace configuration.
+     */
+    public StoreConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Gets the namespace this store holds.
+     *
+     * @return The namespace name.
+     */
+    public String getName() {
+        return name;
     }
 
     /**
@@ -57,15 +138,92 @@ public class KeyValue {
      * @param value The value associated with the key.
      */
     public void put(String key, String value) {
+        ByteKey storeKey = ByteKey.of(key);
+        StoredValue prepared = encode(value.getBytes(StandardCharsets.UTF_8));
         try {
             mutex.lock();
-            keyValStore.put(key, value);
+            store(storeKey, prepared);
             ServerLogger.info(String.format("Added/Updated pair <key=%s, value=%s> in the database.", key, value));
         } finally {
             mutex.unlock();
         }
     }
 
+    /**
+     * Inserts or updates a key-value pair written by a replica, stamped with the timestamp and
+     * writer of the replicated write. The stamp is stored, and persisted, with the value.
+     * This method is thread-safe.
+     *
+     * @param key       The key to insert or update.
+     * @param value     The value associated with the key.
+     * @param timestamp The timestamp of the replicated write.
+     * @param writerId  The id of the node that coordinated the write.
+     */
+    public void putStamped(String key, String value, long timestamp, String writerId) {
+        ByteKey storeKey = ByteKey.of(key);
+        StoredValue prepared = encode(value.getBytes(StandardCharsets.UTF_8)).withStamp(timestamp, writerId);
+        try {
+            mutex.lock();
+            store(storeKey, prepared);
+            ServerLogger.info(String.format("Added/Updated pair <key=%s, value=%s> in the database from writer %s.",
+                    key, value, writerId));
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * Inserts or updates a binary key-value pair in the store. The key and value arrays are stored
+     * without conversion; small values are kept as the very same array, so the caller must not
+     * modify either array afterwards.
+     * This method is thread-safe.
+     *
+     * @param key   The key bytes to insert or update.
+     * @param value The value bytes associated with the key.
+     */
+    public void putBytes(byte[] key, byte[] value) {
+        ByteKey storeKey = new ByteKey(key);
+        StoredValue prepared = encode(value);
+        try {
+            mutex.lock();
+            store(storeKey, prepared);
+            ServerLogger.info(String.format("Added/Updated binary pair <key=%d bytes, value=%d bytes> in the database.",
+                    key.length, value.length));
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * Inserts or updates a key with a value that has already been split into encoded chunks, as
+     * received by a chunked upload. Raw chunks are compressed here if they reach the store's threshold.
+     * This method is thread-safe.
+     *
+     * @param key    The key to insert or update.
+     * @param chunks The encoded chunks of the value, in order.
+     */
+    public void putChunks(String key, byte[][] chunks) {
+        long start = System.nanoTime();
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = ValueCodec.recompress(chunks[i], compressThreshold);
+        }
+        stats.add("codec.compressNanos", System.nanoTime() - start);
+        long length = 0;
+        for (byte[] chunk : chunks) {
+            length += ValueCodec.rawLength(chunk);
+        }
+        ByteKey storeKey = ByteKey.of(key);
+        StoredValue prepared = new StoredValue(chunks, length, 0);
+        try {
+            mutex.lock();
+            StoredValue stored = store(storeKey, prepared);
+            ServerLogger.info(String.format("Added/Updated key=%s with a %d-byte value in %d chunks in the database.",
+                    key, stored.getLength(), chunks.length));
+        } finally {
+            mutex.unlock();
+        }
+    }
+
     /**
      * Deletes a key-value pair from the store if the key exists.
      * This method is thread-safe.
@@ -74,10 +232,25 @@ public class KeyValue {
      * @return True if the deletion was successful, false if the key was not found.
      */
     public boolean delete(String key) {
+        return delete(ByteKey.of(key));
+    }
+
+    /**
+     * Deletes a binary key from the store if it exists.
+     * This method is thread-safe.
+     *
+     * @param key The key bytes of the pair to be deleted.
+     * @return True if the deletion was successful, false if the key was not found.
+     */
+    public boolean deleteBytes(byte[] key) {
+        return delete(new ByteKey(key));
+    }
+
+    private boolean delete(ByteKey key) {
         try {
             mutex.lock();
-            if (keyValStore.containsKey(key)) {
-                keyValStore.remove(key);
+            checkOpen();
+            if (remove(key)) {
                 ServerLogger.info(String.format("Deleted key=%s from the database.", key));
                 return true;
             } else {
@@ -97,19 +270,338 @@ public class KeyValue {
      * @return The value associated with the key, or null if the key is not found.
      */
     public String get(String key) {
+        StoredValue stored = getStored(ByteKey.of(key));
+        if (stored == null) {
+            ServerLogger.error(String.format("Key=%s is not found in the database.", key));
+            return null;
+        }
+        String value = decode(stored);
+        ServerLogger.info(String.format("Retrieved value=%s for key=%s in the database", value, key));
+        return value;
+    }
+
+    /**
+     * Retrieves the value associated with a binary key. Small values are returned as the stored
+     * array itself, so the caller must not modify the result.
+     * This method is thread-safe.
+     *
+     * @param key The key bytes whose value is to be retrieved.
+     * @return The value bytes associated with the key, or null if the key is not found.
+     */
+    public byte[] getBytes(byte[] key) {
+        StoredValue stored = getStored(new ByteKey(key));
+        if (stored == null) {
+            ServerLogger.error(String.format("Binary key of %d bytes is not found in the database.", key.length));
+            return null;
+        }
+        byte[] value = decodeBytes(stored);
+        ServerLogger.info(String.format("Retrieved binary value of %d bytes for a %d-byte key in the database.",
+                value.length, key.length));
+        return value;
+    }
+
+    /**
+     * Retrieves the stored, still encoded, value for a given key. Used to serve chunked reads
+     * without decoding the value.
+     * This method is thread-safe and does not take the mutex, so it never waits for writers.
+     *
+     * @param key The key whose value is to be retrieved.
+     * @return The stored value, or null if the key is not found.
+     */
+    public StoredValue getStored(ByteKey key) {
+        return keyValStore.get(key);
+    }
+
+    /**
+     * Retrieves the values of several keys as of one point in time: no write is visible to one
+     * key and not to another, whatever writers do while the keys are read.
+     * This method is thread-safe.
+     *
+     * @param keys The keys whose values are to be retrieved.
+     * @return The values, in the order of the keys, with null for keys that are not found.
+     */
+    public String[] snapshotGet(String... keys) {
+        String[] values = new String[keys.length];
+        try (Snapshot snapshot = openSnapshot()) {
+            for (int i = 0; i < keys.length; i++) {
+                StoredValue stored = snapshot.get(ByteKey.of(keys[i]));
+                values[i] = stored == null ? null : decode(stored);
+            }
+            ServerLogger.info(String.format("Retrieved %d keys as of version %d in the database.", keys.length, snapshot.getVersion()));
+        }
+        return values;
+    }
+
+    /**
+     * Inserts or updates a batch of key-value pairs in the store. This is the bulk-insert fast path:
+     * the whole batch is applied under a single lock acquisition and storage engine commit, and a single summary line is logged,
+     * instead of locking and logging once per pair as {@link #put(String, String)} does.
+     * Values are encoded before the lock is taken.
+     * This method is thread-safe.
+     *
+     * @param entries The key-value pairs to insert or update.
+     * @return The number of pairs applied.
+     */
+    public int putAll(Map<String, String> entries) {
+        ByteKey[] keys = new ByteKey[entries.size()];
+        StoredValue[] encoded = new StoredValue[entries.size()];
+        int n = 0;
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            keys[n] = ByteKey.of(entry.getKey());
+            encoded[n++] = encode(entry.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+        int count = n;
         try {
             mutex.lock();
-            if (keyValStore.containsKey(key)) {
-                String value = keyValStore.get(key);
-                ServerLogger.info(String.format("Retrieved value=%s for key=%s in the database", value, key));
-                return value;
-            } else {
-                ServerLogger.error(String.format("Key=%s is not found in the database.", key));
-                return null;
+            keyValStore.writeGroup(() -> {
+                for (int i = 0; i < count; i++) {
+                    store(keys[i], encoded[i]);
+                }
+            });
+        } finally {
+            mutex.unlock();
+        }
+        ServerLogger.info(String.format("Bulk added/updated %d pairs in the database.", n));
+        return n;
+    }
+
+    /**
+     * Applies a batch of puts and deletes, typically from different callers, in order under a single
+     * lock acquisition and one storage engine commit, see {@link StorageEngine#writeGroup(Runnable)},
+     * and logs one summary line for the batch instead of one line per write.
+     * This is the apply step of the {@link WriteCombiner}. Values are encoded before the lock is taken.
+     * This method is thread-safe.
+     *
+     * @param keys The keys to write.
+     * @param values The value to put for each key, or null to delete the key.
+     * @param count The number of writes to apply, from the start of the arrays.
+     * @return For each write, true if it was a put or a delete that found its key.
+     * @throws IllegalStateException If the store is shut down; no write of the batch is applied.
+     */
+    public boolean[] applyWrites(String[] keys, String[] values, int count) {
+        ByteKey[] storeKeys = new ByteKey[count];
+        StoredValue[] encoded = new StoredValue[count];
+        for (int i = 0; i < count; i++) {
+            storeKeys[i] = ByteKey.of(keys[i]);
+            encoded[i] = values[i] == null ? null : encode(values[i].getBytes(StandardCharsets.UTF_8));
+        }
+        boolean[] applied = new boolean[count];
+        try {
+            mutex.lock();
+            checkOpen();
+            keyValStore.writeGroup(() -> {
+                for (int i = 0; i < count; i++) {
+                    if (encoded[i] != null) {
+                        store(storeKeys[i], encoded[i]);
+                        applied[i] = true;
+                    } else {
+                        applied[i] = remove(storeKeys[i]);
+                    }
+                }
+            });
+        } finally {
+            mutex.unlock();
+        }
+        int puts = 0;
+        int deleted = 0;
+        for (int i = 0; i < count; i++) {
+            if (encoded[i] != null) {
+                puts++;
+            } else if (applied[i]) {
+                deleted++;
             }
+        }
+        ServerLogger.info(String.format("Applied a batch of %d writes in the database: %d puts, %d deletes, %d keys to delete not found.",
+                count, puts, deleted, count - puts - deleted));
+        return applied;
+    }
+
+    /**
+     * Opens a consistent view of the store as of the latest write. Writers are only blocked while
+     * the snapshot is registered; reading through it takes no lock.
+     * This method is thread-safe.
+     *
+     * @return The snapshot, which must be closed when done so that old versions can be collected.
+     */
+    public Snapshot openSnapshot() {
+        try {
+            mutex.lock();
+            return mvcc.open(lastVersion);
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * Decodes a stored value back into a string.
+     *
+     * @param stored The stored value.
+     * @return The decoded value.
+     */
+    public String decode(StoredValue stored) {
+        return new String(decodeBytes(stored), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes a stored value back into its bytes. Values held unencoded are returned without a copy.
+     *
+     * @param stored The stored value.
+     * @return The value bytes, which must not be modified.
+     */
+    public byte[] decodeBytes(StoredValue stored) {
+        if (stored.isRaw()) {
+            return stored.decode();
+        }
+        long start = System.nanoTime();
+        byte[] raw = stored.decode();
+        if (stored.getCompressedChunkCount() > 0) {
+            stats.add("codec.decompressNanos", System.nanoTime() - start);
+            stats.increment("codec.decompressCalls");
+        }
+        return raw;
+    }
+
+    /**
+     * Gets the feed that publishes this store's mutations to watchers. Every put and delete is
+     * assigned the next sequence number while the mutex is held, so the feed sees one total order.
+     *
+     * @return The change feed.
+     */
+    public ChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    /**
+     * Gets the maximum number of value bytes per chunk.
+     *
+     * @return The chunk size in bytes.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Gets the live counters of this store, so that components serving the namespace can report
+     * their own counters alongside the store's.
+     *
+     * @return The counters.
+     */
+    public StoreStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Takes a copy of the store counters, including the number of values and the raw and stored
+     * byte totals from which the compression ratio and memory saved can be derived.
+     * This method is thread-safe.
+     *
+     * @return A map from counter name to value.
+     */
+    public Map<String, Long> stats() {
+        Map<String, Long> copy = stats.toMap();
+        try {
+            mutex.lock();
+            copy.put("store.values", (long) keyValStore.size());
+            copy.put("store.lastSequence", lastVersion);
+            copy.putAll(keyValStore.stats());
+            mvcc.report(copy);
+        } finally {
+            mutex.unlock();
+        }
+        copy.put("config.compressThreshold", (long) compressThreshold);
+        copy.put("config.chunkSize", (long) chunkSize);
+        return copy;
+    }
+
+    /**
+     * Shuts the store down: stops delivering change events, then flushes and closes the storage
+     * engine. Writes are rejected once the store is closed. Calling this more than once has no effect.
+     * This method is thread-safe.
+     *
+     * @throws IOException If the engine cannot flush its data.
+     */
+    public void close() throws IOException {
+        try {
+            mutex.lock();
+            if (closed) {
+                return;
+            }
+            closed = true;
+            changeFeed.close();
+            mvcc.close();
+            keyValStore.close();
+            ServerLogger.info(String.format("Closed namespace %s with %d pairs.", name, keyValStore.size()));
         } finally {
             mutex.unlock();
         }
     }
-}
 
+    /**
+     * Prepares value bytes for storage, recording the time spent compressing.
+     */
+    private StoredValue encode(byte[] value) {
+        long start = System.nanoTime();
+        StoredValue prepared = StoredValue.encode(value, chunkSize, compressThreshold);
+        if (!prepared.isRaw()) {
+            stats.add("codec.compressNanos", System.nanoTime() - start);
+            stats.increment("codec.encodeCalls");
+        }
+        return prepared;
+    }
+
+    /**
+     * Installs a new version of a key. Must be called while holding the mutex.
+     */
+    private StoredValue store(ByteKey key, StoredValue prepared) {
+        checkOpen();
+        StoredValue stored = new StoredValue(prepared, lastVersion + 1);
+        mvcc.recordWrite(key, stored, stored.getVersion());
+        StoredValue previous = keyValStore.put(key, stored);
+        lastVersion = stored.getVersion();
+        if (previous != null) {
+            account(previous, -1);
+        }
+        account(stored, 1);
+        changeFeed.append(new ChangeEvent(stored.getVersion(), "PUT", key.getBytes(),
+                stored.isRaw() ? stored.decode() : null, stored.getLength()));
+        return stored;
+    }
+
+    /**
+     * Removes a key and records the deletion. Must be called while holding the mutex.
+     *
+     * @return true if the key was present.
+     */
+    private boolean remove(ByteKey key) {
+        StoredValue removed = keyValStore.get(key);
+        if (removed == null) {
+            return false;
+        }
+        long version = lastVersion + 1;
+        mvcc.recordWrite(key, null, version);
+        keyValStore.remove(key, version);
+        lastVersion = version;
+        account(removed, -1);
+        changeFeed.append(new ChangeEvent(version, "DELETE", key.getBytes(), null, 0));
+        return true;
+    }
+
+    /**
+     * Rejects writes after {@link #close()}. Must be called while holding the mutex.
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException(String.format("Namespace %s is shut down.", name));
+        }
+    }
+
+    /**
+     * Adds or subtracts a value's sizes from the byte counters.
+     */
+    private void account(StoredValue value, int sign) {
+        stats.add("store.rawBytes", sign * value.getLength());
+        stats.add("store.storedBytes", sign * value.getStoredSize());
+        stats.add("store.compressedChunks", sign * value.getCompressedChunkCount());
+        stats.add("store.chunks", sign * value.getChunkCount());
+    }
+}
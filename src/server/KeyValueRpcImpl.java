@@ -1,38 +1,158 @@
 package server;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
 import java.rmi.RemoteException;
+import java.rmi.server.ServerNotActiveException;
 import java.rmi.server.UnicastRemoteObject;
 import java.lang.InterruptedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import api.BinaryKeyValueBatch;
+import api.BinaryKeyValueRpc;
+import api.ConsistencyLevel;
+import api.ErrorCode;
+import api.KeyValueBatch;
 import api.KeyValueRpc;
 import api.KeyValueResponse;
+import api.KeyValueWatcher;
+import api.RequestCoalescer;
+import api.RequestRejectedException;
+import api.ValueChunk;
+import api.ValueCodec;
+import api.VersionedValue;
 
 /**
  * Implementation of the KeyValueRpc interface for remote access to a key-value store.
  * This class ensures thread-safe operations on the key-value store and handles remote method invocation.
+ * It also implements {@link BinaryKeyValueRpc}, the binary-safe variant that stores byte arrays as they are.
+ * When the server is part of a cluster, get, put and delete go through a {@link QuorumCoordinator};
+ * the bulk, chunked, binary and watch APIs always serve this server's own store.
+ * Concurrent gets of the same key share one lookup and one response, and concurrent puts to the same
+ * key are merged into one mutation carrying the last value, see {@link RequestCoalescer}. When the
+ * namespace combines writes, local puts and deletes are applied in batches by a {@link WriteCombiner}.
+ * Every data request is admitted through the {@link AdmissionController}, which limits each client's
+ * rate and shares the store fairly between clients; clients identify themselves with {@link #openSession(String)}.
  */
-public class KeyValueRpcImpl extends UnicastRemoteObject implements KeyValueRpc {
+public class KeyValueRpcImpl extends UnicastRemoteObject implements KeyValueRpc, BinaryKeyValueRpc {
+
+    // Export snapshots and uploads not used for this long are considered abandoned and released.
+    private static final long SESSION_IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000L;
+
+    // Upper bound on the number of pairs returned by a single exportBatch call.
+    private static final int MAX_EXPORT_BATCH = 10_000;
+
+    // Client id of the session the current call came through, if any.
+    private static final ThreadLocal<String> CURRENT_CLIENT = new ThreadLocal<>();
+
+    private final KeyValue store;
+    private final QuorumCoordinator coordinator;
+    private final AdmissionController admission;
+    // Coalescers for gets and puts, indexed by consistency level, with the server default at 0; null if disabled.
+    private final RequestCoalescer<String, Void, KeyValueResponse>[] getCoalescers;
+    private final RequestCoalescer<String, String, KeyValueResponse>[] putCoalescers;
+    // Batches puts and deletes applied to the local store; null if disabled or if writes go through the coordinator.
+    private final WriteCombiner combiner;
+    private final ConcurrentHashMap<Long, ExportSnapshot> snapshots = new ConcurrentHashMap<>();
+    private final AtomicLong nextSnapshotId = new AtomicLong(1);
+    private final ConcurrentHashMap<Long, PendingUpload> uploads = new ConcurrentHashMap<>();
+    private final AtomicLong nextUploadId = new AtomicLong(1);
 
     /**
-     * Constructs a KeyValueRpcImpl instance and exports it to allow remote access.
+     * Constructs a KeyValueRpcImpl instance serving one store and exports it to allow remote access.
      *
+     * @param store The store of the namespace to serve.
      * @throws RemoteException if an error occurs during object export.
      */
-    protected KeyValueRpcImpl() throws RemoteException {
+    public KeyValueRpcImpl(KeyValue store) throws RemoteException {
+        this(store, null, null);
+    }
+
+    /**
+     * Constructs a KeyValueRpcImpl instance whose get, put and delete requests are replicated
+     * through a coordinator and whose requests are admitted per client, and exports it to allow remote access.
+     *
+     * @param store The store of the namespace to serve.
+     * @param coordinator The coordinator of the namespace's replicas, or null to serve from the store alone.
+     * @param admission The rate limits and fair scheduling shared by the server's namespaces, or null to admit every request.
+     * @throws RemoteException if an error occurs during object export.
+     */
+    public KeyValueRpcImpl(KeyValue store, QuorumCoordinator coordinator, AdmissionController admission) throws RemoteException {
         super();
+        this.store = store;
+        this.coordinator = coordinator;
+        this.admission = admission;
+        if (store.getConfig().isCoalesce()) {
+            int levels = ConsistencyLevel.values().length + 1;
+            getCoalescers = newCoalescers(levels);
+            putCoalescers = newCoalescers(levels);
+            for (int i = 0; i < levels; i++) {
+                getCoalescers[i] = new RequestCoalescer<>();
+                putCoalescers[i] = new RequestCoalescer<>(store.getConfig().getWriteWindowMicros());
+            }
+        } else {
+            getCoalescers = null;
+            putCoalescers = null;
+        }
+        this.combiner = coordinator == null && store.getConfig().isCombineWrites() ? new WriteCombiner(store) : null;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <V> RequestCoalescer<String, V, KeyValueResponse>[] newCoalescers(int size) {
+        return (RequestCoalescer<String, V, KeyValueResponse>[]) new RequestCoalescer[size];
     }
 
     @Override
     public KeyValueResponse get(String key) throws IllegalArgumentException, RemoteException, InterruptedException {
-        if (key == null || key.trim().isEmpty()) {
+        return get(key, null);
+    }
+
+    @Override
+    public KeyValueResponse get(String key, ConsistencyLevel level) throws IllegalArgumentException, RemoteException, InterruptedException {
+        return admitted("GET", () -> serveGet(key, level));
+    }
+
+    private KeyValueResponse serveGet(String key, ConsistencyLevel level) throws IllegalArgumentException, RemoteException, InterruptedException {
+        if (isBlank(key)) {
             throw new IllegalArgumentException("Key must not be null or empty after being trimmed.");
         }
         // Proceed with the operation if the input is valid
-        key = key.trim();
-        String value = KeyValue.getInstance().get(key);
+        String trimmed = key.trim();
+        if (getCoalescers == null) {
+            return lookup(trimmed, level);
+        }
+        return coalesce(getCoalescers[slot(level)], trimmed, null, ignored -> lookup(trimmed, level));
+    }
+
+    /**
+     * Reads a key from the store, or from its replicas through the coordinator, and builds the response.
+     */
+    private KeyValueResponse lookup(String key, ConsistencyLevel level) throws InterruptedException {
         KeyValueResponse response = new KeyValueResponse();
         response.setOperation("GET");
+        String value;
+        if (coordinator == null) {
+            value = store.get(key);
+        } else {
+            try {
+                VersionedValue newest = coordinator.read(key, level);
+                value = newest == null ? null : newest.getValue();
+            } catch (QuorumException e) {
+                response.setErrorCode(ErrorCode.QUORUM_FAILED);
+                response.setErrorMsg(e.getMessage());
+                response.setSuccess(false);
+                return response;
+            }
+        }
         if (value == null) {
+            response.setErrorCode(ErrorCode.NOT_FOUND);
             response.setErrorMsg(String.format("Key=%s is not found in the database.", key));
             response.setSuccess(false);
         } else {
@@ -44,6 +164,15 @@ public class KeyValueRpcImpl extends UnicastRemoteObject implements KeyValueRpc
 
     @Override
     public KeyValueResponse put(String key, String value) throws IllegalArgumentException, RemoteException, InterruptedException {
+        return put(key, value, null);
+    }
+
+    @Override
+    public KeyValueResponse put(String key, String value, ConsistencyLevel level) throws IllegalArgumentException, RemoteException, InterruptedException {
+        return admitted("PUT", () -> servePut(key, value, level));
+    }
+
+    private KeyValueResponse servePut(String key, String value, ConsistencyLevel level) throws IllegalArgumentException, RemoteException, InterruptedException {
         /** For TEST: Simulating some long-running operation */
 //        System.out.println("Sleeping for 10 seconds...");
 //
@@ -55,33 +184,645 @@ public class KeyValueRpcImpl extends UnicastRemoteObject implements KeyValueRpc
 //            Thread.currentThread().interrupt();
 //        }
 
-        if (key == null || key.trim().isEmpty() || value == null || value.trim().isEmpty()) {
+        if (isBlank(key) || isBlank(value)) {
             throw new IllegalArgumentException("Key and value must not be null or empty after being trimmed.");
         }
         // Proceed with the operation if the input is valid
-        key = key.trim();
-        value = value.trim();
-        KeyValue.getInstance().put(key, value);
+        String trimmed = key.trim();
+        if (putCoalescers == null) {
+            return apply(trimmed, value.trim(), level);
+        }
+        return coalesce(putCoalescers[slot(level)], trimmed, value.trim(), merged -> apply(trimmed, merged, level));
+    }
+
+    /**
+     * Writes a key to the store, or to its replicas through the coordinator, and builds the response.
+     */
+    private KeyValueResponse apply(String key, String value, ConsistencyLevel level) throws InterruptedException {
         KeyValueResponse response = new KeyValueResponse();
         response.setOperation("PUT");
+        if (coordinator == null) {
+            if (combiner != null) {
+                combiner.put(key, value);
+            } else {
+                store.put(key, value);
+            }
+        } else {
+            try {
+                coordinator.write(key, value, level);
+            } catch (QuorumException e) {
+                response.setErrorCode(ErrorCode.QUORUM_FAILED);
+                response.setErrorMsg(e.getMessage());
+                response.setSuccess(false);
+                return response;
+            }
+        }
         response.setSuccess(true);
         return response;
     }
 
     @Override
     public KeyValueResponse delete(String key) throws IllegalArgumentException, RemoteException, InterruptedException {
-        if (key == null || key.trim().isEmpty()) {
+        return delete(key, null);
+    }
+
+    @Override
+    public KeyValueResponse delete(String key, ConsistencyLevel level) throws IllegalArgumentException, RemoteException, InterruptedException {
+        return admitted("DELETE", () -> serveDelete(key, level));
+    }
+
+    private KeyValueResponse serveDelete(String key, ConsistencyLevel level) throws IllegalArgumentException, RemoteException, InterruptedException {
+        if (isBlank(key)) {
             throw new IllegalArgumentException("Key must not be null or empty after being trimmed.");
         }
         // Proceed with the operation if the input is valid
         key = key.trim();
-        boolean success = KeyValue.getInstance().delete(key);
         KeyValueResponse response = new KeyValueResponse();
         response.setOperation("DELETE");
+        boolean success;
+        if (coordinator == null) {
+            success = combiner != null ? combiner.delete(key) : store.delete(key);
+        } else {
+            try {
+                success = coordinator.write(key, null, level);
+            } catch (QuorumException e) {
+                response.setErrorCode(ErrorCode.QUORUM_FAILED);
+                response.setErrorMsg(e.getMessage());
+                response.setSuccess(false);
+                return response;
+            }
+        }
         response.setSuccess(success);
         if (!success) {
+            response.setErrorCode(ErrorCode.NOT_FOUND);
             response.setErrorMsg(String.format("Key=%s is not found or has already been deleted from the database.", key));
         }
         return response;
     }
+
+    @Override
+    public KeyValueResponse putAll(Map<String, String> entries) throws IllegalArgumentException, RemoteException, InterruptedException {
+        return admitted("PUT_ALL", () -> servePutAll(entries));
+    }
+
+    private KeyValueResponse servePutAll(Map<String, String> entries) throws IllegalArgumentException, RemoteException, InterruptedException {
+        if (entries == null || entries.isEmpty()) {
+            throw new IllegalArgumentException("Entries must not be null or empty.");
+        }
+        Map<String, String> trimmed = new HashMap<>(entries.size() * 2);
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            String key = entry.getKey();
+            String value = entry.getValue();
+            if (isBlank(key) || isBlank(value)) {
+                throw new IllegalArgumentException("Key and value must not be null or empty after being trimmed.");
+            }
+            trimmed.put(key.trim(), value.trim());
+        }
+        if (coordinator != null) {
+            return notReplicated("PUT_ALL");
+        }
+        int applied = store.putAll(trimmed);
+        KeyValueResponse response = new KeyValueResponse();
+        response.setOperation("PUT_ALL");
+        response.setSuccess(true);
+        response.setValue(String.valueOf(applied));
+        return response;
+    }
+
+    @Override
+    public KeyValueBatch snapshotGet(String[] keys) throws IllegalArgumentException, RemoteException, InterruptedException {
+        return admittedOrFail(() -> serveSnapshotGet(keys));
+    }
+
+    private KeyValueBatch serveSnapshotGet(String[] keys) throws IllegalArgumentException {
+        if (keys == null || keys.length == 0) {
+            throw new IllegalArgumentException("Keys must not be null or empty.");
+        }
+        String[] trimmed = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            if (isBlank(keys[i])) {
+                throw new IllegalArgumentException("Key must not be null or empty after being trimmed.");
+            }
+            trimmed[i] = keys[i].trim();
+        }
+        return new KeyValueBatch(trimmed, store.snapshotGet(trimmed), null);
+    }
+
+    @Override
+    public long openSnapshot() throws RemoteException, InterruptedException {
+        return admittedOrFail(() -> serveOpenSnapshot());
+    }
+
+    private long serveOpenSnapshot() throws RemoteException, InterruptedException {
+        expireIdleSessions();
+        long snapshotId = nextSnapshotId.getAndIncrement();
+        Snapshot snapshot = store.openSnapshot();
+        try {
+            snapshots.put(snapshotId, new ExportSnapshot(snapshot, snapshot.keys()));
+        } catch (RuntimeException e) {
+            snapshot.close();
+            throw e;
+        }
+        ServerLogger.info(String.format("Opened export snapshot id=%d at version %d.", snapshotId, snapshot.getVersion()));
+        return snapshotId;
+    }
+
+    @Override
+    public KeyValueBatch exportBatch(long snapshotId, String afterCursor, int limit) throws IllegalArgumentException, RemoteException, InterruptedException {
+        return admittedOrFail(() -> serveExportBatch(snapshotId, afterCursor, limit));
+    }
+
+    private KeyValueBatch serveExportBatch(long snapshotId, String afterCursor, int limit) throws IllegalArgumentException, RemoteException, InterruptedException {
+        ExportSnapshot snapshot = exportSnapshot(snapshotId, limit);
+        List<ByteKey> page = nextPage(snapshot, afterCursor == null ? null : ByteKey.of(afterCursor), limit);
+        String[] keys = new String[page.size()];
+        String[] values = new String[page.size()];
+        for (int i = 0; i < keys.length; i++) {
+            ByteKey key = page.get(i);
+            // Decoding would replace invalid bytes, exporting a different key and a cursor that lands elsewhere
+            if (!isUtf8(key.getBytes())) {
+                throw new IllegalArgumentException(String.format("Snapshot id=%d holds a key that is not valid UTF-8; export it with exportBatchBytes.",
+                        snapshotId));
+            }
+            keys[i] = key.toString();
+            values[i] = store.decode(snapshot.view.get(key));
+        }
+        String nextCursor = isLastPage(snapshotId, snapshot, page) ? null : keys[keys.length - 1];
+        return new KeyValueBatch(keys, values, nextCursor);
+    }
+
+    @Override
+    public BinaryKeyValueBatch exportBatchBytes(long snapshotId, byte[] afterCursor, int limit) throws IllegalArgumentException, RemoteException, InterruptedException {
+        return admittedOrFail(() -> serveExportBatchBytes(snapshotId, afterCursor, limit));
+    }
+
+    private BinaryKeyValueBatch serveExportBatchBytes(long snapshotId, byte[] afterCursor, int limit) throws IllegalArgumentException, RemoteException, InterruptedException {
+        ExportSnapshot snapshot = exportSnapshot(snapshotId, limit);
+        List<ByteKey> page = nextPage(snapshot, afterCursor == null ? null : new ByteKey(afterCursor), limit);
+        byte[][] keys = new byte[page.size()][];
+        byte[][] values = new byte[page.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = page.get(i).getBytes();
+            values[i] = store.decodeBytes(snapshot.view.get(page.get(i)));
+        }
+        byte[] nextCursor = isLastPage(snapshotId, snapshot, page) ? null : keys[keys.length - 1];
+        return new BinaryKeyValueBatch(keys, values, nextCursor);
+    }
+
+    private ExportSnapshot exportSnapshot(long snapshotId, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be a positive number.");
+        }
+        ExportSnapshot snapshot = snapshots.get(snapshotId);
+        if (snapshot == null) {
+            throw new IllegalArgumentException(String.format("Snapshot id=%d is not open or has expired.", snapshotId));
+        }
+        snapshot.lastAccessMillis = System.currentTimeMillis();
+        return snapshot;
+    }
+
+    /**
+     * Gets the keys of the next export page, the keys of the snapshot following the cursor.
+     * Values are then read as of the snapshot, however the store has changed since it was opened.
+     */
+    private static List<ByteKey> nextPage(ExportSnapshot snapshot, ByteKey afterCursor, int limit) {
+        List<ByteKey> remaining = snapshot.keys;
+        if (afterCursor != null) {
+            int at = Collections.binarySearch(remaining, afterCursor);
+            remaining = remaining.subList(at >= 0 ? at + 1 : -at - 1, remaining.size());
+        }
+        return remaining.subList(0, Math.min(Math.min(limit, MAX_EXPORT_BATCH), remaining.size()));
+    }
+
+    /**
+     * Checks whether a page ends the snapshot, and releases the snapshot if it does.
+     */
+    private boolean isLastPage(long snapshotId, ExportSnapshot snapshot, List<ByteKey> page) throws RemoteException {
+        List<ByteKey> keys = snapshot.keys;
+        if (!page.isEmpty() && page.get(page.size() - 1) != keys.get(keys.size() - 1)) {
+            return false;
+        }
+        closeSnapshot(snapshotId);
+        return true;
+    }
+
+    private static boolean isUtf8(byte[] bytes) {
+        try {
+            StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes));
+            return true;
+        } catch (CharacterCodingException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void closeSnapshot(long snapshotId) throws RemoteException {
+        ExportSnapshot snapshot = snapshots.remove(snapshotId);
+        if (snapshot != null) {
+            snapshot.view.close();
+            ServerLogger.info(String.format("Closed export snapshot id=%d.", snapshotId));
+        }
+    }
+
+    @Override
+    public long beginUpload(String key) throws IllegalArgumentException, RemoteException, InterruptedException {
+        return admittedOrFail(() -> serveBeginUpload(key));
+    }
+
+    private long serveBeginUpload(String key) throws IllegalArgumentException, RemoteException, InterruptedException {
+        if (isBlank(key)) {
+            throw new IllegalArgumentException("Key must not be null or empty after being trimmed.");
+        }
+        if (coordinator != null) {
+            throw new IllegalStateException(String.format("%s: Chunked uploads are not replicated; use put on namespace %s.",
+                    ErrorCode.UNSUPPORTED, store.getName()));
+        }
+        expireIdleSessions();
+        long uploadId = nextUploadId.getAndIncrement();
+        uploads.put(uploadId, new PendingUpload(key.trim()));
+        return uploadId;
+    }
+
+    @Override
+    public void uploadChunk(long uploadId, int index, byte[] block) throws IllegalArgumentException, RemoteException, InterruptedException {
+        admittedOrFail(() -> {
+            serveUploadChunk(uploadId, index, block);
+            return null;
+        });
+    }
+
+    private void serveUploadChunk(long uploadId, int index, byte[] block) throws IllegalArgumentException, RemoteException, InterruptedException {
+        PendingUpload upload = uploads.get(uploadId);
+        if (upload == null) {
+            throw new IllegalArgumentException(String.format("Upload id=%d is not open or has expired.", uploadId));
+        }
+        int length = ValueCodec.rawLength(block);
+        if (length > store.getChunkSize()) {
+            throw new IllegalArgumentException(String.format("Chunk of %d bytes exceeds the maximum chunk size of %d bytes.",
+                    length, store.getChunkSize()));
+        }
+        // Inflated only once the header has bounded the length, so a block cannot claim more memory than a chunk
+        ValueCodec.verify(block);
+        synchronized (upload) {
+            if (index != upload.chunks.size()) {
+                throw new IllegalArgumentException(String.format("Expected chunk %d of upload id=%d but received chunk %d.",
+                        upload.chunks.size(), uploadId, index));
+            }
+            upload.chunks.add(block);
+            upload.length += length;
+            upload.lastAccessMillis = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public KeyValueResponse commitUpload(long uploadId) throws IllegalArgumentException, RemoteException, InterruptedException {
+        return admitted("PUT", () -> serveCommitUpload(uploadId));
+    }
+
+    private KeyValueResponse serveCommitUpload(long uploadId) throws IllegalArgumentException, RemoteException, InterruptedException {
+        PendingUpload upload = uploads.remove(uploadId);
+        if (upload == null) {
+            throw new IllegalArgumentException(String.format("Upload id=%d is not open or has expired.", uploadId));
+        }
+        KeyValueResponse response = new KeyValueResponse();
+        response.setOperation("PUT");
+        synchronized (upload) {
+            if (upload.length == 0) {
+                throw new IllegalArgumentException("Uploaded value must not be empty.");
+            }
+            store.putChunks(upload.key, upload.chunks.toArray(new byte[0][]));
+            response.setValue(String.valueOf(upload.length));
+        }
+        response.setSuccess(true);
+        return response;
+    }
+
+    @Override
+    public ValueChunk getChunk(String key, int index, long expectedVersion) throws IllegalArgumentException, IllegalStateException, RemoteException, InterruptedException {
+        return admittedOrFail(() -> serveGetChunk(key, index, expectedVersion));
+    }
+
+    private ValueChunk serveGetChunk(String key, int index, long expectedVersion) throws IllegalArgumentException, IllegalStateException, RemoteException, InterruptedException {
+        if (isBlank(key)) {
+            throw new IllegalArgumentException("Key must not be null or empty after being trimmed.");
+        }
+        StoredValue stored = store.getStored(ByteKey.of(key.trim()));
+        if (stored == null) {
+            return null;
+        }
+        if (expectedVersion >= 0 && stored.getVersion() != expectedVersion) {
+            throw new IllegalStateException(String.format("Value of key=%s changed while being read; restart from chunk 0.", key.trim()));
+        }
+        if (index < 0 || index >= stored.getChunkCount()) {
+            throw new IllegalArgumentException(String.format("Chunk index %d is out of range [0, %d).", index, stored.getChunkCount()));
+        }
+        return new ValueChunk(stored.getChunk(index), index, stored.getChunkCount(), stored.getLength(), stored.getVersion());
+    }
+
+    @Override
+    public Map<String, Long> stats() throws RemoteException {
+        Map<String, Long> stats = store.stats();
+        if (getCoalescers != null) {
+            long getRequests = 0, getLookups = 0, putRequests = 0, putMutations = 0;
+            for (int i = 0; i < getCoalescers.length; i++) {
+                getRequests += getCoalescers[i].getRequests();
+                getLookups += getCoalescers[i].getExecutions();
+                putRequests += putCoalescers[i].getRequests();
+                putMutations += putCoalescers[i].getExecutions();
+            }
+            stats.put("coalesce.getRequests", getRequests);
+            stats.put("coalesce.getLookups", getLookups);
+            stats.put("coalesce.putRequests", putRequests);
+            stats.put("coalesce.putMutations", putMutations);
+        }
+        if (combiner != null) {
+            stats.put("combine.writes", combiner.getWrites());
+            stats.put("combine.batches", combiner.getBatches());
+            stats.put("combine.maxBatch", (long) combiner.getMaxBatch());
+        }
+        if (admission != null) {
+            stats.putAll(admission.stats());
+        }
+        if (coordinator != null) {
+            stats.putAll(coordinator.stats());
+        }
+        return stats;
+    }
+
+    @Override
+    public long watch(String key, boolean prefix, long resumeAfter, KeyValueWatcher watcher) throws IllegalArgumentException, RemoteException {
+        if (key == null || (!prefix && isBlank(key)) || watcher == null) {
+            throw new IllegalArgumentException("Key and watcher must not be null, and an exact key must not be empty.");
+        }
+        return store.getChangeFeed().watch(ByteKey.of(prefix ? key : key.trim()), prefix, resumeAfter, watcher);
+    }
+
+    @Override
+    public void unwatch(long watchId) throws RemoteException {
+        store.getChangeFeed().unwatch(watchId);
+    }
+
+    @Override
+    public KeyValueResponse getBytes(byte[] key) throws IllegalArgumentException, RemoteException, InterruptedException {
+        return admitted("GET", () -> serveGetBytes(key));
+    }
+
+    private KeyValueResponse serveGetBytes(byte[] key) throws IllegalArgumentException, RemoteException, InterruptedException {
+        if (key == null || key.length == 0) {
+            throw new IllegalArgumentException("Key must not be null or empty.");
+        }
+        byte[] value = store.getBytes(key);
+        KeyValueResponse response = new KeyValueResponse();
+        response.setOperation("GET");
+        if (value == null) {
+            response.setErrorCode(ErrorCode.NOT_FOUND);
+            response.setErrorMsg(String.format("Binary key of %d bytes is not found in the database.", key.length));
+            response.setSuccess(false);
+        } else {
+            response.setSuccess(true);
+            response.setBinaryValue(value);
+        }
+        return response;
+    }
+
+    @Override
+    public KeyValueResponse putBytes(byte[] key, byte[] value) throws IllegalArgumentException, RemoteException, InterruptedException {
+        return admitted("PUT", () -> servePutBytes(key, value));
+    }
+
+    private KeyValueResponse servePutBytes(byte[] key, byte[] value) throws IllegalArgumentException, RemoteException, InterruptedException {
+        if (key == null || key.length == 0 || value == null || value.length == 0) {
+            throw new IllegalArgumentException("Key and value must not be null or empty.");
+        }
+        if (coordinator != null) {
+            return notReplicated("PUT");
+        }
+        store.putBytes(key, value);
+        KeyValueResponse response = new KeyValueResponse();
+        response.setOperation("PUT");
+        response.setSuccess(true);
+        return response;
+    }
+
+    @Override
+    public KeyValueResponse deleteBytes(byte[] key) throws IllegalArgumentException, RemoteException, InterruptedException {
+        return admitted("DELETE", () -> serveDeleteBytes(key));
+    }
+
+    private KeyValueResponse serveDeleteBytes(byte[] key) throws IllegalArgumentException, RemoteException, InterruptedException {
+        if (key == null || key.length == 0) {
+            throw new IllegalArgumentException("Key must not be null or empty.");
+        }
+        if (coordinator != null) {
+            return notReplicated("DELETE");
+        }
+        boolean success = store.deleteBytes(key);
+        KeyValueResponse response = new KeyValueResponse();
+        response.setOperation("DELETE");
+        response.setSuccess(success);
+        if (!success) {
+            response.setErrorCode(ErrorCode.NOT_FOUND);
+            response.setErrorMsg(String.format("Binary key of %d bytes is not found or has already been deleted from the database.", key.length));
+        }
+        return response;
+    }
+
+    @Override
+    public KeyValueRpc openSession(String clientId) throws IllegalArgumentException, RemoteException {
+        if (isBlank(clientId)) {
+            throw new IllegalArgumentException("Client id must not be null or empty after being trimmed.");
+        }
+        ServerLogger.info(String.format("Opened session for client %s on namespace %s.", clientId.trim(), store.getName()));
+        return new ClientSession(this, clientId.trim());
+    }
+
+    /**
+     * Runs a request as the given client; used by {@link ClientSession} to tag its calls.
+     *
+     * @param clientId The client the request is made for.
+     * @param request The request.
+     * @return The result of the request.
+     * @throws RemoteException If the request fails remotely.
+     * @throws InterruptedException If the request is interrupted.
+     */
+    <T> T runAs(String clientId, Request<T> request) throws RemoteException, InterruptedException {
+        String previous = CURRENT_CLIENT.get();
+        CURRENT_CLIENT.set(clientId);
+        try {
+            return request.run();
+        } finally {
+            CURRENT_CLIENT.set(previous);
+        }
+    }
+
+    /**
+     * Identifies the client of the current request: the session's client id if the call came through
+     * {@link #openSession(String)}, otherwise the host the call came from.
+     */
+    private static String clientId() {
+        String clientId = CURRENT_CLIENT.get();
+        if (clientId != null) {
+            return clientId;
+        }
+        try {
+            return "host:" + getClientHost();
+        } catch (ServerNotActiveException e) {
+            return "local";
+        }
+    }
+
+    /**
+     * Builds the response rejecting a write that only the local store could apply. On a replicated
+     * namespace it would bypass the other replicas and carry no timestamp, so coordinated reads could
+     * miss it and any replicated write would overwrite it.
+     */
+    private KeyValueResponse notReplicated(String operation) {
+        KeyValueResponse response = new KeyValueResponse();
+        response.setOperation(operation);
+        response.setSuccess(false);
+        response.setErrorCode(ErrorCode.UNSUPPORTED);
+        response.setErrorMsg(String.format("%s is not replicated; use put and delete on namespace %s.", operation, store.getName()));
+        return response;
+    }
+
+    /**
+     * Admits a request for the current client and runs it, or reports why it was turned away.
+     */
+    private KeyValueResponse admitted(String operation, Request<KeyValueResponse> request) throws RemoteException, InterruptedException {
+        if (admission == null) {
+            return request.run();
+        }
+        try {
+            admission.admit(clientId());
+        } catch (AdmissionException e) {
+            KeyValueResponse response = new KeyValueResponse();
+            response.setOperation(operation);
+            response.setSuccess(false);
+            response.setErrorCode(e.getErrorCode());
+            response.setErrorMsg(e.getMessage());
+            response.setRetryAfterMillis(e.getRetryAfterMillis());
+            return response;
+        }
+        try {
+            return request.run();
+        } finally {
+            admission.release();
+        }
+    }
+
+    /**
+     * Admits a request whose result has no room for an error code, failing it with a
+     * {@link RequestRejectedException} carrying the code if it is turned away.
+     */
+    private <T> T admittedOrFail(Request<T> request) throws RemoteException, InterruptedException {
+        if (admission == null) {
+            return request.run();
+        }
+        try {
+            admission.admit(clientId());
+        } catch (AdmissionException e) {
+            throw new RequestRejectedException(e.getErrorCode(), String.format("%s: %s Retry after %d ms.", e.getErrorCode(),
+                    e.getMessage(), e.getRetryAfterMillis()), e.getRetryAfterMillis());
+        }
+        try {
+            return request.run();
+        } finally {
+            admission.release();
+        }
+    }
+
+    /**
+     * A request body run after admission.
+     *
+     * @param <T> The result type.
+     */
+    interface Request<T> {
+        T run() throws RemoteException, InterruptedException;
+    }
+
+    /**
+     * Runs a request through a coalescer, rethrowing the failures a get or put can raise.
+     */
+    private static <V> KeyValueResponse coalesce(RequestCoalescer<String, V, KeyValueResponse> coalescer, String key, V value,
+                                                 RequestCoalescer.Operation<V, KeyValueResponse> operation)
+            throws RemoteException, InterruptedException {
+        try {
+            return coalescer.execute(key, value, operation);
+        } catch (RuntimeException | RemoteException | InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RemoteException("Request failed: " + e.getMessage(), e);
+        }
+    }
+
+    private static int slot(ConsistencyLevel level) {
+        return level == null ? 0 : level.ordinal() + 1;
+    }
+
+    /**
+     * Checks whether a string is null or consists only of whitespace, without allocating.
+     * Callers then trim with {@link String#trim()}, which returns the same instance when there is
+     * no surrounding whitespace, so the common case of an already clean key copies nothing.
+     *
+     * @param s The string to check.
+     * @return true if the string is null, empty or whitespace only.
+     */
+    private static boolean isBlank(String s) {
+        if (s == null) {
+            return true;
+        }
+        for (int i = 0, n = s.length(); i < n; i++) {
+            if (s.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Releases export snapshots and uploads whose clients have gone away, so an interrupted
+     * transfer does not pin memory forever.
+     */
+    private void expireIdleSessions() {
+        long now = System.currentTimeMillis();
+        snapshots.entrySet().removeIf(e -> {
+            if (now - e.getValue().lastAccessMillis > SESSION_IDLE_TIMEOUT_MILLIS) {
+                e.getValue().view.close();
+                return true;
+            }
+            return false;
+        });
+        uploads.entrySet().removeIf(e -> now - e.getValue().lastAccessMillis > SESSION_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * An open export snapshot: the store snapshot, its keys in export order, and the last time a
+     * client read from it.
+     */
+    private static class ExportSnapshot {
+        private final Snapshot view;
+        private final List<ByteKey> keys;
+        private volatile long lastAccessMillis;
+
+        private ExportSnapshot(Snapshot view, List<ByteKey> keys) {
+            this.view = view;
+            this.keys = keys;
+            this.lastAccessMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * A chunked upload in progress: the chunks received so far and the last time a chunk arrived.
+     */
+    private static class PendingUpload {
+        private final String key;
+        private final List<byte[]> chunks = new ArrayList<>();
+        private long length;
+        private volatile long lastAccessMillis;
+
+        private PendingUpload(String key) {
+            this.key = key;
+            this.lastAccessMillis = System.currentTimeMillis();
+        }
+    }
 }
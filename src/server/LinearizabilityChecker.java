@@ -0,0 +1,377 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Checks recorded histories of get, put and delete operations for linearizability: whether every
+ * operation can be placed at one instant between its call and its return, such that in that order
+ * each get returns the value of the latest put, and each delete finds the key exactly when a put
+ * came after the previous delete.
+ * <p>
+ * A key-value store is a set of independent registers, and a history is linearizable exactly when
+ * the history of every key is, so each key is checked on its own. Each key is searched in the way
+ * of Wing and Gong with Lowe's memoization, as Knossos and Porcupine do. The search goes depth
+ * first over which pending operation takes effect next. It backtracks once an operation returns
+ * before it could be placed, and skips a set of placed operations and register value that it
+ * has already explored.
+ * <p>
+ * Histories can be written to and read back from a text file, one operation per line, so that a
+ * failing check can be repeated exactly. Keys and values must not contain whitespace.
+ */
+public class LinearizabilityChecker {
+
+    /**
+     * The kinds of operation the checker understands.
+     */
+    public enum Kind { GET, PUT, DELETE }
+
+    /**
+     * The outcome of a check.
+     */
+    public enum Outcome { LINEARIZABLE, NOT_LINEARIZABLE, UNKNOWN }
+
+    /**
+     * One completed operation of a history.
+     */
+    public static class Operation {
+        final int client;
+        final Kind kind;
+        final String key;
+        final String value;
+        final boolean found;
+        final long call;
+        final long ret;
+
+        /**
+         * Constructs an Operation.
+         *
+         * @param client The client that issued it; operations of one client do not overlap.
+         * @param kind The kind of operation.
+         * @param key The key.
+         * @param value The value written by a put or returned by a get, null if a get found nothing.
+         * @param found Whether a delete found the key; ignored for other kinds.
+         * @param call The time the operation was called, in nanoseconds.
+         * @param ret The time it returned, in nanoseconds.
+         */
+        public Operation(int client, Kind kind, String key, String value, boolean found, long call, long ret) {
+            if (ret < call) {
+                throw new IllegalArgumentException("An operation cannot return before it is called.");
+            }
+            this.client = client;
+            this.kind = kind;
+            this.key = key;
+            this.value = value;
+            this.found = found;
+            this.call = call;
+            this.ret = ret;
+        }
+
+        @Override
+        public String toString() {
+            String result;
+            switch (kind) {
+                case GET: result = "GET -> " + (value == null ? "not found" : value); break;
+                case PUT: result = "PUT " + value; break;
+                default: result = "DELETE -> " + (found ? "deleted" : "not found"); break;
+            }
+            return String.format("client %d: %s [%,d ns .. %,d ns]", client, result, call, ret);
+        }
+    }
+
+    /**
+     * The result of a check.
+     */
+    public static class Result {
+        private final Outcome outcome;
+        private final String key;
+        private final List<Operation> operations;
+        private final String explanation;
+
+        private Result(Outcome outcome, String key, List<Operation> operations, String explanation) {
+            this.outcome = outcome;
+            this.key = key;
+            this.operations = operations;
+            this.explanation = explanation;
+        }
+
+        /**
+         * Gets the outcome.
+         *
+         * @return The outcome.
+         */
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * Gets the key whose history is not linearizable or could not be decided.
+         *
+         * @return The key, or null if the history is linearizable.
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Gets the history of that key.
+         *
+         * @return The operations on the key, or an empty list if the history is linearizable.
+         */
+        public List<Operation> getOperations() {
+            return operations;
+        }
+
+        /**
+         * Explains the outcome. For a violation, this gives how far the longest linearization got and
+         * the operations that could not come next.
+         *
+         * @return The explanation.
+         */
+        public String getExplanation() {
+            return explanation;
+        }
+    }
+
+    /**
+     * A call or return event in the linked list the search works on.
+     */
+    private static class Entry {
+        final Operation op;
+        final int id;
+        final boolean call;
+        Entry match;
+        Entry prev;
+        Entry next;
+
+        Entry(Operation op, int id, boolean call) {
+            this.op = op;
+            this.id = id;
+            this.call = call;
+        }
+    }
+
+    private LinearizabilityChecker() {
+    }
+
+    /**
+     * Checks a history, key by key, starting from an empty store.
+     *
+     * @param history The completed operations, in any order.
+     * @param maxStepsPerKey How many search steps to spend on a key before giving up with {@link Outcome#UNKNOWN}.
+     * @return The first violation found, otherwise UNKNOWN if a key could not be decided, otherwise LINEARIZABLE.
+     */
+    public static Result check(List<Operation> history, long maxStepsPerKey) {
+        Map<String, List<Operation>> byKey = new TreeMap<>();
+        for (Operation op : history) {
+            byKey.computeIfAbsent(op.key, k -> new ArrayList<>()).add(op);
+        }
+        Result undecided = null;
+        for (Map.Entry<String, List<Operation>> entry : byKey.entrySet()) {
+            Result result = checkKey(entry.getKey(), entry.getValue(), maxStepsPerKey);
+            if (result.outcome == Outcome.NOT_LINEARIZABLE) {
+                return result;
+            }
+            if (result.outcome == Outcome.UNKNOWN && undecided == null) {
+                undecided = result;
+            }
+        }
+        if (undecided != null) {
+            return undecided;
+        }
+        return new Result(Outcome.LINEARIZABLE, null, new ArrayList<>(),
+                String.format("%d operations on %d keys are linearizable.", history.size(), byKey.size()));
+    }
+
+    private static Result checkKey(String key, List<Operation> ops, long maxSteps) {
+        Entry head = link(ops);
+        BitSet linearized = new BitSet(ops.size());
+        Map<BitSet, Set<String>> explored = new HashMap<>();
+        List<Entry> placed = new ArrayList<>();
+        List<String> priorStates = new ArrayList<>();
+        String state = null;
+        BitSet longest = new BitSet();
+        String longestState = null;
+        long steps = 0;
+        Entry entry = head.next;
+        while (head.next != null) {
+            if (++steps > maxSteps) {
+                return new Result(Outcome.UNKNOWN, key, ops, String.format(
+                        "Key=%s: gave up after %,d search steps over %d operations.", key, maxSteps, ops.size()));
+            }
+            if (entry.call) {
+                if (accepts(entry.op, state)) {
+                    String next = entry.op.kind == Kind.PUT ? entry.op.value : entry.op.kind == Kind.GET ? state : null;
+                    BitSet candidate = (BitSet) linearized.clone();
+                    candidate.set(entry.id);
+                    if (explored.computeIfAbsent(candidate, b -> new HashSet<>()).add(next)) {
+                        placed.add(entry);
+                        priorStates.add(state);
+                        state = next;
+                        linearized = candidate;
+                        lift(entry);
+                        if (placed.size() > longest.cardinality()) {
+                            longest = candidate;
+                            longestState = state;
+                        }
+                        entry = head.next;
+                        continue;
+                    }
+                }
+                entry = entry.next;
+            } else {
+                // An operation returned before it could be placed: undo the latest placement
+                if (placed.isEmpty()) {
+                    return new Result(Outcome.NOT_LINEARIZABLE, key, ops, explain(key, ops, longest, longestState));
+                }
+                Entry last = placed.remove(placed.size() - 1);
+                state = priorStates.remove(priorStates.size() - 1);
+                linearized = (BitSet) linearized.clone();
+                linearized.clear(last.id);
+                unlift(last);
+                entry = last.next;
+            }
+        }
+        return new Result(Outcome.LINEARIZABLE, null, new ArrayList<>(), String.format(
+                "Key=%s: %d operations are linearizable.", key, ops.size()));
+    }
+
+    private static boolean accepts(Operation op, String state) {
+        switch (op.kind) {
+            case GET: return Objects.equals(op.value, state);
+            case DELETE: return op.found == (state != null);
+            default: return true;
+        }
+    }
+
+    /**
+     * Builds the list of call and return events in time order, calls first on ties, behind a sentinel head.
+     */
+    private static Entry link(List<Operation> ops) {
+        List<Entry> events = new ArrayList<>(ops.size() * 2);
+        for (int i = 0; i < ops.size(); i++) {
+            Entry call = new Entry(ops.get(i), i, true);
+            Entry ret = new Entry(ops.get(i), i, false);
+            call.match = ret;
+            events.add(call);
+            events.add(ret);
+        }
+        events.sort(Comparator.<Entry>comparingLong(e -> e.call ? e.op.call : e.op.ret).thenComparing(e -> !e.call));
+        Entry head = new Entry(null, -1, false);
+        Entry tail = head;
+        for (Entry event : events) {
+            tail.next = event;
+            event.prev = tail;
+            tail = event;
+        }
+        return head;
+    }
+
+    private static void lift(Entry call) {
+        call.prev.next = call.next;
+        call.next.prev = call.prev;
+        Entry ret = call.match;
+        ret.prev.next = ret.next;
+        if (ret.next != null) {
+            ret.next.prev = ret.prev;
+        }
+    }
+
+    private static void unlift(Entry call) {
+        Entry ret = call.match;
+        ret.prev.next = ret;
+        if (ret.next != null) {
+            ret.next.prev = ret;
+        }
+        call.prev.next = call;
+        call.next.prev = call;
+    }
+
+    private static String explain(String key, List<Operation> ops, BitSet longest, String value) {
+        List<Operation> remaining = new ArrayList<>();
+        long firstReturn = Long.MAX_VALUE;
+        for (int i = 0; i < ops.size(); i++) {
+            if (!longest.get(i)) {
+                remaining.add(ops.get(i));
+                firstReturn = Math.min(firstReturn, ops.get(i).ret);
+            }
+        }
+        remaining.sort(Comparator.comparingLong(op -> op.call));
+        StringBuilder sb = new StringBuilder(String.format(
+                "Key=%s is not linearizable: at most %d of %d operations can be ordered, leaving the value %s. "
+                        + "None of these operations can come next:", key, longest.cardinality(), ops.size(),
+                value == null ? "absent" : value));
+        for (Operation op : remaining) {
+            // Only operations called before the first remaining one returns could have come next
+            if (op.call <= firstReturn) {
+                sb.append(System.lineSeparator()).append("  ").append(op);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes a history to a file, one operation per line.
+     *
+     * @param path The file to write.
+     * @param history The operations.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(Path path, List<Operation> history) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (Operation op : history) {
+                writer.write(String.format("%d %s %s %s %b %d %d", op.client, op.kind, op.key,
+                        op.value == null ? "-" : op.value, op.found, op.call, op.ret));
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Reads a history written by {@link #write(Path, List)}.
+     *
+     * @param path The file to read.
+     * @return The operations.
+     * @throws IOException If the file cannot be read.
+     * @throws IllegalArgumentException If a line is malformed.
+     */
+    public static List<Operation> read(Path path) throws IOException {
+        List<Operation> history = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length != 7) {
+                    throw new IllegalArgumentException(String.format("Line %d of %s must have 7 fields: %s", number, path, line));
+                }
+                try {
+                    history.add(new Operation(Integer.parseInt(fields[0]), Kind.valueOf(fields[1]), fields[2],
+                            fields[3].equals("-") ? null : fields[3], Boolean.parseBoolean(fields[4]),
+                            Long.parseLong(fields[5]), Long.parseLong(fields[6])));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(String.format("Line %d of %s is malformed: %s", number, path, line));
+                }
+            }
+        }
+        return history;
+    }
+}
@@ -0,0 +1,912 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Keeps entries in a log-structured merge tree, so a namespace can hold more data than fits in
+ * the heap. Writes go to a {@link WriteAheadLog} and a sorted in-memory memtable. Once the memtable
+ * reaches {@code memtableBytes}, it is frozen and a background thread writes it to an immutable
+ * {@link SegmentFile}; writes continue into a fresh memtable meanwhile, and only stall if a second
+ * memtable fills up before the first is written. Lookups check the memtables, then the segments
+ * from newest to oldest. Each segment's {@link BloomFilter} lets lookups of keys it does not hold
+ * skip it without a disk read, and its sparse index narrows the rest to one block, which the
+ * shared {@link BlockCache} keeps in memory when it is hot.
+ * <p>
+ * A separate compaction thread merges runs of segments of similar size (size-tiered compaction)
+ * once {@code compactionTrigger} of them exist, keeping the newest value of each key and dropping
+ * deleted keys when the run reaches the oldest segment. A MANIFEST file records the live segments
+ * and the highest change sequence, and is replaced atomically whenever the segments change; on
+ * startup, changes still in write-ahead logs, whose removals log their sequence, are replayed and flushed.
+ * <p>
+ * The store's mutex serializes writes. Lookups take a read lock for the lookup only, and flushes
+ * and compactions hold the write lock just long enough to swap segments in and out. Scans pin
+ * the segments they read instead of holding the lock, so they never hold up writers. Counters for the
+ * amplification of reads and writes are reported by {@link #stats()}.
+ * <p>
+ * Writes only look for the previous value in the memtables, so they never read from disk. The keys
+ * a memtable wrote without finding one are looked up in the segments when it is flushed, which
+ * corrects the key count and reports the values they replaced to the store's listener.
+ */
+public class LsmEngine implements StorageEngine {
+
+    // Marks a removed key in memtables, logs and segments; compared by identity.
+    static final StoredValue TOMBSTONE = new StoredValue(new byte[0], -1);
+
+    // Header of the MANIFEST file: "KVM2".
+    private static final int MANIFEST_MAGIC = 0x4B564D32;
+    // Header of manifests written before the change sequence was recorded: "KVMF".
+    private static final int MANIFEST_MAGIC_V1 = 0x4B564D46;
+    private static final int BLOCK_SIZE = 4096;
+    // Approximate per-entry overhead of a skip list node, counted towards the memtable size.
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final Path dir;
+    private final String name;
+    private final long memtableBytes;
+    private final int compactionTrigger;
+    private final BlockCache cache;
+    private final StoreStats stats = new StoreStats();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Condition flushed = lock.writeLock().newCondition();
+    private final ExecutorService flushExecutor;
+    private final ExecutorService compactionExecutor;
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final Object manifestLock = new Object();
+
+    private volatile ConcurrentSkipListMap<ByteKey, StoredValue> memtable = new ConcurrentSkipListMap<>();
+    private volatile Frozen immutable;
+    private volatile List<SegmentFile> segments = Collections.emptyList();
+    private WriteAheadLog wal;
+    private long memtableSize;
+    private long nextFileId = 1;
+    private final AtomicLong liveCount = new AtomicLong();
+    // Change in the key count made by the memtable, and the keys it wrote without knowing their previous value
+    private long memtableDelta;
+    private Set<ByteKey> unresolved = new HashSet<>();
+    private volatile Consumer<StoredValue> replacedListener = value -> {
+    };
+    private long persistedCount;
+    private volatile IOException backgroundFailure;
+    private volatile boolean closing;
+    // Highest change sequence written, recorded in the manifest since tombstones do not carry one
+    private volatile long sequence;
+    // Set while a group of writes runs, whose log records are written out together at its end
+    private boolean grouping;
+
+    /**
+     * A memtable that is being written to a segment, with the log that covers it and the keys
+     * whose previous value is yet to be looked up.
+     */
+    private static class Frozen {
+        final ConcurrentSkipListMap<ByteKey, StoredValue> map;
+        final Path walPath;
+        final long segmentId;
+        final long countDelta;
+        final Set<ByteKey> unresolved;
+
+        Frozen(ConcurrentSkipListMap<ByteKey, StoredValue> map, Path walPath, long segmentId, long countDelta,
+                Set<ByteKey> unresolved) {
+            this.map = map;
+            this.walPath = walPath;
+            this.segmentId = segmentId;
+            this.countDelta = countDelta;
+            this.unresolved = unresolved;
+        }
+    }
+
+    /**
+     * Constructs an LsmEngine, opening the segments in its directory and replaying any changes
+     * left in write-ahead logs by a crash.
+     *
+     * @param dir The directory holding the engine's files; created if it does not exist.
+     * @param name The namespace name, used to name the background threads.
+     * @param memtableBytes The memtable size at which it is flushed to a segment.
+     * @param blockCacheBytes The capacity of the block cache, or 0 to disable it.
+     * @param compactionTrigger The number of similar-sized segments that are merged into one.
+     * @throws IOException If existing files cannot be read.
+     * @throws IllegalArgumentException If a size is not positive or the trigger is below 2.
+     */
+    public LsmEngine(Path dir, String name, long memtableBytes, long blockCacheBytes, int compactionTrigger) throws IOException {
+        if (memtableBytes <= 0) {
+            throw new IllegalArgumentException("Memtable size must be a positive number.");
+        }
+        if (compactionTrigger < 2) {
+            throw new IllegalArgumentException("Compaction trigger must be at least 2.");
+        }
+        this.dir = dir;
+        this.name = name;
+        this.memtableBytes = memtableBytes;
+        this.compactionTrigger = compactionTrigger;
+        this.cache = new BlockCache(blockCacheBytes);
+        this.flushExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "lsm-flush-" + name);
+            t.setDaemon(true);
+            return t;
+        });
+        this.compactionExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "lsm-compaction-" + name);
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            recover();
+        } catch (IOException | RuntimeException e) {
+            flushExecutor.shutdownNow();
+            compactionExecutor.shutdownNow();
+            for (SegmentFile segment : segments) {
+                segment.release();
+            }
+            throw e;
+        }
+        maybeCompact();
+    }
+
+    @Override
+    public StoredValue get(ByteKey key) {
+        stats.increment("lsm.gets");
+        StoredValue value;
+        lock.readLock().lock();
+        try {
+            value = find(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return value == TOMBSTONE ? null : value;
+    }
+
+    /**
+     * Inserts or replaces the value of a key. The previous value is only looked for in the
+     * memtables; if it is not there, the key is counted as new and looked up in the segments when
+     * the memtable is flushed. The key count is only updated once the write has been logged.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @return The previous value, or null if the key was not present or not in a memtable.
+     */
+    @Override
+    public StoredValue put(ByteKey key, StoredValue value) {
+        StoredValue previous = findInMemory(key);
+        write(key, value, value.getVersion());
+        if (previous == null || previous == TOMBSTONE) {
+            if (previous == null) {
+                unresolved.add(key);
+            }
+            memtableDelta++;
+            liveCount.incrementAndGet();
+            previous = null;
+        }
+        stats.add("lsm.userBytes", key.length() + value.getStoredSize());
+        return previous;
+    }
+
+    /**
+     * Removes a key the caller has found present, without looking it up in the segments.
+     *
+     * @param key The key.
+     * @param sequence The change sequence of the removal.
+     * @return The removed value if it was in a memtable, otherwise null.
+     */
+    @Override
+    public StoredValue remove(ByteKey key, long sequence) {
+        StoredValue previous = findInMemory(key);
+        if (previous == TOMBSTONE) {
+            return null;
+        }
+        write(key, TOMBSTONE, sequence);
+        memtableDelta--;
+        liveCount.decrementAndGet();
+        stats.add("lsm.userBytes", key.length());
+        return previous;
+    }
+
+    @Override
+    public void setReplacedListener(Consumer<StoredValue> listener) {
+        replacedListener = listener;
+    }
+
+    @Override
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, liveCount.get());
+    }
+
+    /**
+     * Visits every entry in key order. The read lock is only held while the memtables and
+     * segments to scan are captured; the segments are pinned for the rest of the scan, so flushes,
+     * compactions and writes carry on while it runs.
+     *
+     * @param visitor The callback receiving each key and value.
+     */
+    @Override
+    public void forEach(BiConsumer<ByteKey, StoredValue> visitor) {
+        List<Iterator<Map.Entry<ByteKey, StoredValue>>> sources = new ArrayList<>();
+        List<SegmentFile> pinned = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            sources.add(memtable.entrySet().iterator());
+            Frozen frozen = immutable;
+            if (frozen != null) {
+                sources.add(frozen.map.entrySet().iterator());
+            }
+            for (SegmentFile segment : segments) {
+                // Segments in the list hold the engine's reference, so pinning them cannot fail
+                segment.retain();
+                pinned.add(segment);
+                sources.add(segment.iterator());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        try {
+            Iterator<Map.Entry<ByteKey, StoredValue>> merged = new MergingIterator(sources, true);
+            while (merged.hasNext()) {
+                Map.Entry<ByteKey, StoredValue> entry = merged.next();
+                visitor.accept(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            for (SegmentFile segment : pinned) {
+                try {
+                    segment.release();
+                } catch (IOException e) {
+                    ServerLogger.error(String.format("Cannot release segment %s: %s", segment.getPath(), e.getMessage()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a group of writes, and writes their log records out to the operating system together
+     * once the last one has been appended (group commit).
+     *
+     * @param writes The code making the writes.
+     * @throws UncheckedIOException If the log records cannot be written.
+     */
+    @Override
+    public void writeGroup(Runnable writes) {
+        grouping = true;
+        try {
+            writes.run();
+        } finally {
+            grouping = false;
+            try {
+                wal.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(String.format("Cannot write to the log of %s.", dir), e);
+            }
+        }
+    }
+
+    /**
+     * Forces the write-ahead log to disk, so every change so far survives a crash.
+     *
+     * @throws IOException If the log cannot be synced.
+     */
+    @Override
+    public void flush() throws IOException {
+        checkFailure();
+        wal.sync();
+    }
+
+    /**
+     * Stops compaction, writes the memtable to a segment and closes every file, so the next
+     * start has no log to replay.
+     *
+     * @throws IOException If the memtable cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        closing = true;
+        lock.writeLock().lock();
+        try {
+            while (immutable != null && backgroundFailure == null) {
+                flushed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        flushExecutor.shutdown();
+        compactionExecutor.shutdown();
+        awaitTermination(compactionExecutor);
+        checkFailure();
+        wal.close();
+        if (!memtable.isEmpty()) {
+            long replaced = reconcile(unresolved);
+            long id = nextFileId++;
+            addFlushedSegment(SegmentFile.write(segmentPath(id), id, memtable.entrySet().iterator(), memtable.size(), BLOCK_SIZE,
+                    cache, stats), memtableDelta - replaced);
+            memtable = new ConcurrentSkipListMap<>();
+        }
+        Files.deleteIfExists(wal.getPath());
+        for (SegmentFile segment : segments) {
+            segment.release();
+        }
+        ServerLogger.info(String.format("Closed LSM engine %s with %d segments.", dir, segments.size()));
+    }
+
+    /**
+     * Takes a copy of the engine counters: bytes written by the log, flushes and compactions,
+     * bytes the caller asked to write, blocks read from disk by lookups, lookups answered by the
+     * Bloom filters, block cache hits, and the current segment count and sizes.
+     *
+     * @return A map from counter name to value.
+     */
+    @Override
+    public Map<String, Long> stats() {
+        Map<String, Long> copy = stats.toMap();
+        cache.report(copy);
+        List<SegmentFile> current = segments;
+        long diskBytes = 0;
+        long indexBytes = 0;
+        for (SegmentFile segment : current) {
+            diskBytes += segment.getFileSize();
+            indexBytes += segment.getMemorySize();
+        }
+        copy.put("lsm.segments", (long) current.size());
+        copy.put("lsm.diskBytes", diskBytes);
+        copy.put("lsm.indexBytes", indexBytes);
+        copy.put("lsm.memtableBytes", memtableSize);
+        return copy;
+    }
+
+    /**
+     * Looks a key up in the memtables and segments, newest first. Must be called while holding the read lock.
+     */
+    private StoredValue find(ByteKey key) {
+        StoredValue value = memtable.get(key);
+        if (value != null) {
+            return value;
+        }
+        Frozen frozen = immutable;
+        if (frozen != null) {
+            value = frozen.map.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return findInSegments(key);
+    }
+
+    /**
+     * Looks a key up in the memtables only, so that writes never read from disk.
+     */
+    private StoredValue findInMemory(ByteKey key) {
+        StoredValue value = memtable.get(key);
+        if (value != null) {
+            return value;
+        }
+        lock.readLock().lock();
+        try {
+            Frozen frozen = immutable;
+            return frozen == null ? null : frozen.map.get(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Looks a key up in the segments, newest first. Must be called while holding the read lock.
+     */
+    private StoredValue findInSegments(ByteKey key) {
+        StoredValue value;
+        for (SegmentFile segment : segments) {
+            value = segment.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Logs a change and applies it to the memtable, freezing the memtable first if earlier writes
+     * filled it. Nothing is applied unless the change has been logged, so a write that fails
+     * leaves the memtable as it was.
+     */
+    private void write(ByteKey key, StoredValue value, long sequence) {
+        if (memtableSize >= memtableBytes) {
+            try {
+                rotate();
+            } catch (IOException e) {
+                throw new UncheckedIOException(String.format("Cannot start a new log in %s.", dir), e);
+            }
+        }
+        try {
+            checkFailure();
+            wal.append(key, value, sequence, !grouping);
+            this.sequence = Math.max(this.sequence, sequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Cannot write to the log of %s.", dir), e);
+        }
+        memtable.put(key, value);
+        memtableSize += key.length() + value.getStoredSize() + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Freezes the memtable and hands it to the flush thread, waiting first if the previous one
+     * is still being written.
+     */
+    private void rotate() throws IOException {
+        WriteAheadLog previousWal;
+        lock.writeLock().lock();
+        try {
+            if (immutable != null) {
+                stats.increment("lsm.writeStalls");
+                while (immutable != null && backgroundFailure == null) {
+                    flushed.awaitUninterruptibly();
+                }
+            }
+            checkFailure();
+            previousWal = wal;
+            long segmentId = nextFileId++;
+            WriteAheadLog next = new WriteAheadLog(walPath(nextFileId++), stats);
+            immutable = new Frozen(memtable, wal.getPath(), segmentId, memtableDelta, unresolved);
+            wal = next;
+            memtable = new ConcurrentSkipListMap<>();
+            memtableSize = 0;
+            memtableDelta = 0;
+            unresolved = new HashSet<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        previousWal.close();
+        flushExecutor.execute(this::flushImmutable);
+    }
+
+    /**
+     * Writes the frozen memtable to a segment. Runs on the flush thread.
+     */
+    private void flushImmutable() {
+        Frozen frozen = immutable;
+        try {
+            long replaced = reconcile(frozen.unresolved);
+            SegmentFile segment = SegmentFile.write(segmentPath(frozen.segmentId), frozen.segmentId, frozen.map.entrySet().iterator(),
+                    frozen.map.size(), BLOCK_SIZE, cache, stats);
+            addFlushedSegment(segment, frozen.countDelta - replaced);
+            Files.deleteIfExists(frozen.walPath);
+            ServerLogger.info(String.format("Flushed %d entries of %s to segment %d (%d bytes).", segment.getEntryCount(), name,
+                    segment.getId(), segment.getFileSize()));
+        } catch (IOException | UncheckedIOException e) {
+            ServerLogger.error(String.format("Cannot flush the memtable of %s: %s", name, e.getMessage()));
+            lock.writeLock().lock();
+            try {
+                backgroundFailure = e instanceof IOException ? (IOException) e : ((UncheckedIOException) e).getCause();
+                flushed.signalAll();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return;
+        }
+        maybeCompact();
+    }
+
+    /**
+     * Looks up, in the segments, the keys a memtable wrote without finding their previous value in
+     * memory. Each one that replaced a value there was counted as new, so the key count is
+     * corrected, and the replaced value is handed to the listener. Runs before the memtable's
+     * segment is installed, while the segments hold everything older than it.
+     *
+     * @return The number of keys that replaced a value.
+     */
+    private long reconcile(Set<ByteKey> keys) {
+        long replaced = 0;
+        Consumer<StoredValue> listener = replacedListener;
+        for (ByteKey key : keys) {
+            StoredValue previous;
+            lock.readLock().lock();
+            try {
+                previous = findInSegments(key);
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (previous != null && previous != TOMBSTONE) {
+                listener.accept(previous);
+                replaced++;
+            }
+        }
+        liveCount.addAndGet(-replaced);
+        stats.add("lsm.flushLookups", keys.size());
+        return replaced;
+    }
+
+    /**
+     * Installs a segment written from a memtable as the newest one and records it in the manifest.
+     *
+     * @param countDelta The change the memtable made to the number of keys in the segments.
+     */
+    private void addFlushedSegment(SegmentFile segment, long countDelta) throws IOException {
+        lock.writeLock().lock();
+        try {
+            List<SegmentFile> updated = new ArrayList<>(segments.size() + 1);
+            updated.add(segment);
+            updated.addAll(segments);
+            segments = Collections.unmodifiableList(updated);
+            immutable = null;
+            persistedCount += countDelta;
+            flushed.signalAll();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        stats.increment("lsm.flushes");
+        writeManifest();
+    }
+
+    private void maybeCompact() {
+        if (!closing && segments.size() >= compactionTrigger && compactionScheduled.compareAndSet(false, true)) {
+            try {
+                compactionExecutor.execute(this::compact);
+            } catch (RejectedExecutionException e) {
+                compactionScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Merges runs of similar-sized segments until none is left. Runs on the compaction thread.
+     */
+    private void compact() {
+        try {
+            List<SegmentFile> current;
+            int[] run;
+            while (!closing && (run = pickRun(current = segments)) != null) {
+                compactRun(current, run[0], run[1]);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            ServerLogger.error(String.format("Compaction of %s failed: %s", name, e.getMessage()));
+        } finally {
+            compactionScheduled.set(false);
+        }
+    }
+
+    /**
+     * Picks the newest run of at least {@code compactionTrigger} adjacent segments whose sizes are
+     * within a factor of two of each other. If there is none but segments keep piling up, picks
+     * the newest {@code compactionTrigger} segments so lookups do not have to probe too many files.
+     *
+     * @return The start and end (exclusive) of the run, or null if nothing needs compacting.
+     */
+    private int[] pickRun(List<SegmentFile> current) {
+        int n = current.size();
+        if (n < compactionTrigger) {
+            return null;
+        }
+        for (int start = 0; start + compactionTrigger <= n; start++) {
+            long min = current.get(start).getFileSize();
+            long max = min;
+            int end = start + 1;
+            while (end < n) {
+                long size = current.get(end).getFileSize();
+                if (size > 2 * min || 2 * size < max) {
+                    break;
+                }
+                min = Math.min(min, size);
+                max = Math.max(max, size);
+                end++;
+            }
+            if (end - start >= compactionTrigger) {
+                return new int[]{start, end};
+            }
+        }
+        return n >= 2 * compactionTrigger ? new int[]{0, compactionTrigger} : null;
+    }
+
+    /**
+     * Merges segments [start, end) of a list into one segment and swaps it in for them.
+     */
+    private void compactRun(List<SegmentFile> current, int start, int end) throws IOException {
+        List<SegmentFile> inputs = new ArrayList<>(current.subList(start, end));
+        // Only a run reaching the oldest segment may drop tombstones: nothing older is left for them to shadow
+        boolean bottom = end == current.size();
+        List<Iterator<Map.Entry<ByteKey, StoredValue>>> sources = new ArrayList<>();
+        long expected = 0;
+        long bytesIn = 0;
+        for (SegmentFile input : inputs) {
+            sources.add(input.iterator());
+            expected += input.getEntryCount();
+            bytesIn += input.getFileSize();
+        }
+        long id;
+        lock.writeLock().lock();
+        try {
+            id = nextFileId++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        long startNanos = System.nanoTime();
+        SegmentFile output = SegmentFile.write(segmentPath(id), id, new MergingIterator(sources, bottom), expected, BLOCK_SIZE,
+                cache, stats);
+        lock.writeLock().lock();
+        try {
+            List<SegmentFile> updated = new ArrayList<>(segments);
+            int at = updated.indexOf(inputs.get(0));
+            updated.subList(at, at + inputs.size()).clear();
+            if (output.getEntryCount() > 0) {
+                updated.add(at, output);
+            }
+            segments = Collections.unmodifiableList(updated);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        writeManifest();
+        if (output.getEntryCount() == 0) {
+            output.markObsolete();
+            output.release();
+        }
+        for (SegmentFile input : inputs) {
+            input.markObsolete();
+            input.release();
+        }
+        stats.increment("lsm.compactions");
+        stats.add("lsm.compactionBytesIn", bytesIn);
+        stats.add("lsm.compactionBytesOut", output.getFileSize());
+        ServerLogger.info(String.format("Compacted %d segments of %s (%d bytes) into segment %d (%d bytes) in %.1f ms.",
+                inputs.size(), name, bytesIn, id, output.getFileSize(), (System.nanoTime() - startNanos) / 1e6));
+    }
+
+    /**
+     * Opens the segments listed in the manifest, removes files a crash left behind, and replays
+     * and flushes the write-ahead logs.
+     */
+    private void recover() throws IOException {
+        Files.createDirectories(dir);
+        List<Long> ids = new ArrayList<>();
+        Path manifest = dir.resolve("MANIFEST");
+        if (Files.exists(manifest)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifest)))) {
+                int magic = in.readInt();
+                if (magic != MANIFEST_MAGIC && magic != MANIFEST_MAGIC_V1) {
+                    throw new IOException(String.format("File %s is not a store manifest.", manifest));
+                }
+                // Older manifests leave the store to find the sequence among the values
+                sequence = magic == MANIFEST_MAGIC ? in.readLong() : 0;
+                nextFileId = in.readLong();
+                persistedCount = in.readLong();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    ids.add(in.readLong());
+                }
+            }
+        }
+        List<SegmentFile> opened = new ArrayList<>();
+        for (long id : ids) {
+            opened.add(SegmentFile.open(segmentPath(id), id, cache, stats));
+        }
+        segments = Collections.unmodifiableList(opened);
+        liveCount.set(persistedCount);
+
+        Set<Long> live = new HashSet<>(ids);
+        TreeMap<Long, Path> logs = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                long id = fileId(fileName);
+                nextFileId = Math.max(nextFileId, id + 1);
+                if (fileName.startsWith("wal-") && fileName.endsWith(".log")) {
+                    logs.put(id, file);
+                } else if (fileName.endsWith(".tmp") || (fileName.startsWith("seg-") && !live.contains(id))) {
+                    // Output of a flush or compaction that did not make it into the manifest
+                    Files.delete(file);
+                }
+            }
+        }
+        int replayed = 0;
+        for (Path log : logs.values()) {
+            replayed += WriteAheadLog.replay(log, (key, value) -> {
+                boolean existed = get(key) != null;
+                memtable.put(key, value);
+                if (value == TOMBSTONE && existed) {
+                    liveCount.decrementAndGet();
+                } else if (value != TOMBSTONE && !existed) {
+                    liveCount.incrementAndGet();
+                }
+            }, logged -> sequence = Math.max(sequence, logged));
+        }
+        if (!memtable.isEmpty()) {
+            long id = nextFileId++;
+            addFlushedSegment(SegmentFile.write(segmentPath(id), id, memtable.entrySet().iterator(), memtable.size(), BLOCK_SIZE,
+                    cache, stats), liveCount.get() - persistedCount);
+            memtable = new ConcurrentSkipListMap<>();
+            ServerLogger.info(String.format("Replayed %d logged changes into segment %d of %s.", replayed, id, name));
+        }
+        for (Path log : logs.values()) {
+            Files.delete(log);
+        }
+        wal = new WriteAheadLog(walPath(nextFileId++), stats);
+        ServerLogger.info(String.format("Opened LSM engine %s with %d segments and %d pairs.", dir, segments.size(), liveCount.get()));
+    }
+
+    /**
+     * Replaces the manifest with the current segment list. Writers take turns, and each writes
+     * the state current when its turn comes, so the last manifest written is always the latest.
+     */
+    private void writeManifest() throws IOException {
+        synchronized (manifestLock) {
+            List<SegmentFile> current;
+            long nextId;
+            long count;
+            long highest;
+            lock.readLock().lock();
+            try {
+                current = segments;
+                nextId = nextFileId;
+                count = persistedCount;
+                // Read after the segments, so it covers every change they hold
+                highest = sequence;
+            } finally {
+                lock.readLock().unlock();
+            }
+            Path manifest = dir.resolve("MANIFEST");
+            Path tmp = dir.resolve("MANIFEST.tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MANIFEST_MAGIC);
+                out.writeLong(highest);
+                out.writeLong(nextId);
+                out.writeLong(count);
+                out.writeInt(current.size());
+                for (SegmentFile segment : current) {
+                    out.writeLong(segment.getId());
+                }
+            }
+            Files.move(tmp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        IOException failure = backgroundFailure;
+        if (failure != null) {
+            throw new IOException(String.format("LSM engine %s failed in the background: %s", dir, failure.getMessage()), failure);
+        }
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Path segmentPath(long id) {
+        return dir.resolve(String.format("seg-%08d.sst", id));
+    }
+
+    private Path walPath(long id) {
+        return dir.resolve(String.format("wal-%08d.log", id));
+    }
+
+    /**
+     * Parses the id out of a file name such as {@code seg-00000012.sst}, or returns 0 for other files.
+     */
+    private static long fileId(String fileName) {
+        int dash = fileName.indexOf('-');
+        int dot = fileName.indexOf('.');
+        if (dash < 0 || dot < dash) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(fileName.substring(dash + 1, dot));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Merges sorted sources into one sorted sequence with one entry per key. Sources are given
+     * newest first, and for a key present in several sources the newest entry wins.
+     */
+    static class MergingIterator implements Iterator<Map.Entry<ByteKey, StoredValue>> {
+
+        private final PriorityQueue<Source> heap;
+        private final boolean dropTombstones;
+        private Map.Entry<ByteKey, StoredValue> next;
+
+        private static class Source {
+            final Iterator<Map.Entry<ByteKey, StoredValue>> iterator;
+            final int rank;
+            Map.Entry<ByteKey, StoredValue> head;
+
+            Source(Iterator<Map.Entry<ByteKey, StoredValue>> iterator, int rank) {
+                this.iterator = iterator;
+                this.rank = rank;
+            }
+
+            boolean advance() {
+                head = iterator.hasNext() ? iterator.next() : null;
+                return head != null;
+            }
+        }
+
+        /**
+         * Constructs a MergingIterator.
+         *
+         * @param sources The sorted sources, newest first.
+         * @param dropTombstones Whether to leave removed keys out of the result.
+         */
+        MergingIterator(List<Iterator<Map.Entry<ByteKey, StoredValue>>> sources, boolean dropTombstones) {
+            this.heap = new PriorityQueue<>(Math.max(1, sources.size()), Comparator
+                    .<Source, ByteKey>comparing(s -> s.head.getKey())
+                    .thenComparingInt(s -> s.rank));
+            this.dropTombstones = dropTombstones;
+            for (int i = 0; i < sources.size(); i++) {
+                Source source = new Source(sources.get(i), i);
+                if (source.advance()) {
+                    heap.add(source);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !heap.isEmpty()) {
+                Source newest = heap.poll();
+                Map.Entry<ByteKey, StoredValue> entry = newest.head;
+                // Skip the older entries of the same key
+                while (!heap.isEmpty() && heap.peek().head.getKey().equals(entry.getKey())) {
+                    Source older = heap.poll();
+                    if (older.advance()) {
+                        heap.add(older);
+                    }
+                }
+                if (newest.advance()) {
+                    heap.add(newest);
+                }
+                if (!(dropTombstones && entry.getValue() == TOMBSTONE)) {
+                    next = entry;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<ByteKey, StoredValue> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<ByteKey, StoredValue> entry = next;
+            next = null;
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps the older versions of keys that open {@link Snapshot}s may still need, so that a
+ * {@link KeyValue} store can serve reads as of a past store version while writers carry on.
+ * <p>
+ * The storage engine only holds the latest value of each key, stamped with the version of the
+ * write that produced it. While any snapshot is open, every write first records a version chain
+ * for its key: the new version on top of the ones before it, down to the value the write replaced.
+ * A snapshot read walks the chain to the newest version not newer than the snapshot, and keys
+ * without a chain are read from the engine, whose value is then old enough. Writes made while no
+ * snapshot is open drop the chain of their key instead, so a store without snapshots pays nothing.
+ * <p>
+ * Chains record versions before the engine is updated, and readers check for a chain again after
+ * reading the engine, so a reader never sees a newer engine value without also finding its chain.
+ * A background thread trims each chain down to what the oldest open snapshot can see, and drops
+ * chains entirely once every snapshot sees their newest version.
+ * <p>
+ * Writes must be recorded while holding the store's mutex, and snapshots opened while holding
+ * it; reads and garbage collection take no lock.
+ */
+public class MvccIndex {
+
+    private static final long GC_INTERVAL_MILLIS = 1000;
+
+    private final StorageEngine engine;
+    private final LongSupplier lastVersion;
+    private final StoreStats stats;
+    private final ConcurrentHashMap<ByteKey, Version> chains = new ConcurrentHashMap<>();
+    private final Set<Snapshot> openSnapshots = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService collector;
+
+    /**
+     * One version of a key. Chains are linked from the newest version to older ones.
+     */
+    private static class Version {
+        final StoredValue value;
+        final long version;
+        volatile Version older;
+
+        Version(StoredValue value, long version, Version older) {
+            this.value = value;
+            this.version = version;
+            this.older = older;
+        }
+    }
+
+    /**
+     * Constructs an MvccIndex and starts its garbage collector.
+     *
+     * @param engine The engine holding the latest value of each key.
+     * @param name The namespace name, used to name the collector thread.
+     * @param lastVersion Supplies the version of the latest write applied to the engine.
+     * @param stats The store counters to add the collector's counters to.
+     */
+    public MvccIndex(StorageEngine engine, String name, LongSupplier lastVersion, StoreStats stats) {
+        this.engine = engine;
+        this.lastVersion = lastVersion;
+        this.stats = stats;
+        this.collector = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mvcc-gc-" + name);
+            t.setDaemon(true);
+            return t;
+        });
+        collector.scheduleWithFixedDelay(this::collect, GC_INTERVAL_MILLIS, GC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records a write before it is applied to the engine. Must be called while holding the store's mutex.
+     *
+     * @param key The key being written.
+     * @param value The new value, or null if the key is being removed.
+     * @param version The version of the write.
+     */
+    public void recordWrite(ByteKey key, StoredValue value, long version) {
+        if (openSnapshots.isEmpty()) {
+            // Every snapshot opened from now on sees the engine's value, so no older version is needed
+            chains.remove(key);
+            return;
+        }
+        chains.compute(key, (k, head) -> {
+            if (head == null) {
+                StoredValue replaced = engine.get(k);
+                head = new Version(replaced, replaced == null ? 0 : replaced.getVersion(), null);
+            }
+            return new Version(value, version, head);
+        });
+        stats.increment("mvcc.versionsRecorded");
+    }
+
+    /**
+     * Opens a snapshot. Must be called while holding the store's mutex, so that no write is half applied.
+     *
+     * @param version The version of the latest write, which the snapshot sees along with every earlier one.
+     * @return The snapshot; it must be closed so that the versions it pins can be collected.
+     */
+    public Snapshot open(long version) {
+        Snapshot snapshot = new Snapshot(this, version);
+        openSnapshots.add(snapshot);
+        stats.increment("mvcc.snapshotsOpened");
+        return snapshot;
+    }
+
+    /**
+     * Releases a snapshot.
+     *
+     * @param snapshot The snapshot to release.
+     */
+    void release(Snapshot snapshot) {
+        openSnapshots.remove(snapshot);
+    }
+
+    /**
+     * Reads a key as of a version.
+     *
+     * @param key The key.
+     * @param version The version of the snapshot reading the key.
+     * @return The value the key had at that version, or null if it did not exist.
+     */
+    StoredValue read(ByteKey key, long version) {
+        Version chain = chains.get(key);
+        if (chain != null) {
+            return visibleAt(chain, version);
+        }
+        StoredValue value = engine.get(key);
+        // A write that raced with the engine read recorded its chain first
+        chain = chains.get(key);
+        if (chain != null) {
+            return visibleAt(chain, version);
+        }
+        return value;
+    }
+
+    /**
+     * Lists the keys visible at a version, in ascending order. Scans the engine without holding
+     * the store's mutex, then adds the keys whose chains remember them, which covers keys that
+     * were removed from the engine during or since the scan.
+     *
+     * @param version The version of the snapshot.
+     * @return The sorted keys.
+     */
+    List<ByteKey> keys(long version) {
+        List<ByteKey> keys = new ArrayList<>();
+        engine.forEach((key, value) -> {
+            Version chain = chains.get(key);
+            if (chain != null ? visibleAt(chain, version) != null : value.getVersion() <= version) {
+                keys.add(key);
+            }
+        });
+        for (Map.Entry<ByteKey, Version> entry : chains.entrySet()) {
+            if (visibleAt(entry.getValue(), version) != null) {
+                keys.add(entry.getKey());
+            }
+        }
+        Collections.sort(keys);
+        // A key seen in both passes is listed once
+        int distinct = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            if (distinct == 0 || !keys.get(i).equals(keys.get(distinct - 1))) {
+                keys.set(distinct++, keys.get(i));
+            }
+        }
+        return new ArrayList<>(keys.subList(0, distinct));
+    }
+
+    /**
+     * Trims version chains to what the open snapshots can still see. Runs on the collector thread.
+     */
+    void collect() {
+        // Snapshots opened after this point see at least this version
+        long oldest = lastVersion.getAsLong();
+        for (Snapshot snapshot : openSnapshots) {
+            oldest = Math.min(oldest, snapshot.getVersion());
+        }
+        long trimmed = 0;
+        for (Map.Entry<ByteKey, Version> entry : chains.entrySet()) {
+            Version head = entry.getValue();
+            if (head.version <= oldest) {
+                // Every snapshot sees the newest version, which is the engine's
+                if (chains.remove(entry.getKey(), head)) {
+                    trimmed += length(head);
+                }
+                continue;
+            }
+            Version visible = head;
+            while (visible != null && visible.version > oldest) {
+                visible = visible.older;
+            }
+            if (visible != null && visible.older != null) {
+                trimmed += length(visible.older);
+                visible.older = null;
+            }
+        }
+        stats.increment("mvcc.gcRuns");
+        stats.add("mvcc.versionsCollected", trimmed);
+    }
+
+    /**
+     * Reports the number of open snapshots, keys with a version chain, and how many versions the
+     * oldest snapshot lags behind.
+     *
+     * @param report The map to add the counters to.
+     */
+    public void report(Map<String, Long> report) {
+        long latest = lastVersion.getAsLong();
+        long oldest = latest;
+        for (Snapshot snapshot : openSnapshots) {
+            oldest = Math.min(oldest, snapshot.getVersion());
+        }
+        report.put("mvcc.openSnapshots", (long) openSnapshots.size());
+        report.put("mvcc.chains", (long) chains.size());
+        report.put("mvcc.oldestSnapshotLag", latest - oldest);
+    }
+
+    /**
+     * Stops the garbage collector.
+     */
+    public void close() {
+        collector.shutdownNow();
+    }
+
+    private static StoredValue visibleAt(Version chain, long version) {
+        for (Version v = chain; v != null; v = v.older) {
+            if (v.version <= version) {
+                return v.value;
+            }
+        }
+        return null;
+    }
+
+    private static long length(Version chain) {
+        long n = 0;
+        for (Version v = chain; v != null; v = v.older) {
+            n++;
+        }
+        return n;
+    }
+}
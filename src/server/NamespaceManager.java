@@ -0,0 +1,78 @@
+package server;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Owns the {@link KeyValue} stores of all namespaces hosted by the server. Each namespace is an
+ * isolated keyspace with its own engine, configuration, change feed and counters; the manager
+ * opens them together at startup and closes them together at shutdown.
+ */
+public class NamespaceManager {
+
+    private final Map<String, KeyValue> stores = new LinkedHashMap<>();
+
+    /**
+     * Opens one store per configuration. If any namespace fails to open, those already opened
+     * are closed again before the error is rethrown.
+     *
+     * @param configs The namespace configurations.
+     * @throws IOException If a namespace's persisted data cannot be read.
+     * @throws IllegalArgumentException If two namespaces share a name.
+     */
+    public NamespaceManager(List<StoreConfig> configs) throws IOException {
+        try {
+            for (StoreConfig config : configs) {
+                if (stores.containsKey(config.getName())) {
+                    throw new IllegalArgumentException(String.format("Namespace %s is declared more than once.", config.getName()));
+                }
+                stores.put(config.getName(), new KeyValue(config));
+            }
+        } catch (IOException | RuntimeException e) {
+            closeAll();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the store of a namespace.
+     *
+     * @param name The namespace name.
+     * @return The store.
+     * @throws IllegalArgumentException If the namespace does not exist.
+     */
+    public KeyValue get(String name) {
+        KeyValue store = stores.get(name);
+        if (store == null) {
+            throw new IllegalArgumentException(String.format("Namespace %s does not exist.", name));
+        }
+        return store;
+    }
+
+    /**
+     * Gets all stores, in declaration order.
+     *
+     * @return An unmodifiable view of the stores.
+     */
+    public Collection<KeyValue> getAll() {
+        return Collections.unmodifiableCollection(stores.values());
+    }
+
+    /**
+     * Closes every namespace, flushing persistent ones. A namespace that fails to close is logged
+     * and does not prevent the others from closing.
+     */
+    public void closeAll() {
+        for (KeyValue store : stores.values()) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                ServerLogger.error(String.format("Failed to close namespace %s: %s", store.getName(), e.getMessage()));
+            }
+        }
+    }
+}
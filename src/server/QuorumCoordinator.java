@@ -0,0 +1,414 @@
+package server;
+
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import api.ConsistencyLevel;
+import api.ReplicaRpc;
+import api.VersionedValue;
+
+/**
+ * Coordinates Dynamo-style quorum requests for one namespace. Every server of a cluster can
+ * coordinate: it finds the N replicas of the key on the {@link HashRing}, sends the request to all of
+ * them in parallel and replies as soon as the consistency level's number of replicas have answered.
+ * <ul>
+ *     <li>Writes, including deletions as tombstones, carry a timestamp from this coordinator's clock,
+ *     and replicas keep the newest copy (last-writer-wins).</li>
+ *     <li>Reads return the newest copy among the replicas that answered. Once every replica has
+ *     answered, those holding an older copy are sent the newest one (read repair).</li>
+ *     <li>A write that fails on a replica is kept as a hint and replayed periodically until the
+ *     replica accepts it (hinted handoff), or until it is older than the hint TTL. Hints do not
+ *     count towards the write's level. Replicas keep tombstones for longer than the hint TTL, so no
+ *     hint can bring a deleted value back.</li>
+ * </ul>
+ */
+public class QuorumCoordinator {
+
+    private final String namespace;
+    private final String nodeId;
+    private final int replicationFactor;
+    private final ConsistencyLevel defaultLevel;
+    private final long timeoutMillis;
+    private final int maxHints;
+    private final long hintTtlMicros;
+    private final HashRing ring;
+    private final Map<String, Replica> replicas = new LinkedHashMap<>();
+    private final ExecutorService fanOutPool;
+    private final ScheduledExecutorService hintReplayer;
+    private final AtomicInteger hintCount = new AtomicInteger();
+    private final AtomicLong clock = new AtomicLong();
+    private final StoreStats stats = new StoreStats();
+
+    /**
+     * Constructs a QuorumCoordinator and starts replaying hints.
+     *
+     * @param config The replication settings.
+     * @param namespace The namespace whose requests are coordinated.
+     * @param local This server's replica of the namespace, called directly rather than over RMI.
+     */
+    public QuorumCoordinator(ClusterConfig config, String namespace, ReplicaRpc local) {
+        this.namespace = namespace;
+        this.nodeId = config.getNodeId();
+        this.replicationFactor = config.getReplicationFactor();
+        this.defaultLevel = config.getDefaultLevel();
+        this.timeoutMillis = config.getTimeoutMillis();
+        this.maxHints = config.getMaxHints();
+        this.hintTtlMicros = TimeUnit.MILLISECONDS.toMicros(config.getHintTtlMillis());
+        replicas.put(nodeId, new Replica(nodeId, local));
+        for (String peer : config.getPeers()) {
+            replicas.put(peer, new Replica(peer, null));
+        }
+        this.ring = new HashRing(replicas.keySet());
+        this.fanOutPool = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "quorum-fan-out");
+            t.setDaemon(true);
+            return t;
+        });
+        this.hintReplayer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hint-replayer");
+            t.setDaemon(true);
+            return t;
+        });
+        hintReplayer.scheduleWithFixedDelay(this::replayHints, config.getHintReplayMillis(), config.getHintReplayMillis(),
+                TimeUnit.MILLISECONDS);
+        ServerLogger.info(String.format("Namespace %s is replicated: %s", namespace, config));
+    }
+
+    /**
+     * Reads a key from its replicas.
+     *
+     * @param key The key.
+     * @param level The number of replicas that must answer, or null for the default.
+     * @return The newest copy among the replicas that answered, or null if none of them knows the key.
+     *         The copy may be a tombstone.
+     * @throws QuorumException If too few replicas answered in time.
+     * @throws InterruptedException If the request is interrupted.
+     */
+    public VersionedValue read(String key, ConsistencyLevel level) throws QuorumException, InterruptedException {
+        List<Replica> targets = replicasFor(key);
+        int required = required(level);
+        ReadRound round = new ReadRound(key, targets.size());
+        LinkedBlockingQueue<Reply> replies = new LinkedBlockingQueue<>();
+        for (Replica replica : targets) {
+            fanOutPool.execute(() -> {
+                Reply reply;
+                try {
+                    reply = new Reply(replica, replica.read(key), null);
+                } catch (Exception e) {
+                    reply = new Reply(replica, null, e);
+                }
+                replies.add(reply);
+                round.add(reply);
+            });
+        }
+        List<Reply> answered = await(replies, targets.size(), required, "read", key);
+        VersionedValue newest = null;
+        for (Reply reply : answered) {
+            if (reply.value != null && reply.value.isNewerThan(newest)) {
+                newest = reply.value;
+            }
+        }
+        stats.increment("quorum.reads");
+        return newest;
+    }
+
+    /**
+     * Writes a value, or a tombstone, to the replicas of a key.
+     *
+     * @param key The key.
+     * @param value The value, or null to delete the key.
+     * @param level The number of replicas that must acknowledge, or null for the default.
+     * @return true if at least one acknowledging replica held a live value before the write.
+     * @throws QuorumException If too few replicas acknowledged in time; the write may still reach
+     *                         the others, directly or from hints.
+     * @throws InterruptedException If the request is interrupted.
+     */
+    public boolean write(String key, String value, ConsistencyLevel level) throws QuorumException, InterruptedException {
+        VersionedValue versioned = new VersionedValue(value, nextTimestamp(), nodeId);
+        List<Replica> targets = replicasFor(key);
+        int required = required(level);
+        LinkedBlockingQueue<Reply> replies = new LinkedBlockingQueue<>();
+        for (Replica replica : targets) {
+            fanOutPool.execute(() -> {
+                try {
+                    replies.add(new Reply(replica, replica.write(key, versioned), null));
+                } catch (Exception e) {
+                    replies.add(new Reply(replica, null, e));
+                    addHint(replica, key, versioned);
+                }
+            });
+        }
+        List<Reply> acknowledged = await(replies, targets.size(), required, "write", key);
+        stats.increment("quorum.writes");
+        for (Reply reply : acknowledged) {
+            if (reply.value != null && !reply.value.isTombstone()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes a copy of the coordinator counters: requests, failed quorums, read repairs and hints.
+     *
+     * @return A map from counter name to value.
+     */
+    public Map<String, Long> stats() {
+        Map<String, Long> copy = stats.toMap();
+        copy.put("quorum.pendingHints", (long) hintCount.get());
+        copy.put("quorum.replicationFactor", (long) replicationFactor);
+        return copy;
+    }
+
+    /**
+     * Stops replaying hints and fanning out requests. Hints not yet delivered are lost.
+     */
+    public void close() {
+        hintReplayer.shutdownNow();
+        fanOutPool.shutdownNow();
+        if (hintCount.get() > 0) {
+            ServerLogger.error(String.format("Namespace %s closed with %d undelivered hints.", namespace, hintCount.get()));
+        }
+    }
+
+    /**
+     * Waits until enough replicas have succeeded, until that can no longer happen, or until the timeout.
+     *
+     * @return The successful replies.
+     */
+    private List<Reply> await(LinkedBlockingQueue<Reply> replies, int total, int required, String operation, String key)
+            throws QuorumException, InterruptedException {
+        List<Reply> succeeded = new ArrayList<>(total);
+        int failed = 0;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (succeeded.size() < required && total - failed >= required) {
+            Reply reply = replies.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (reply == null) {
+                break;
+            }
+            if (reply.error == null) {
+                succeeded.add(reply);
+            } else {
+                failed++;
+                ServerLogger.error(String.format("Replica %s failed the %s of key=%s: %s", reply.replica.id, operation, key,
+                        reply.error.getMessage()));
+            }
+        }
+        if (succeeded.size() < required) {
+            stats.increment("quorum.failed");
+            throw new QuorumException(String.format("Only %d of %d required replicas answered the %s of key=%s (%d failed).",
+                    succeeded.size(), required, operation, key, failed));
+        }
+        return succeeded;
+    }
+
+    private List<Replica> replicasFor(String key) {
+        List<Replica> targets = new ArrayList<>(replicationFactor);
+        for (String id : ring.replicasFor(key, replicationFactor)) {
+            targets.add(replicas.get(id));
+        }
+        return targets;
+    }
+
+    private int required(ConsistencyLevel level) {
+        return (level == null ? defaultLevel : level).required(replicationFactor);
+    }
+
+    /**
+     * Issues timestamps that follow the wall clock in microseconds but never repeat or go backwards.
+     */
+    private long nextTimestamp() {
+        long now = System.currentTimeMillis() * 1000;
+        while (true) {
+            long last = clock.get();
+            long next = Math.max(now, last + 1);
+            if (clock.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+
+    private void addHint(Replica replica, String key, VersionedValue value) {
+        if (fanOutPool.isShutdown()) {
+            return;
+        }
+        if (hintCount.incrementAndGet() > maxHints) {
+            hintCount.decrementAndGet();
+            stats.increment("quorum.hintsDropped");
+            return;
+        }
+        replica.hints.add(new Hint(key, value));
+        stats.increment("quorum.hintsStored");
+    }
+
+    /**
+     * Delivers the hints of each replica in order, stopping at that replica's first failure, and
+     * drops the hints whose write is older than the hint TTL, since replicas may have purged the
+     * tombstones that would have outvoted them. The age is measured from the write's timestamp, on the
+     * same clock as the tombstone grace period.
+     */
+    private void replayHints() {
+        for (Replica replica : replicas.values()) {
+            int delivered = 0;
+            int expired = 0;
+            Hint hint;
+            while ((hint = replica.hints.peek()) != null) {
+                if (System.currentTimeMillis() * 1000 - hint.value.getTimestamp() > hintTtlMicros) {
+                    replica.hints.poll();
+                    hintCount.decrementAndGet();
+                    expired++;
+                    continue;
+                }
+                try {
+                    replica.write(hint.key, hint.value);
+                } catch (Exception e) {
+                    break;
+                }
+                replica.hints.poll();
+                hintCount.decrementAndGet();
+                delivered++;
+            }
+            if (expired > 0) {
+                stats.add("quorum.hintsExpired", expired);
+                ServerLogger.error(String.format("Dropped %d hints for replica %s of namespace %s after %d ms.", expired, replica.id,
+                        namespace, TimeUnit.MICROSECONDS.toMillis(hintTtlMicros)));
+            }
+            if (delivered > 0) {
+                stats.add("quorum.hintsReplayed", delivered);
+                ServerLogger.info(String.format("Replayed %d hints to replica %s of namespace %s.", delivered, replica.id, namespace));
+            }
+        }
+    }
+
+    /**
+     * One replica of the namespace: this server's own, or a peer whose stub is looked up on first
+     * use and again after a failure, so a restarted peer is picked up.
+     */
+    private class Replica {
+        private final String id;
+        private final ReplicaRpc local;
+        private final ConcurrentLinkedQueue<Hint> hints = new ConcurrentLinkedQueue<>();
+        private volatile ReplicaRpc remote;
+
+        private Replica(String id, ReplicaRpc local) {
+            this.id = id;
+            this.local = local;
+        }
+
+        private VersionedValue read(String key) throws RemoteException {
+            try {
+                return stub().replicaRead(key);
+            } catch (RemoteException e) {
+                remote = null;
+                throw e;
+            }
+        }
+
+        private VersionedValue write(String key, VersionedValue value) throws RemoteException {
+            try {
+                return stub().replicaWrite(key, value);
+            } catch (RemoteException e) {
+                remote = null;
+                throw e;
+            }
+        }
+
+        private ReplicaRpc stub() throws RemoteException {
+            if (local != null) {
+                return local;
+            }
+            ReplicaRpc stub = remote;
+            if (stub == null) {
+                String[] hostPort = ClusterConfig.parsePeer(id);
+                int port = Integer.parseInt(hostPort[1]);
+                try {
+                    stub = (ReplicaRpc) LocateRegistry.getRegistry(hostPort[0], port)
+                            .lookup(ServerApp.replicaServiceName(port, namespace));
+                } catch (NotBoundException e) {
+                    throw new RemoteException(String.format("Replica %s does not serve namespace %s.", id, namespace));
+                }
+                remote = stub;
+            }
+            return stub;
+        }
+    }
+
+    /**
+     * Collects every reply of one read and repairs stale replicas once the last reply is in,
+     * which may be after the client has already been answered.
+     */
+    private class ReadRound {
+        private final String key;
+        private final int expected;
+        private final List<Reply> replies = new ArrayList<>();
+
+        private ReadRound(String key, int expected) {
+            this.key = key;
+            this.expected = expected;
+        }
+
+        private void add(Reply reply) {
+            synchronized (this) {
+                replies.add(reply);
+                if (replies.size() < expected) {
+                    return;
+                }
+            }
+            VersionedValue newest = null;
+            for (Reply r : replies) {
+                if (r.value != null && r.value.isNewerThan(newest)) {
+                    newest = r.value;
+                }
+            }
+            if (newest == null) {
+                return;
+            }
+            for (Reply r : replies) {
+                if (r.error == null && newest.isNewerThan(r.value)) {
+                    try {
+                        r.replica.write(key, newest);
+                        stats.increment("quorum.readRepairs");
+                        ServerLogger.info(String.format("Repaired key=%s on stale replica %s.", key, r.replica.id));
+                    } catch (Exception e) {
+                        addHint(r.replica, key, newest);
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Reply {
+        private final Replica replica;
+        private final VersionedValue value;
+        private final Exception error;
+
+        private Reply(Replica replica, VersionedValue value, Exception error) {
+            this.replica = replica;
+            this.value = value;
+            this.error = error;
+        }
+    }
+
+    private static class Hint {
+        private final String key;
+        private final VersionedValue value;
+
+        private Hint(String key, VersionedValue value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package server;
+
+/**
+ * Thrown by the {@link QuorumCoordinator} when fewer replicas answered a request than its
+ * consistency level requires.
+ */
+public class QuorumException extends Exception {
+
+    /**
+     * Constructs a QuorumException.
+     *
+     * @param message The reason, including how many replicas answered.
+     */
+    public QuorumException(String message) {
+        super(message);
+    }
+}
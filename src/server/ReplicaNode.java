@@ -0,0 +1,218 @@
+package server;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import api.ReplicaRpc;
+import api.VersionedValue;
+
+/**
+ * Serves one namespace's store as a replica. Each value is stored stamped with the timestamp and
+ * writer of the write that produced it, and each replicated deletion leaves a stamped tombstone,
+ * so that copies arriving out of order, from hints or from read repair, are resolved by
+ * last-writer-wins.
+ * <p>
+ * Tombstones are kept in a companion engine of the namespace, of the same type and persisted the
+ * same way as its values, so they survive a restart wherever the values do. A tombstone is purged
+ * once it is older than the grace period, which is longer than the hint TTL, so that no hint of an
+ * older write can still be delivered once it is gone. A replica that was down for longer than the
+ * hint TTL can still hold values deleted meanwhile; it has to be repaired, by reading its keys,
+ * within the grace period.
+ */
+public class ReplicaNode extends UnicastRemoteObject implements ReplicaRpc {
+
+    // Lock stripes serializing the read-compare-apply of writes to the same key.
+    private static final int LOCK_STRIPES = 64;
+
+    private final KeyValue store;
+    private final String nodeId;
+    private final FaultInjector faults;
+    private final StorageEngine tombstones;
+    // Serializes the writes to the tombstone engine, which allows one writer at a time
+    private final ReentrantLock mutex = new ReentrantLock();
+    private final long graceMicros;
+    private final ScheduledExecutorService sweeper;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private long tombstoneSequence;
+
+    /**
+     * Constructs a ReplicaNode, opens the namespace's tombstones and exports the node to allow remote access.
+     *
+     * @param store The store of the namespace to serve.
+     * @param nodeId The id of this server on the hash ring.
+     * @param faults The faults to inject into incoming calls.
+     * @param tombstoneGraceMillis How long tombstones are kept; must exceed the hint TTL of every coordinator.
+     * @throws IOException If the tombstones cannot be read or the node cannot be exported.
+     */
+    public ReplicaNode(KeyValue store, String nodeId, FaultInjector faults, long tombstoneGraceMillis) throws IOException {
+        super();
+        if (tombstoneGraceMillis <= 0) {
+            throw new IllegalArgumentException("Tombstone grace period must be positive.");
+        }
+        this.store = store;
+        this.nodeId = nodeId;
+        this.faults = faults;
+        this.graceMicros = TimeUnit.MILLISECONDS.toMicros(tombstoneGraceMillis);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        this.tombstones = store.openCompanionEngine("tombstones");
+        this.tombstoneSequence = tombstones.getSequence();
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "tombstone-sweeper-" + store.getName());
+            t.setDaemon(true);
+            return t;
+        });
+        long sweepMillis = Math.max(100, Math.min(60_000, tombstoneGraceMillis / 10));
+        sweeper.scheduleWithFixedDelay(this::purgeExpired, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public VersionedValue replicaRead(String key) throws RemoteException {
+        faults.beforeCall("read of key=" + key);
+        synchronized (lockFor(key)) {
+            return current(key);
+        }
+    }
+
+    @Override
+    public VersionedValue replicaWrite(String key, VersionedValue value) throws RemoteException {
+        if (key == null || key.isEmpty() || value == null) {
+            throw new IllegalArgumentException("Key and value must not be null or empty.");
+        }
+        faults.beforeCall("write of key=" + key);
+        synchronized (lockFor(key)) {
+            VersionedValue previous = current(key);
+            if (!value.isNewerThan(previous)) {
+                return previous;
+            }
+            // The tombstone is written before the value is removed, and removed after the value is
+            // written, so a crash in between leaves both, and the newer of the two still wins.
+            ByteKey storeKey = ByteKey.of(key);
+            if (value.isTombstone()) {
+                putTombstone(storeKey, value);
+                if (previous != null && !previous.isTombstone()) {
+                    store.delete(key);
+                }
+            } else {
+                store.putStamped(key, value.getValue(), value.getTimestamp(), value.getWriterId());
+                if (previous != null && previous.isTombstone()) {
+                    removeTombstone(storeKey);
+                }
+            }
+            return previous;
+        }
+    }
+
+    /**
+     * Gets the number of tombstones this replica holds.
+     *
+     * @return The number of tombstones.
+     */
+    public int getTombstoneCount() {
+        return tombstones.size();
+    }
+
+    /**
+     * Stops purging tombstones and closes the tombstone engine, persisting the tombstones.
+     *
+     * @throws IOException If the tombstones cannot be written.
+     */
+    public void close() throws IOException {
+        sweeper.shutdownNow();
+        try {
+            mutex.lock();
+            tombstones.close();
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    @Override
+    public String nodeId() throws RemoteException {
+        return nodeId;
+    }
+
+    /**
+     * Builds this replica's copy of a key: the newer of the stamped value in the store and the
+     * key's tombstone. Must be called while holding the key's lock.
+     */
+    private VersionedValue current(String key) {
+        ByteKey storeKey = ByteKey.of(key);
+        StoredValue stored = store.getStored(storeKey);
+        VersionedValue live = null;
+        if (stored != null) {
+            String value = store.decode(stored);
+            live = stored.isStamped() ? new VersionedValue(value, stored.getStampTime(), stored.getStampWriter())
+                    : new VersionedValue(value, 0, "");
+        }
+        StoredValue tombstone = tombstones.get(storeKey);
+        if (tombstone == null) {
+            return live;
+        }
+        VersionedValue dead = new VersionedValue(null, tombstone.getStampTime(), tombstone.getStampWriter());
+        return dead.isNewerThan(live) ? dead : live;
+    }
+
+    private void putTombstone(ByteKey key, VersionedValue value) {
+        try {
+            mutex.lock();
+            StoredValue tombstone = new StoredValue(new byte[0], ++tombstoneSequence).withStamp(value.getTimestamp(), value.getWriterId());
+            tombstones.put(key, tombstone);
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    private void removeTombstone(ByteKey key) {
+        try {
+            mutex.lock();
+            tombstones.remove(key, ++tombstoneSequence);
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * Purges the tombstones older than the grace period. Each key is checked again under its lock,
+     * in case a newer tombstone replaced the expired one meanwhile.
+     */
+    private void purgeExpired() {
+        try {
+            long cutoff = System.currentTimeMillis() * 1000 - graceMicros;
+            List<ByteKey> expired = new ArrayList<>();
+            tombstones.forEach((key, tombstone) -> {
+                if (tombstone.getStampTime() < cutoff) {
+                    expired.add(key);
+                }
+            });
+            int purged = 0;
+            for (ByteKey key : expired) {
+                synchronized (lockFor(key.toString())) {
+                    StoredValue tombstone = tombstones.get(key);
+                    if (tombstone != null && tombstone.getStampTime() < cutoff) {
+                        removeTombstone(key);
+                        purged++;
+                    }
+                }
+            }
+            if (purged > 0) {
+                ServerLogger.info(String.format("Purged %d tombstones of namespace %s older than %d ms.", purged, store.getName(),
+                        TimeUnit.MICROSECONDS.toMillis(graceMicros)));
+            }
+        } catch (RuntimeException e) {
+            ServerLogger.error(String.format("Tombstone purge of namespace %s failed: %s", store.getName(), e.getMessage()));
+        }
+    }
+
+    private Object lockFor(String key) {
+        return locks[(key.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+}
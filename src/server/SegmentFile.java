@@ -0,0 +1,443 @@
+package server;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable, sorted run of entries on disk, written by {@link LsmEngine} when it flushes a
+ * memtable or compacts segments. The file holds:
+ * <ul>
+ *     <li>data blocks of about {@code blockSize} bytes, each a sequence of entries in key order;</li>
+ *     <li>a sparse index holding the first key, offset and length of every block;</li>
+ *     <li>a {@link BloomFilter} over all keys;</li>
+ *     <li>a fixed-size footer locating the index and the filter.</li>
+ * </ul>
+ * The index and the filter are loaded into memory when the segment is opened, so a lookup reads
+ * at most one block, and none at all when the filter rules the key out. Deleted keys are kept as
+ * {@link LsmEngine#TOMBSTONE} entries so that they shadow older segments until compaction drops them.
+ * Reads use positional channel reads and are thread-safe. The file is reference counted, so a
+ * segment replaced by compaction stays readable until the last scan using it releases it.
+ */
+public class SegmentFile {
+
+    // Footer: index offset, filter offset, entry count, block count and the magic "KVSS".
+    private static final int MAGIC = 0x4B565353;
+    private static final int FOOTER_SIZE = 8 + 8 + 8 + 4 + 4;
+    private static final int BLOOM_BITS_PER_KEY = 10;
+
+    private final long id;
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteKey[] firstKeys;
+    private final long[] blockOffsets;
+    private final int[] blockLengths;
+    private final BloomFilter bloom;
+    private final long entryCount;
+    private final long fileSize;
+    private final BlockCache cache;
+    private final StoreStats stats;
+    // One reference held by the engine while the segment is live, plus one per scan reading it.
+    private final AtomicInteger refs = new AtomicInteger(1);
+    private volatile boolean obsolete;
+
+    private SegmentFile(long id, Path path, FileChannel channel, ByteKey[] firstKeys, long[] blockOffsets, int[] blockLengths,
+                        BloomFilter bloom, long entryCount, long fileSize, BlockCache cache, StoreStats stats) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.firstKeys = firstKeys;
+        this.blockOffsets = blockOffsets;
+        this.blockLengths = blockLengths;
+        this.bloom = bloom;
+        this.entryCount = entryCount;
+        this.fileSize = fileSize;
+        this.cache = cache;
+        this.stats = stats;
+    }
+
+    /**
+     * Writes entries to a new segment file and opens it. The file is written under a temporary
+     * name, synced, and then renamed, so a crash never leaves a partial segment behind.
+     *
+     * @param path The segment file to create.
+     * @param id The segment id, unique within the engine.
+     * @param entries The entries in ascending key order, with {@link LsmEngine#TOMBSTONE} for deleted keys.
+     * @param expectedKeys An upper bound on the number of entries, used to size the Bloom filter.
+     * @param blockSize The target size of a data block in bytes.
+     * @param cache The block cache shared by the engine's segments.
+     * @param stats The engine counters; bytes written are added to {@code lsm.bytesWritten}.
+     * @return The opened segment.
+     * @throws IOException If the file cannot be written.
+     */
+    public static SegmentFile write(Path path, long id, Iterator<Map.Entry<ByteKey, StoredValue>> entries, long expectedKeys,
+                                    int blockSize, BlockCache cache, StoreStats stats) throws IOException {
+        Path tmp = Paths.get(path.toString() + ".tmp");
+        BloomFilter bloom = BloomFilter.create(expectedKeys, BLOOM_BITS_PER_KEY);
+        List<ByteKey> firstKeys = new ArrayList<>();
+        List<long[]> blocks = new ArrayList<>();
+        long entryCount = 0;
+        long offset = 0;
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+            ByteArrayOutputStream block = new ByteArrayOutputStream(blockSize + 1024);
+            DataOutputStream blockOut = new DataOutputStream(block);
+            while (entries.hasNext()) {
+                Map.Entry<ByteKey, StoredValue> entry = entries.next();
+                if (block.size() == 0) {
+                    firstKeys.add(entry.getKey());
+                }
+                writeEntry(blockOut, entry.getKey(), entry.getValue());
+                bloom.add(entry.getKey().getBytes());
+                entryCount++;
+                if (block.size() >= blockSize) {
+                    blocks.add(new long[]{offset, block.size()});
+                    offset += block.size();
+                    block.writeTo(out);
+                    block.reset();
+                }
+            }
+            if (block.size() > 0) {
+                blocks.add(new long[]{offset, block.size()});
+                offset += block.size();
+                block.writeTo(out);
+            }
+            long indexOffset = offset;
+            for (int i = 0; i < blocks.size(); i++) {
+                byte[] key = firstKeys.get(i).getBytes();
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeLong(blocks.get(i)[0]);
+                out.writeInt((int) blocks.get(i)[1]);
+                offset += 4 + key.length + 8 + 4;
+            }
+            long bloomOffset = offset;
+            bloom.writeTo(out);
+            out.writeLong(indexOffset);
+            out.writeLong(bloomOffset);
+            out.writeLong(entryCount);
+            out.writeInt(blocks.size());
+            out.writeInt(MAGIC);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        stats.add("lsm.bytesWritten", Files.size(path));
+        return open(path, id, cache, stats);
+    }
+
+    /**
+     * Opens an existing segment file, loading its index and Bloom filter.
+     *
+     * @param path The segment file.
+     * @param id The segment id.
+     * @param cache The block cache shared by the engine's segments.
+     * @param stats The engine counters.
+     * @return The opened segment.
+     * @throws IOException If the file cannot be read or is not a segment.
+     */
+    public static SegmentFile open(Path path, long id, BlockCache cache, StoreStats stats) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long fileSize = channel.size();
+            if (fileSize < FOOTER_SIZE) {
+                throw new IOException(String.format("File %s is too short to be a segment.", path));
+            }
+            ByteBuffer footer = read(channel, fileSize - FOOTER_SIZE, FOOTER_SIZE);
+            long indexOffset = footer.getLong();
+            long bloomOffset = footer.getLong();
+            long entryCount = footer.getLong();
+            int blockCount = footer.getInt();
+            if (footer.getInt() != MAGIC || indexOffset < 0 || bloomOffset < indexOffset || bloomOffset > fileSize - FOOTER_SIZE) {
+                throw new IOException(String.format("File %s is not a store segment.", path));
+            }
+            DataInputStream index = new DataInputStream(new ByteArrayInputStream(
+                    read(channel, indexOffset, (int) (bloomOffset - indexOffset)).array()));
+            ByteKey[] firstKeys = new ByteKey[blockCount];
+            long[] blockOffsets = new long[blockCount];
+            int[] blockLengths = new int[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                byte[] key = new byte[index.readInt()];
+                index.readFully(key);
+                firstKeys[i] = new ByteKey(key);
+                blockOffsets[i] = index.readLong();
+                blockLengths[i] = index.readInt();
+            }
+            BloomFilter bloom = BloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(
+                    read(channel, bloomOffset, (int) (fileSize - FOOTER_SIZE - bloomOffset)).array())));
+            return new SegmentFile(id, path, channel, firstKeys, blockOffsets, blockLengths, bloom, entryCount, fileSize, cache, stats);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Looks up a key.
+     *
+     * @param key The key.
+     * @return The value, {@link LsmEngine#TOMBSTONE} if the segment records the key as deleted,
+     * or null if the segment does not hold the key.
+     * @throws UncheckedIOException If the block cannot be read.
+     */
+    public StoredValue get(ByteKey key) {
+        if (!bloom.mightContain(key.getBytes())) {
+            stats.increment("lsm.bloomSkips");
+            return null;
+        }
+        int block = findBlock(key);
+        if (block < 0) {
+            stats.increment("lsm.bloomFalsePositives");
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(readBlock(block, true)));
+            while (in.available() > 0) {
+                ByteKey entryKey = readKey(in);
+                int cmp = entryKey.compareTo(key);
+                if (cmp == 0) {
+                    return readValue(in);
+                }
+                if (cmp > 0) {
+                    break;
+                }
+                skipValue(in);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Cannot read segment %s.", path), e);
+        }
+        stats.increment("lsm.bloomFalsePositives");
+        return null;
+    }
+
+    /**
+     * Iterates over every entry in key order, tombstones included. Blocks are read straight from
+     * the file and not added to the block cache, so a scan does not evict hot blocks.
+     *
+     * @return The iterator; it throws {@link UncheckedIOException} if a block cannot be read.
+     */
+    public Iterator<Map.Entry<ByteKey, StoredValue>> iterator() {
+        return new Iterator<Map.Entry<ByteKey, StoredValue>>() {
+            private int block;
+            private DataInputStream in;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (in == null || in.available() == 0) {
+                        if (block >= blockOffsets.length) {
+                            return false;
+                        }
+                        in = new DataInputStream(new ByteArrayInputStream(readBlock(block++, false)));
+                    }
+                    return true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(String.format("Cannot read segment %s.", path), e);
+                }
+            }
+
+            @Override
+            public Map.Entry<ByteKey, StoredValue> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    ByteKey key = readKey(in);
+                    return new AbstractMap.SimpleImmutableEntry<>(key, readValue(in));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(String.format("Cannot read segment %s.", path), e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Gets the segment id. Segments with higher ids hold newer data.
+     *
+     * @return The id.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Gets the segment file.
+     *
+     * @return The path.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the number of entries, tombstones included.
+     *
+     * @return The entry count.
+     */
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Gets the size of the segment file.
+     *
+     * @return The size in bytes.
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Gets the memory held by the sparse index and the Bloom filter.
+     *
+     * @return The approximate size in bytes.
+     */
+    public long getMemorySize() {
+        long size = bloom.sizeInBytes();
+        for (ByteKey key : firstKeys) {
+            size += key.length() + 32;
+        }
+        return size;
+    }
+
+    /**
+     * Pins the segment so that its file stays open while a scan reads it, even if compaction
+     * replaces the segment meanwhile.
+     *
+     * @return true if the segment was pinned, false if it is already closed.
+     */
+    public boolean retain() {
+        while (true) {
+            int n = refs.get();
+            if (n == 0) {
+                return false;
+            }
+            if (refs.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Unpins the segment. Once the engine and every scan have released it, the file is closed,
+     * its blocks are dropped from the cache, and, if compaction replaced it, the file is deleted.
+     *
+     * @throws IOException If the file cannot be closed or deleted.
+     */
+    public void release() throws IOException {
+        if (refs.decrementAndGet() == 0) {
+            channel.close();
+            cache.invalidate(id, blockOffsets.length);
+            if (obsolete) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Marks the segment as replaced by compaction, so its file is deleted once it is released.
+     */
+    public void markObsolete() {
+        obsolete = true;
+    }
+
+    /**
+     * Writes one entry of a data block.
+     */
+    static void writeEntry(DataOutputStream out, ByteKey key, StoredValue value) throws IOException {
+        out.writeInt(key.length());
+        out.write(key.getBytes());
+        if (value == LsmEngine.TOMBSTONE) {
+            out.writeByte(1);
+        } else {
+            out.writeByte(0);
+            value.writeTo(out);
+        }
+    }
+
+    /**
+     * Finds the only block that can hold a key: the last one whose first key is not greater than it.
+     */
+    private int findBlock(ByteKey key) {
+        int low = 0;
+        int high = firstKeys.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (firstKeys[mid].compareTo(key) <= 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private byte[] readBlock(int block, boolean useCache) throws IOException {
+        long cacheKey = BlockCache.key(id, block);
+        if (useCache) {
+            byte[] cached = cache.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        byte[] data = read(channel, blockOffsets[block], blockLengths[block]).array();
+        if (useCache) {
+            stats.increment("lsm.blockReads");
+            stats.add("lsm.bytesRead", data.length);
+            cache.put(cacheKey, data);
+        } else {
+            stats.add("lsm.scanBytesRead", data.length);
+        }
+        return data;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of segment file.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteKey readKey(DataInputStream in) throws IOException {
+        byte[] key = new byte[in.readInt()];
+        in.readFully(key);
+        return new ByteKey(key);
+    }
+
+    private static StoredValue readValue(DataInputStream in) throws IOException {
+        return in.readByte() == 1 ? LsmEngine.TOMBSTONE : StoredValue.readFrom(in);
+    }
+
+    private static void skipValue(DataInputStream in) throws IOException {
+        if (in.readByte() == 0) {
+            StoredValue.readFrom(in);
+        }
+    }
+}
@@ -1,18 +1,19 @@
 package server;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.net.MalformedURLException;
+import java.util.List;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
 import java.rmi.registry.LocateRegistry;
-import java.rmi.Naming;
+import java.rmi.registry.Registry;
 import java.rmi.RemoteException;
-
-import api.KeyValueRpc;
-import api.KeyValueResponse;
+import java.rmi.server.UnicastRemoteObject;
 
 /**
  * ServerApp is the main class for a server application that that initializes and binds the KeyValueRpcImpl
- * to the RMI registry for remote access.
+ * to the RMI registry for remote access, once per configured namespace.
  */
 public class ServerApp {
 
@@ -20,35 +21,129 @@ public class ServerApp {
     public static long appStartTime = System.currentTimeMillis();
 
     /**
-     * Constructs a ServerApp instance and binds it to the RMI registry.
+     * Constructs a ServerApp instance: opens every configured namespace and binds one service per
+     * namespace to the RMI registry. The {@value StoreConfig#DEFAULT_NAMESPACE} namespace is bound under
+     * {@code rpc-server-<port>} as before, every other namespace under {@code rpc-server-<port>/<namespace>}.
+     * When {@code KV_PEERS} is set, each namespace also binds its replica as {@code replica-<port>[/<namespace>]}
+     * and serves get, put and delete through a {@link QuorumCoordinator}, see {@link ClusterConfig}.
+     * A shutdown hook unbinds the services and closes the namespaces, flushing persistent ones.
+     * With {@code KV_WARMUP_REQUESTS} set, the request path is warmed up before any namespace is bound,
+     * see {@link StartupWarmup}.
      *
-     * @param port The port number on which the server should listen and accept connections.
      * @throws RemoteException If a RemoteException occurs during the RMI operation.
      */
     protected ServerApp() throws RemoteException {
         try {
             int port = Integer.parseInt(System.getenv("RMI_PORT"));
             // Create the RMI registry on the dynamically obtained port
-            LocateRegistry.createRegistry(port);
+            Registry registry = LocateRegistry.createRegistry(port);
             ServerLogger.info("RMI registry created on port: " + port);
 
-            // Instantiate the KeyValueRpcImpl
-            KeyValueRpc keyValueStore = new KeyValueRpcImpl();
+            ClusterConfig cluster = ClusterConfig.fromEnv(port);
+            if (cluster.isReplicated()) {
+                // Bound how long a coordinator thread can hang on an unresponsive peer
+                String timeout = String.valueOf(cluster.getTimeoutMillis());
+                System.setProperty("sun.rmi.transport.tcp.responseTimeout", System.getProperty("sun.rmi.transport.tcp.responseTimeout", timeout));
+                System.setProperty("sun.rmi.transport.proxy.connectTimeout", System.getProperty("sun.rmi.transport.proxy.connectTimeout", timeout));
+            }
+
+            // Rate limits and fair scheduling, shared by all namespaces
+            AdmissionController admission = AdmissionController.fromEnv();
+
+            // Open the stores of all namespaces
+            NamespaceManager namespaces = new NamespaceManager(StoreConfig.fromEnv());
+            List<String> serviceNames = new ArrayList<>();
+            List<Remote> services = new ArrayList<>();
+            List<QuorumCoordinator> coordinators = new ArrayList<>();
+            List<ReplicaNode> replicas = new ArrayList<>();
+
+            // Exercise the request path before any namespace is bound, so the first client finds it warm
+            int warmupRounds = StartupWarmup.roundsFromEnv();
+            if (warmupRounds > 0) {
+                StartupWarmup.run(registry, port, warmupRounds);
+            }
 
-            // Construct the RMI registry binding name with the provided port
-            String serviceName = "rpc-server-" + port;
+            for (KeyValue store : namespaces.getAll()) {
+                QuorumCoordinator coordinator = null;
+                if (cluster.isReplicated()) {
+                    ReplicaNode replica = new ReplicaNode(store, cluster.getNodeId(), FaultInjector.fromEnv(store.getStats()),
+                            cluster.getTombstoneGraceMillis());
+                    replicas.add(replica);
+                    String replicaName = replicaServiceName(port, store.getName());
+                    registry.rebind(replicaName, replica);
+                    serviceNames.add(replicaName);
+                    services.add(replica);
+                    coordinator = new QuorumCoordinator(cluster, store.getName(), replica);
+                    coordinators.add(coordinator);
+                }
+                // Construct the RMI registry binding name with the provided port
+                String serviceName = serviceName(port, store.getName());
+                KeyValueRpcImpl keyValueStore = new KeyValueRpcImpl(store, coordinator, admission);
+                registry.rebind(serviceName, keyValueStore);
+                serviceNames.add(serviceName);
+                services.add(keyValueStore);
+                ServerLogger.info(String.format("Namespace %s bound as %s.", store.getName(), serviceName));
+            }
 
-            // Bind the KeyValueRpcImpl instance to the RMI registry
-            Naming.rebind("//localhost:" + port + "/" + serviceName, keyValueStore);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                ServerLogger.info("Shutting down; closing all namespaces.");
+                for (int i = 0; i < serviceNames.size(); i++) {
+                    try {
+                        registry.unbind(serviceNames.get(i));
+                        UnicastRemoteObject.unexportObject(services.get(i), true);
+                    } catch (RemoteException | NotBoundException e) {
+                        ServerLogger.error(String.format("Failed to unbind %s: %s", serviceNames.get(i), e.getMessage()));
+                    }
+                }
+                for (QuorumCoordinator coordinator : coordinators) {
+                    coordinator.close();
+                }
+                for (ReplicaNode replica : replicas) {
+                    try {
+                        replica.close();
+                    } catch (IOException e) {
+                        ServerLogger.error("Failed to save tombstones: " + e.getMessage());
+                    }
+                }
+                namespaces.closeAll();
+            }, "namespace-shutdown"));
 
             // Log server readiness
-            ServerLogger.info("Server ready and listening on port: " + port);
-        } catch (RemoteException | MalformedURLException e) {
+            ServerLogger.info(String.format("Server ready and listening on port: %d (%d ms after start)", port,
+                    System.currentTimeMillis() - appStartTime));
+            if (StartupWarmup.isTrainingRun()) {
+                ServerLogger.info("Training run finished; exiting.");
+                System.exit(0);
+            }
+        } catch (IOException | IllegalArgumentException e) {
             ServerLogger.error("Error occurred while setting up the server: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    /**
+     * Builds the registry name a namespace is bound under.
+     *
+     * @param port The RMI port.
+     * @param namespace The namespace name.
+     * @return The service name.
+     */
+    public static String serviceName(int port, String namespace) {
+        String serviceName = "rpc-server-" + port;
+        return StoreConfig.DEFAULT_NAMESPACE.equals(namespace) ? serviceName : serviceName + "/" + namespace;
+    }
+
+    /**
+     * Builds the registry name a namespace's replica is bound under, for the coordinators on other servers.
+     *
+     * @param port The RMI port.
+     * @param namespace The namespace name.
+     * @return The replica service name.
+     */
+    public static String replicaServiceName(int port, String namespace) {
+        return "replica-" + serviceName(port, namespace).substring("rpc-server-".length());
+    }
+
     /**
      * The main method is the entry point of the server application.
      *
@@ -1,8 +1,8 @@
 package server;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.TimeZone;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 
 /**
  * ServerLogger provides a simple logging utility for the server application. It supports
@@ -12,7 +12,21 @@ import java.util.TimeZone;
 public class ServerLogger {
 
     // Date format for the timestamp in log messages that maintains millisecond precision.
-    private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS";
+    // Built once: a SimpleDateFormat per message costs a locale data lookup, which also slows down startup.
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.of("America/Los_Angeles"));
+
+    // Benchmarks switch logging off so that they measure the store rather than the console.
+    private static volatile boolean enabled = true;
+
+    /**
+     * Turns logging on or off.
+     *
+     * @param on false to drop all messages until logging is turned on again.
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
 
     /**
      * Generates the current timestamp in a specified format.
@@ -21,9 +35,7 @@ public class ServerLogger {
      * @return A string representing the current timestamp in 'yyyy-MM-dd HH:mm:ss.SSS' format.
      */
     private static String getCurrentFormattedTime() {
-        SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
-        dateFormat.setTimeZone(TimeZone.getTimeZone("PST"));
-        return dateFormat.format(new Date());
+        return DATE_FORMAT.format(Instant.now());
     }
 
     /**
@@ -33,6 +45,9 @@ public class ServerLogger {
      * @param msg The message to be logged.
      */
     public static void info(String msg) {
+        if (!enabled) {
+            return;
+        }
         System.out.println(String.format("[PST-Time-Zone] %s [Level] INFO, [Message] %s", getCurrentFormattedTime(), msg));
     }
 
@@ -43,6 +58,9 @@ public class ServerLogger {
      * @param msg The message to be logged.
      */
     public static void error(String msg) {
+        if (!enabled) {
+            return;
+        }
         System.out.println(String.format("[PST-Time-Zone] %s [Level] ERROR, [Message] %s", getCurrentFormattedTime(), msg));
     }
 }
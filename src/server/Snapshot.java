@@ -0,0 +1,73 @@
+package server;
+
+import java.util.List;
+
+/**
+ * A consistent, read-only view of a {@link KeyValue} store as of one store version: every read
+ * through it sees the writes up to that version and none after, however long it stays open and
+ * however many writes happen meanwhile. Reads take no lock and never block writers. An open
+ * snapshot keeps the older versions it needs alive in the store's {@link MvccIndex}, so it must
+ * be closed when done. This class is thread-safe.
+ */
+public class Snapshot implements AutoCloseable {
+
+    private final MvccIndex index;
+    private final long version;
+    private volatile boolean closed;
+
+    Snapshot(MvccIndex index, long version) {
+        this.index = index;
+        this.version = version;
+    }
+
+    /**
+     * Gets the store version the snapshot reads at.
+     *
+     * @return The version of the last write the snapshot sees.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Reads a key as of the snapshot.
+     *
+     * @param key The key.
+     * @return The stored value, or null if the key did not exist at the snapshot.
+     * @throws IllegalStateException If the snapshot is closed.
+     */
+    public StoredValue get(ByteKey key) {
+        checkOpen();
+        return index.read(key, version);
+    }
+
+    /**
+     * Lists the keys of the snapshot in ascending order, without holding on to their values.
+     * The scan does not block writers; read the values with {@link #get(ByteKey)}.
+     *
+     * @return The sorted keys.
+     * @throws IllegalStateException If the snapshot is closed.
+     */
+    public List<ByteKey> keys() {
+        checkOpen();
+        return index.keys(version);
+    }
+
+    /**
+     * Releases the snapshot so that the versions only it could see can be collected.
+     * Calling this more than once has no effect.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            index.release(this);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException(String.format("Snapshot at version %d is closed.", version));
+        }
+    }
+}
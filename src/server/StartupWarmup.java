@@ -0,0 +1,135 @@
+package server;
+
+import api.KeyValueRpc;
+
+import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Exercises the request path before a server reports ready, so that its first client does not pay
+ * for class loading, RMI connection setup and interpreted code. It binds a throwaway in-memory
+ * namespace under {@code warmup-<port>} and looks it up through the registry as a client would.
+ * It then sends puts, gets, deletes, batches and snapshot reads to it over a loopback connection,
+ * and finally unbinds and closes it, so client data and counters are never touched.
+ * <p>
+ * Configured from the environment:
+ * <ul>
+ *     <li>{@code KV_WARMUP_REQUESTS}: the number of put, get and delete rounds to send; 0, the default,
+ *     skips the warm-up.</li>
+ *     <li>{@code KV_TRAINING_RUN}: when {@code true}, the server exits once it is ready instead of serving.
+ *     A training run with {@code -XX:DumpLoadedClassList} records the classes a started and warmed-up
+ *     server has loaded, from which {@code server/Dockerfile.fast} builds its class-data sharing archive.</li>
+ * </ul>
+ */
+public class StartupWarmup {
+
+    private static final int KEYS = 16;
+
+    private StartupWarmup() {
+    }
+
+    /**
+     * Reads the number of warm-up rounds from {@code KV_WARMUP_REQUESTS}.
+     *
+     * @return The number of rounds, 0 if the warm-up is off.
+     * @throws IllegalArgumentException If the setting is not a non-negative integer.
+     */
+    public static int roundsFromEnv() {
+        String rounds = System.getenv("KV_WARMUP_REQUESTS");
+        if (rounds == null || rounds.trim().isEmpty()) {
+            return 0;
+        }
+        try {
+            int parsed = Integer.parseInt(rounds.trim());
+            if (parsed < 0) {
+                throw new NumberFormatException(rounds);
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("KV_WARMUP_REQUESTS must be a non-negative integer: " + rounds);
+        }
+    }
+
+    /**
+     * Checks whether this is a training run, which exits once the server is ready.
+     *
+     * @return true if {@code KV_TRAINING_RUN} is {@code true}.
+     */
+    public static boolean isTrainingRun() {
+        return Boolean.parseBoolean(System.getenv("KV_TRAINING_RUN"));
+    }
+
+    /**
+     * Sends the warm-up requests through the registry on the given port. A failure is logged and
+     * otherwise ignored, as the server can serve without being warmed up.
+     *
+     * @param registry The registry the server binds its services in.
+     * @param port The registry's port, which the warm-up client connects to.
+     * @param rounds The number of put, get and delete rounds.
+     */
+    public static void run(Registry registry, int port, int rounds) {
+        long start = System.currentTimeMillis();
+        String name = "warmup-" + port;
+        KeyValue store = null;
+        KeyValueRpcImpl service = null;
+        boolean bound = false;
+        // Warm-up requests would otherwise log three lines each
+        ServerLogger.setEnabled(false);
+        try {
+            StoreConfig config = new StoreConfig("warmup");
+            config.set("engine", "memory");
+            store = new KeyValue(config);
+            service = new KeyValueRpcImpl(store);
+            registry.rebind(name, service);
+            bound = true;
+            KeyValueRpc stub = (KeyValueRpc) LocateRegistry.getRegistry("localhost", port).lookup(name);
+            String[] keys = new String[KEYS];
+            for (int i = 0; i < KEYS; i++) {
+                keys[i] = "warmup-" + i;
+            }
+            for (int i = 0; i < rounds; i++) {
+                String key = keys[i % KEYS];
+                stub.put(key, "value-" + i);
+                stub.get(key);
+                if (i % 4 == 3) {
+                    stub.delete(key);
+                }
+                if (i % KEYS == KEYS - 1) {
+                    Map<String, String> batch = new HashMap<>();
+                    batch.put(keys[0], "batch-" + i);
+                    batch.put(keys[1], "batch-" + i);
+                    stub.putAll(batch);
+                    stub.snapshotGet(keys);
+                }
+            }
+            ServerLogger.setEnabled(true);
+            ServerLogger.info(String.format("Warmed up the request path with %d rounds in %d ms.", rounds, System.currentTimeMillis() - start));
+        } catch (IOException | NotBoundException | IllegalArgumentException e) {
+            ServerLogger.setEnabled(true);
+            ServerLogger.error("Warm-up failed, serving without it: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ServerLogger.setEnabled(true);
+            ServerLogger.error("Warm-up was interrupted.");
+        } finally {
+            try {
+                if (bound) {
+                    registry.unbind(name);
+                }
+                if (service != null) {
+                    UnicastRemoteObject.unexportObject(service, true);
+                }
+                if (store != null) {
+                    store.close();
+                }
+            } catch (IOException | NotBoundException e) {
+                ServerLogger.error("Failed to close the warm-up namespace: " + e.getMessage());
+            }
+        }
+    }
+}
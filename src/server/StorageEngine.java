@@ -0,0 +1,115 @@
+package server;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Defines where a {@link KeyValue} store keeps its entries. The store serializes writes with its
+ * own mutex, but {@link #get(ByteKey)} and {@link #forEach(BiConsumer)} are called without it, so
+ * implementations must allow lookups and scans to run concurrently with one writer.
+ * Engines are selected per namespace with the {@code engine} option of {@link StoreConfig}.
+ */
+public interface StorageEngine {
+
+    /**
+     * Looks up a key.
+     *
+     * @param key The key.
+     * @return The stored value, or null if the key is not present.
+     */
+    StoredValue get(ByteKey key);
+
+    /**
+     * Inserts or replaces the value of a key. An engine that would have to read the previous value
+     * from disk may return null instead, and hand the value to the listener set by
+     * {@link #setReplacedListener(Consumer)} once it has looked it up in the background.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @return The previous value, or null if the key was not present or its previous value is reported later.
+     */
+    StoredValue put(ByteKey key, StoredValue value);
+
+    /**
+     * Removes a key. The caller must have found the key present: engines that do not look the
+     * key up again count it as removed regardless.
+     *
+     * @param key The key.
+     * @param sequence The change sequence of the removal, which no value is left to carry.
+     * @return The removed value, or null if the engine did not look it up.
+     */
+    StoredValue remove(ByteKey key, long sequence);
+
+    /**
+     * Gets the highest change sequence the engine has seen, that of removals included. Engines that
+     * persist data persist it too, so that a restarted store never hands out a sequence again,
+     * even when its newest changes were removals.
+     *
+     * @return The highest sequence of a put or removal, or 0 if none is known.
+     */
+    long getSequence();
+
+    /**
+     * Gets the number of keys. Engines that report previous values later count a replaced key
+     * twice until they have looked it up.
+     *
+     * @return The key count.
+     */
+    int size();
+
+    /**
+     * Sets the callback receiving the values that {@link #put(ByteKey, StoredValue)} replaced
+     * without returning them, so the store can take them off its counters. It is called from a
+     * background thread. The default ignores it, for engines that return every previous value.
+     *
+     * @param listener The callback receiving each replaced value.
+     */
+    default void setReplacedListener(Consumer<StoredValue> listener) {
+    }
+
+    /**
+     * Visits every entry, in no particular order. Writes made during the scan may or may not be
+     * visited, but entries present throughout are visited exactly once, and the scan must not
+     * block writers.
+     *
+     * @param visitor The callback receiving each key and value.
+     */
+    void forEach(BiConsumer<ByteKey, StoredValue> visitor);
+
+    /**
+     * Takes a copy of the engine's own counters, reported by the {@code stats} RPC alongside the store's.
+     *
+     * @return A map from counter name to value; empty for engines without counters.
+     */
+    default Map<String, Long> stats() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Runs a group of writes, made through {@link #put(ByteKey, StoredValue)} and {@link #remove(ByteKey, long)}
+     * by the given code, as one commit: engines that log changes write the group's records out once,
+     * after the last write, rather than once per write. The default just runs the code.
+     *
+     * @param writes The code making the writes.
+     */
+    default void writeGroup(Runnable writes) {
+        writes.run();
+    }
+
+    /**
+     * Makes every change so far durable. Engines without persistence do nothing.
+     *
+     * @throws IOException If the data cannot be written.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Flushes the engine and releases its resources. The engine must not be used afterwards.
+     *
+     * @throws IOException If the data cannot be written.
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,482 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Measures the server-side request path in process, without RMI, on a hot-key workload: many
+ * threads reading and writing a handful of keys. Each run is repeated with request coalescing
+ * switched off and on, and reports the throughput and the coalescing ratios.
+ * Logging is switched off during the runs so that the console does not dominate the result.
+ * <p>
+ * Usage: {@code java -cp server.jar server.StoreBenchmark [threads] [seconds] [hotKeys] [readPercent] [valueSize]}
+ * <p>
+ * With {@code --tenants [seconds]} it instead measures noisy-neighbor isolation: one client floods the
+ * store from many threads while two quiet clients make one request at a time, first without admission
+ * control and then with fair scheduling, and reports each client's throughput and latency percentiles.
+ * <p>
+ * With {@code --engines [keys] [valueSize]} it compares the storage engines: it loads the keys into a
+ * memory and an lsm namespace, overwrites half of them, then reads existing, missing and hot keys,
+ * and reports throughput, heap used, and the read and write amplification of the lsm engine,
+ * including the blocks its writes read to look up the previous values.
+ * <p>
+ * With {@code --mvcc [seconds]} it measures whether readers hold up writers: a writer moves units
+ * between account keys with {@link KeyValue#putAll(Map)}, first alone, then while readers check the
+ * total with {@link KeyValue#snapshotGet(String...)} and with plain gets, and a full export scans
+ * the store over and over. It reports write throughput and latency, and how often each kind of
+ * read saw a total that never existed.
+ * <p>
+ * With {@code --writes [seconds]} it measures write combining, see {@link WriteCombiner}: at 1 to 64
+ * writing threads, each putting (90%) and deleting (10%) random keys out of 100,000, it compares
+ * throughput and latency percentiles with combining off and on, and reports the average batch size.
+ */
+public class StoreBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Optional thread count, seconds per run, number of hot keys, percentage of reads and value size.
+     * @throws Exception If a run fails.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--engines")) {
+            engines(args.length > 1 ? Integer.parseInt(args[1]) : 200_000, args.length > 2 ? Integer.parseInt(args[2]) : 1000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--mvcc")) {
+            mvcc(args.length > 1 ? Integer.parseInt(args[1]) : 5);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--writes")) {
+            writes(args.length > 1 ? Integer.parseInt(args[1]) : 3, args.length > 2 ? args[2] : "memory");
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--tenants")) {
+            tenants(args.length > 1 ? Integer.parseInt(args[1]) : 5);
+            return;
+        }
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int hotKeys = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int readPercent = args.length > 3 ? Integer.parseInt(args[3]) : 90;
+        int valueSize = args.length > 4 ? Integer.parseInt(args[4]) : 16 * 1024;
+        System.out.println(String.format("Hot-key workload: %d threads, %d keys, %d%% reads, %d-byte values, %d s per run.",
+                threads, hotKeys, readPercent, valueSize, seconds));
+
+        ServerLogger.setEnabled(false);
+        double baseline = run(false, threads, seconds, hotKeys, readPercent, valueSize);
+        double coalesced = run(true, threads, seconds, hotKeys, readPercent, valueSize);
+        ServerLogger.setEnabled(true);
+        System.out.println(String.format("Throughput gain from coalescing: %.2fx", coalesced / baseline));
+    }
+
+    private static double run(boolean coalesce, int threads, int seconds, int hotKeys, int readPercent, int valueSize) throws Exception {
+        StoreConfig config = new StoreConfig(coalesce ? "coalesced" : "baseline");
+        config.set("coalesce", String.valueOf(coalesce));
+        KeyValue store = new KeyValue(config);
+        KeyValueRpcImpl service = new KeyValueRpcImpl(store);
+        String value = sampleValue(valueSize);
+        for (int i = 0; i < hotKeys; i++) {
+            service.put("hot-" + i, value);
+        }
+
+        LongAdder ops = new LongAdder();
+        CountDownLatch done = new CountDownLatch(threads);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    while (System.nanoTime() < deadline) {
+                        String key = "hot-" + random.nextInt(hotKeys);
+                        if (random.nextInt(100) < readPercent) {
+                            service.get(key);
+                        } else {
+                            service.put(key, value);
+                        }
+                        ops.increment();
+                    }
+                } catch (Exception e) {
+                    System.err.println("Benchmark thread failed: " + e);
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.start();
+        }
+        done.await();
+
+        double throughput = ops.sum() / (double) seconds;
+        Map<String, Long> stats = service.stats();
+        System.out.println(String.format("coalescing %-3s: %,12.0f ops/s", coalesce ? "on" : "off", throughput));
+        if (coalesce) {
+            System.out.println(String.format("  gets %,d -> %,d lookups (ratio %.1f), puts %,d -> %,d mutations (ratio %.1f)",
+                    stats.get("coalesce.getRequests"), stats.get("coalesce.getLookups"),
+                    ratio(stats.get("coalesce.getRequests"), stats.get("coalesce.getLookups")),
+                    stats.get("coalesce.putRequests"), stats.get("coalesce.putMutations"),
+                    ratio(stats.get("coalesce.putRequests"), stats.get("coalesce.putMutations"))));
+        }
+        UnicastRemoteObject.unexportObject(service, true);
+        store.close();
+        return throughput;
+    }
+
+    private static void tenants(int seconds) throws Exception {
+        int noisyThreads = 32;
+        System.out.println(String.format("Noisy neighbor: client noisy with %d threads, clients quiet-1 and quiet-2 with 1 thread each, "
+                + "16384-byte values, %d s per run.", noisyThreads, seconds));
+        ServerLogger.setEnabled(false);
+        for (int run = 0; run < 2; run++) {
+            boolean fair = run == 1;
+            KeyValue store = new KeyValue(new StoreConfig("tenants"));
+            AdmissionController admission = fair
+                    ? new AdmissionController(0, 0, new HashMap<>(), new HashMap<>(),
+                    new FairScheduler(Runtime.getRuntime().availableProcessors(), 256, 1000))
+                    : null;
+            KeyValueRpcImpl service = new KeyValueRpcImpl(store, null, admission);
+            String value = sampleValue(16 * 1024);
+            for (int i = 0; i < 1000; i++) {
+                service.put("key-" + i, value);
+            }
+            String[] clients = {"noisy", "quiet-1", "quiet-2"};
+            int[] threadCounts = {noisyThreads, 1, 1};
+            List<List<Long>> latencies = new ArrayList<>();
+            List<Thread> threads = new ArrayList<>();
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            for (int c = 0; c < clients.length; c++) {
+                List<Long> clientLatencies = Collections.synchronizedList(new ArrayList<>());
+                latencies.add(clientLatencies);
+                String client = clients[c];
+                for (int t = 0; t < threadCounts[c]; t++) {
+                    Thread thread = new Thread(() -> {
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        List<Long> local = new ArrayList<>();
+                        try {
+                            while (System.nanoTime() < deadline) {
+                                String key = "key-" + random.nextInt(1000);
+                                long start = System.nanoTime();
+                                service.runAs(client, () -> service.get(key));
+                                local.add(System.nanoTime() - start);
+                            }
+                        } catch (Exception e) {
+                            System.err.println("Benchmark thread failed: " + e);
+                        }
+                        clientLatencies.addAll(local);
+                    });
+                    threads.add(thread);
+                    thread.start();
+                }
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            System.out.println(fair ? "fair scheduling:" : "no admission control:");
+            for (int c = 0; c < clients.length; c++) {
+                List<Long> sorted = new ArrayList<>(latencies.get(c));
+                Collections.sort(sorted);
+                System.out.println(String.format("  %-8s %,10.0f req/s   p50 %8.2f ms   p99 %8.2f ms", clients[c],
+                        sorted.size() / (double) seconds, percentile(sorted, 50), percentile(sorted, 99)));
+            }
+            UnicastRemoteObject.unexportObject(service, true);
+            store.close();
+        }
+        ServerLogger.setEnabled(true);
+    }
+
+    private static void engines(int keys, int valueSize) throws Exception {
+        System.out.println(String.format("Engines: %,d keys with %d-byte random values, then %,d overwrites.", keys, valueSize, keys / 2));
+        ServerLogger.setEnabled(false);
+        Path dataDir = Files.createTempDirectory("kv-bench");
+        for (String engine : new String[]{"memory", "lsm"}) {
+            StoreConfig config = new StoreConfig("bench");
+            config.set("engine", engine);
+            config.set("changeHistory", "1000");
+            if (engine.equals("lsm")) {
+                config.set("dataDir", dataDir.toString());
+            }
+            KeyValue store = new KeyValue(config);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            byte[] value = new byte[valueSize];
+            long start = System.nanoTime();
+            for (int i = 0; i < keys + keys / 2; i++) {
+                random.nextBytes(value);
+                store.putBytes(benchKey(i < keys ? i : random.nextInt(keys)), value.clone());
+            }
+            double writeRate = (keys + keys / 2) / ((System.nanoTime() - start) / 1e9);
+            Map<String, Long> afterWrites = store.stats();
+
+            int reads = Math.min(keys, 100_000);
+            double existing = readRate(store, reads, keys, 0);
+            Map<String, Long> afterExisting = store.stats();
+            double missing = readRate(store, reads, keys, keys);
+            Map<String, Long> afterMissing = store.stats();
+            double hot = readRate(store, reads, Math.max(1, keys / 100), 0);
+            Map<String, Long> afterHot = store.stats();
+            System.gc();
+            long heap = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+
+            System.out.println(String.format("%s: writes %,.0f ops/s, reads %,.0f ops/s existing, %,.0f ops/s missing, "
+                    + "%,.0f ops/s hot 1%%; heap used %,d MB", engine, writeRate, existing, missing, hot, heap >> 20));
+            if (engine.equals("lsm")) {
+                long user = afterWrites.getOrDefault("lsm.userBytes", 0L);
+                long wal = afterWrites.getOrDefault("lsm.walBytes", 0L);
+                long segments = afterWrites.getOrDefault("lsm.bytesWritten", 0L);
+                System.out.println(String.format("  write amplification %.2f (log %.2f, flushes and compactions %.2f); "
+                                + "%d flushes, %d compactions, %d segments, %,d MB on disk, %,d KB of indexes and filters",
+                        (wal + segments) / (double) user, wal / (double) user, segments / (double) user,
+                        afterWrites.getOrDefault("lsm.flushes", 0L), afterWrites.getOrDefault("lsm.compactions", 0L),
+                        afterHot.get("lsm.segments"), afterHot.get("lsm.diskBytes") >> 20, afterHot.get("lsm.indexBytes") >> 10));
+                // Puts do not read from disk; flushes look up the previous values the memtable did not hold
+                System.out.println(String.format("  flush lookups: %,d keys, %.2f blocks read from disk per write on the flush thread",
+                        afterWrites.getOrDefault("lsm.flushLookups", 0L),
+                        afterWrites.getOrDefault("lsm.blockReads", 0L) / (double) (keys + keys / 2)));
+                System.out.println(String.format("  read amplification: %.2f blocks read from disk per existing get, "
+                                + "%.3f per missing get (%,d segment probes skipped by Bloom filters), %.2f per hot get",
+                        delta(afterExisting, afterWrites, "lsm.blockReads") / (double) reads,
+                        delta(afterMissing, afterExisting, "lsm.blockReads") / (double) reads,
+                        delta(afterMissing, afterExisting, "lsm.bloomSkips"),
+                        delta(afterHot, afterMissing, "lsm.blockReads") / (double) reads));
+            }
+            store.close();
+        }
+        try (Stream<Path> files = Files.walk(dataDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        ServerLogger.setEnabled(true);
+    }
+
+    private static void mvcc(int seconds) throws Exception {
+        int accounts = 100;
+        int fillers = 100_000;
+        System.out.println(String.format("MVCC: %d accounts moved by one writer, %,d other keys, %d s per run.", accounts, fillers, seconds));
+        ServerLogger.setEnabled(false);
+        KeyValue store = new KeyValue(new StoreConfig("mvcc"));
+        String[] keys = new String[accounts];
+        Map<String, String> initial = new HashMap<>();
+        for (int i = 0; i < accounts; i++) {
+            keys[i] = "account-" + i;
+            initial.put(keys[i], "1000");
+        }
+        store.putAll(initial);
+        byte[] filler = new byte[1000];
+        for (int i = 0; i < fillers; i++) {
+            store.putBytes(benchKey(i), filler);
+        }
+        for (int run = 0; run < 2; run++) {
+            boolean readers = run == 1;
+            AtomicBoolean stop = new AtomicBoolean();
+            LongAdder snapshotReads = new LongAdder();
+            LongAdder snapshotTorn = new LongAdder();
+            LongAdder plainReads = new LongAdder();
+            LongAdder plainTorn = new LongAdder();
+            LongAdder exports = new LongAdder();
+            List<Thread> threads = new ArrayList<>();
+            if (readers) {
+                for (int t = 0; t < 2; t++) {
+                    threads.add(new Thread(() -> {
+                        while (!stop.get()) {
+                            if (sum(store.snapshotGet(keys)) != accounts * 1000L) {
+                                snapshotTorn.increment();
+                            }
+                            snapshotReads.increment();
+                            String[] values = new String[accounts];
+                            for (int i = 0; i < accounts; i++) {
+                                values[i] = store.get(keys[i]);
+                            }
+                            if (sum(values) != accounts * 1000L) {
+                                plainTorn.increment();
+                            }
+                            plainReads.increment();
+                        }
+                    }));
+                }
+                threads.add(new Thread(() -> {
+                    while (!stop.get()) {
+                        try (Snapshot snapshot = store.openSnapshot()) {
+                            for (ByteKey key : snapshot.keys()) {
+                                snapshot.get(key);
+                            }
+                        }
+                        exports.increment();
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            List<Long> latencies = new ArrayList<>();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            while (System.nanoTime() < deadline) {
+                int from = random.nextInt(accounts);
+                int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+                Map<String, String> transfer = new HashMap<>();
+                transfer.put(keys[from], String.valueOf(Long.parseLong(store.get(keys[from])) - 1));
+                transfer.put(keys[to], String.valueOf(Long.parseLong(store.get(keys[to])) + 1));
+                long start = System.nanoTime();
+                store.putAll(transfer);
+                latencies.add(System.nanoTime() - start);
+            }
+            stop.set(true);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            Collections.sort(latencies);
+            System.out.println(String.format("%s: %,.0f transfers/s, write p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+                    readers ? "with readers and exports" : "writer alone", latencies.size() / (double) seconds,
+                    percentile(latencies, 50), percentile(latencies, 99), latencies.get(latencies.size() - 1) / 1e6));
+            if (readers) {
+                System.out.println(String.format("  %,d full exports of %,d keys; inconsistent totals: %,d of %,d snapshot reads, "
+                                + "%,d of %,d plain reads", exports.sum(), fillers + accounts, snapshotTorn.sum(), snapshotReads.sum(),
+                        plainTorn.sum(), plainReads.sum()));
+            }
+        }
+        Thread.sleep(1500);
+        Map<String, Long> stats = store.stats();
+        System.out.println(String.format("Versions recorded %,d, collected %,d, chains left %,d, open snapshots %d.",
+                stats.getOrDefault("mvcc.versionsRecorded", 0L), stats.getOrDefault("mvcc.versionsCollected", 0L),
+                stats.get("mvcc.chains"), stats.get("mvcc.openSnapshots")));
+        store.close();
+        ServerLogger.setEnabled(true);
+    }
+
+    private static void writes(int seconds, String engine) throws Exception {
+        int[] threadCounts = {1, 2, 4, 8, 16, 32, 64};
+        System.out.println(String.format("Writes: 90%% puts and 10%% deletes of 100,000 random keys, 100-byte values, %s engine, %d s per run.",
+                engine, seconds));
+        ServerLogger.setEnabled(false);
+        String value = sampleValue(100);
+        Path dataDir = Files.createTempDirectory("kv-bench");
+        // An untimed round of each, so that the first rows are not measured while the code is being compiled
+        writeRun(engine, dataDir.resolve("warmup-off"), false, 8, 1, value);
+        writeRun(engine, dataDir.resolve("warmup-on"), true, 8, 1, value);
+        System.out.println("threads | combining off: ops/s, p50, p99      | combining on: ops/s, p50, p99       | avg batch");
+        for (int threads : threadCounts) {
+            System.out.println(String.format("%7d%s%s", threads,
+                    writeRun(engine, dataDir.resolve(threads + "-off"), false, threads, seconds, value),
+                    writeRun(engine, dataDir.resolve(threads + "-on"), true, threads, seconds, value)));
+        }
+        try (Stream<Path> files = Files.walk(dataDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        ServerLogger.setEnabled(true);
+    }
+
+    /**
+     * Runs the write workload on a new namespace and formats its throughput, latency and, when
+     * combining, average batch size as columns of the --writes table.
+     */
+    private static String writeRun(String engine, Path dir, boolean combine, int threads, int seconds, String value) throws Exception {
+        StoreConfig config = new StoreConfig(combine ? "combined" : "uncombined");
+        config.set("coalesce", "false");
+        config.set("combineWrites", String.valueOf(combine));
+        config.set("engine", engine);
+        if (engine.equals("lsm")) {
+            config.set("dataDir", dir.toString());
+        }
+        KeyValue store = new KeyValue(config);
+        KeyValueRpcImpl service = new KeyValueRpcImpl(store);
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> workers = new ArrayList<>();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                List<Long> local = new ArrayList<>();
+                try {
+                    while (System.nanoTime() < deadline) {
+                        String key = "key-" + random.nextInt(100_000);
+                        long start = System.nanoTime();
+                        if (random.nextInt(10) == 0) {
+                            service.delete(key);
+                        } else {
+                            service.put(key, value);
+                        }
+                        local.add(System.nanoTime() - start);
+                    }
+                } catch (Exception e) {
+                    System.err.println("Benchmark thread failed: " + e);
+                }
+                latencies.addAll(local);
+            });
+            workers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : workers) {
+            thread.join();
+        }
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        String columns = String.format(" | %,11.0f %8.3f ms %8.3f ms", sorted.size() / (double) seconds,
+                percentile(sorted, 50), percentile(sorted, 99));
+        if (combine) {
+            Map<String, Long> stats = service.stats();
+            columns += String.format(" | %9.1f", ratio(stats.get("combine.writes"), stats.get("combine.batches")));
+        }
+        UnicastRemoteObject.unexportObject(service, true);
+        store.close();
+        return columns;
+    }
+
+    private static long sum(String[] values) {
+        long total = 0;
+        for (String value : values) {
+            total += Long.parseLong(value);
+        }
+        return total;
+    }
+
+    private static double readRate(KeyValue store, int reads, int range, int offset) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            store.getBytes(benchKey(offset + random.nextInt(range)));
+        }
+        return reads / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static byte[] benchKey(int i) {
+        return String.format("key-%010d", i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long delta(Map<String, Long> after, Map<String, Long> before, String counter) {
+        return after.getOrDefault(counter, 0L) - before.getOrDefault(counter, 0L);
+    }
+
+    private static double percentile(List<Long> sorted, int p) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        return sorted.get(Math.min(sorted.size() - 1, sorted.size() * p / 100)) / 1e6;
+    }
+
+    /**
+     * Builds a JSON-like value that compresses about as well as typical documents.
+     */
+    private static String sampleValue(int size) {
+        StringBuilder sb = new StringBuilder(size + 64);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (sb.length() < size) {
+            sb.append("{\"id\":").append(random.nextInt(1_000_000)).append(",\"status\":\"active\",\"score\":")
+                    .append(random.nextInt(100)).append("},");
+        }
+        return sb.substring(0, size);
+    }
+
+    private static double ratio(long requests, long executions) {
+        return executions == 0 ? 1.0 : (double) requests / executions;
+    }
+}
@@ -0,0 +1,282 @@
+package server;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import api.ValueCodec;
+
+/**
+ * Holds the configuration of one namespace, an isolated key-value store hosted by the server
+ * with its own storage engine, value encoding, change feed and persistence.
+ * <p>
+ * Namespaces are declared with the {@code KV_NAMESPACES} environment variable as a list of names
+ * separated by ';', each optionally followed by ':' and comma-separated {@code option=value} pairs,
+ * for example {@code default;users:compressThreshold=256,dataDir=/data}. Options that are not given
+ * fall back to the server-wide {@code KV_*} environment variables, then to built-in defaults.
+ */
+public class StoreConfig {
+
+    // Name of the namespace bound under the original service name, for existing clients.
+    public static final String DEFAULT_NAMESPACE = "default";
+
+    private final String name;
+    private String engine = "memory";
+    private int compressThreshold = 1024;
+    private int chunkSize = 64 * 1024;
+    private int changeHistory = 100_000;
+    private int watchBuffer = 10_000;
+    private int watchThreads = 8;
+    private Path dataDir;
+    private boolean coalesce;
+    private int writeWindowMicros;
+    private boolean combineWrites;
+    private long memtableBytes = 4L << 20;
+    private long blockCacheBytes = 32L << 20;
+    private int compactionTrigger = 4;
+
+    /**
+     * Constructs a StoreConfig with the built-in defaults.
+     *
+     * @param name The namespace name.
+     */
+    public StoreConfig(String name) {
+        if (name == null || !name.matches("[A-Za-z0-9_-]+")) {
+            throw new IllegalArgumentException(String.format("Invalid namespace name [%s]. Use letters, digits, '_' and '-'.", name));
+        }
+        this.name = name;
+    }
+
+    /**
+     * Reads the namespace configurations from the environment. Without {@code KV_NAMESPACES},
+     * a single {@value #DEFAULT_NAMESPACE} namespace is configured.
+     *
+     * @return The configurations, in declaration order.
+     * @throws IllegalArgumentException If the declaration is malformed.
+     */
+    public static List<StoreConfig> fromEnv() {
+        String declaration = System.getenv("KV_NAMESPACES");
+        if (declaration == null || declaration.trim().isEmpty()) {
+            declaration = DEFAULT_NAMESPACE;
+        }
+        List<StoreConfig> configs = new ArrayList<>();
+        for (String entry : declaration.split(";")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = entry.split(":", 2);
+            StoreConfig config = new StoreConfig(parts[0].trim());
+            config.applyEnvDefaults();
+            if (parts.length > 1) {
+                for (String option : parts[1].split(",")) {
+                    String[] kv = option.split("=", 2);
+                    if (kv.length != 2) {
+                        throw new IllegalArgumentException(String.format("Invalid option [%s] for namespace %s.", option, config.name));
+                    }
+                    config.set(kv[0].trim(), kv[1].trim());
+                }
+            }
+            configs.add(config);
+        }
+        return configs;
+    }
+
+    /**
+     * Sets an option by name.
+     *
+     * @param option The option name, e.g. "compressThreshold".
+     * @param value The option value.
+     * @throws IllegalArgumentException If the option is unknown or the value is invalid.
+     */
+    public void set(String option, String value) {
+        try {
+            switch (option) {
+                case "engine": engine = value; break;
+                case "compressThreshold": compressThreshold = Integer.parseInt(value); break;
+                case "chunkSize": chunkSize = Integer.parseInt(value); break;
+                case "changeHistory": changeHistory = Integer.parseInt(value); break;
+                case "watchBuffer": watchBuffer = Integer.parseInt(value); break;
+                case "watchThreads": watchThreads = Integer.parseInt(value); break;
+                case "dataDir": dataDir = value.isEmpty() ? null : Paths.get(value); break;
+                case "coalesce": coalesce = Boolean.parseBoolean(value); break;
+                case "writeWindowMicros": writeWindowMicros = Integer.parseInt(value); break;
+                case "combineWrites": combineWrites = Boolean.parseBoolean(value); break;
+                case "memtableBytes": memtableBytes = Long.parseLong(value); break;
+                case "blockCacheBytes": blockCacheBytes = Long.parseLong(value); break;
+                case "compactionTrigger": compactionTrigger = Integer.parseInt(value); break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown option [%s] for namespace %s.", option, name));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Option %s of namespace %s must be an integer: %s", option, name, value));
+        }
+    }
+
+    private void applyEnvDefaults() {
+        String[][] envOptions = {
+                {"KV_ENGINE", "engine"},
+                {"KV_COMPRESS_THRESHOLD", "compressThreshold"},
+                {"KV_CHUNK_SIZE", "chunkSize"},
+                {"KV_CHANGE_HISTORY", "changeHistory"},
+                {"KV_WATCH_BUFFER", "watchBuffer"},
+                {"KV_WATCH_THREADS", "watchThreads"},
+                {"KV_DATA_DIR", "dataDir"},
+                {"KV_COALESCE", "coalesce"},
+                {"KV_WRITE_WINDOW_MICROS", "writeWindowMicros"},
+                {"KV_COMBINE_WRITES", "combineWrites"},
+                {"KV_MEMTABLE_BYTES", "memtableBytes"},
+                {"KV_BLOCK_CACHE_BYTES", "blockCacheBytes"},
+                {"KV_COMPACTION_TRIGGER", "compactionTrigger"},
+        };
+        for (String[] envOption : envOptions) {
+            String value = System.getenv(envOption[0]);
+            if (value != null && !value.trim().isEmpty()) {
+                set(envOption[1], value.trim());
+            }
+        }
+    }
+
+    /**
+     * Gets the namespace name.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the storage engine type.
+     *
+     * @return The engine name, "memory" or "lsm".
+     */
+    public String getEngine() {
+        return engine;
+    }
+
+    /**
+     * Gets the chunk size at which values are compressed.
+     *
+     * @return The threshold in bytes, or {@link ValueCodec#NEVER_COMPRESS} if compression is disabled.
+     */
+    public int getCompressThreshold() {
+        return compressThreshold <= 0 ? ValueCodec.NEVER_COMPRESS : compressThreshold;
+    }
+
+    /**
+     * Gets the maximum number of value bytes per stored chunk.
+     *
+     * @return The chunk size in bytes, at least 1024.
+     */
+    public int getChunkSize() {
+        return Math.max(1024, chunkSize);
+    }
+
+    /**
+     * Gets the number of change events retained for watchers that resume.
+     *
+     * @return The history size.
+     */
+    public int getChangeHistory() {
+        return changeHistory;
+    }
+
+    /**
+     * Gets the number of undelivered events a watcher may fall behind.
+     *
+     * @return The buffer capacity.
+     */
+    public int getWatchBuffer() {
+        return watchBuffer;
+    }
+
+    /**
+     * Gets the number of threads delivering change events.
+     *
+     * @return The thread count.
+     */
+    public int getWatchThreads() {
+        return watchThreads;
+    }
+
+    /**
+     * Gets the directory the namespace persists its data to.
+     *
+     * @return The data directory, or null if the namespace is memory-only.
+     */
+    public Path getDataDir() {
+        return dataDir;
+    }
+
+    /**
+     * Indicates whether concurrent identical gets and puts of a key are merged, see
+     * {@link api.RequestCoalescer}. Off by default, since merging costs more than it saves for
+     * small in-process values.
+     *
+     * @return true if requests are coalesced.
+     */
+    public boolean isCoalesce() {
+        return coalesce;
+    }
+
+    /**
+     * Gets how long a merged put waits for more puts to the same key before it is applied.
+     *
+     * @return The window in microseconds, 0 to apply as soon as the previous put of the key finishes.
+     */
+    public int getWriteWindowMicros() {
+        return Math.max(0, writeWindowMicros);
+    }
+
+    /**
+     * Indicates whether concurrent puts and deletes of different keys are applied in batches, see
+     * {@link WriteCombiner}.
+     *
+     * @return true if writes are combined.
+     */
+    public boolean isCombineWrites() {
+        return combineWrites;
+    }
+
+    /**
+     * Gets the memtable size at which the lsm engine writes it to a segment file.
+     *
+     * @return The size in bytes.
+     */
+    public long getMemtableBytes() {
+        return memtableBytes;
+    }
+
+    /**
+     * Gets the capacity of the lsm engine's cache of segment blocks.
+     *
+     * @return The capacity in bytes, 0 if blocks are not cached.
+     */
+    public long getBlockCacheBytes() {
+        return Math.max(0, blockCacheBytes);
+    }
+
+    /**
+     * Gets the number of similar-sized segments the lsm engine merges into one.
+     *
+     * @return The segment count.
+     */
+    public int getCompactionTrigger() {
+        return compactionTrigger;
+    }
+
+    /**
+     * Returns a string representation of the StoreConfig.
+     *
+     * @return A string containing all options.
+     */
+    @Override
+    public String toString() {
+        return String.format("StoreConfig {name=%s, engine=%s, compressThreshold=%d, chunkSize=%d, changeHistory=%d, " +
+                        "watchBuffer=%d, watchThreads=%d, dataDir=%s, coalesce=%b, writeWindowMicros=%d, combineWrites=%b, " +
+                        "memtableBytes=%d, blockCacheBytes=%d, compactionTrigger=%d}",
+                name, engine, compressThreshold, chunkSize, changeHistory, watchBuffer, watchThreads, dataDir, coalesce,
+                writeWindowMicros, combineWrites, memtableBytes, blockCacheBytes, compactionTrigger);
+    }
+}
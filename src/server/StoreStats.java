@@ -0,0 +1,59 @@
+package server;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects named counters for the key-value store, such as byte counts and time spent compressing.
+ * Counters are striped {@link LongAdder}s so that updating them from many request threads does not
+ * become a point of contention of its own.
+ */
+public class StoreStats {
+
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Adds a delta to a counter, creating the counter on first use.
+     *
+     * @param name The counter name.
+     * @param delta The amount to add; may be negative.
+     */
+    public void add(String name, long delta) {
+        counters.computeIfAbsent(name, n -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * Increments a counter by one.
+     *
+     * @param name The counter name.
+     */
+    public void increment(String name) {
+        add(name, 1);
+    }
+
+    /**
+     * Gets the current value of a counter.
+     *
+     * @param name The counter name.
+     * @return The counter value, or 0 if it has never been updated.
+     */
+    public long get(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Takes a sorted copy of all counters.
+     *
+     * @return A map from counter name to value.
+     */
+    public Map<String, Long> toMap() {
+        Map<String, Long> copy = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().sum());
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,352 @@
+package server;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import api.ValueCodec;
+
+/**
+ * Holds a value as it is kept in the {@link KeyValue} store: the value bytes are split into
+ * fixed-size chunks and each chunk is a {@link ValueCodec} block, compressed when it is large enough.
+ * Chunks are encoded independently, so one chunk can be served to a client without touching the
+ * rest of the value, and no value ever needs one contiguous array larger than a chunk.
+ * Small values below the compression threshold are kept as the caller's byte array as is,
+ * so they are stored and served without any encoding or copying.
+ * A value written by a replica also carries the timestamp and writer id of the replicated write,
+ * which are persisted with it so that last-writer-wins still holds after a restart.
+ * Instances are immutable.
+ */
+public class StoredValue {
+
+    // Added to the form byte of values that carry a replication stamp
+    private static final int STAMPED_FORM = 2;
+
+    private final byte[][] chunks;
+    private final byte[] raw;
+    private final long length;
+    private final long storedSize;
+    private final long version;
+    private final long stampTime;
+    private final String stampWriter;
+
+    /**
+     * Constructs a StoredValue from encoded chunks.
+     *
+     * @param chunks The encoded chunks, in order.
+     * @param length The length in bytes of the whole decoded value.
+     * @param version The store version assigned to this write.
+     */
+    public StoredValue(byte[][] chunks, long length, long version) {
+        this.chunks = chunks;
+        this.raw = null;
+        this.length = length;
+        this.version = version;
+        this.stampTime = 0;
+        this.stampWriter = null;
+        long size = 0;
+        for (byte[] chunk : chunks) {
+            size += chunk.length;
+        }
+        this.storedSize = size;
+    }
+
+    /**
+     * Constructs a StoredValue that holds a small value unencoded. The array is not copied and
+     * must not be modified afterwards.
+     *
+     * @param raw The value bytes.
+     * @param version The store version assigned to this write.
+     */
+    public StoredValue(byte[] raw, long version) {
+        this.chunks = null;
+        this.raw = raw;
+        this.length = raw.length;
+        this.version = version;
+        this.storedSize = raw.length;
+        this.stampTime = 0;
+        this.stampWriter = null;
+    }
+
+    /**
+     * Constructs a copy of a StoredValue with a new version. The value bytes and the replication
+     * stamp are shared, not copied.
+     *
+     * @param value The value to copy.
+     * @param version The store version assigned to this write.
+     */
+    public StoredValue(StoredValue value, long version) {
+        this(value, version, value.stampTime, value.stampWriter);
+    }
+
+    private StoredValue(StoredValue value, long version, long stampTime, String stampWriter) {
+        this.chunks = value.chunks;
+        this.raw = value.raw;
+        this.length = value.length;
+        this.storedSize = value.storedSize;
+        this.version = version;
+        this.stampTime = stampTime;
+        this.stampWriter = stampWriter;
+    }
+
+    /**
+     * Returns a copy of this value stamped with the timestamp and writer of a replicated write.
+     * The value bytes are shared, not copied.
+     *
+     * @param timestamp The timestamp of the write.
+     * @param writerId The id of the node that coordinated the write.
+     * @return The stamped copy.
+     */
+    public StoredValue withStamp(long timestamp, String writerId) {
+        if (writerId == null) {
+            throw new IllegalArgumentException("Writer id must not be null.");
+        }
+        return new StoredValue(this, version, timestamp, writerId);
+    }
+
+    /**
+     * Prepares value bytes for storage: values that fit in one chunk and are below the compression
+     * threshold are kept as they are, larger values are split into encoded chunks.
+     *
+     * @param raw The value bytes; not copied when kept as they are.
+     * @param chunkSize The maximum number of value bytes per chunk.
+     * @param threshold The chunk size at which compression is attempted.
+     * @return An unversioned StoredValue.
+     */
+    public static StoredValue encode(byte[] raw, int chunkSize, int threshold) {
+        if (raw.length < threshold && raw.length <= chunkSize) {
+            return new StoredValue(raw, 0);
+        }
+        byte[][] chunks = encodeChunks(raw, chunkSize, threshold);
+        return new StoredValue(chunks, raw.length, 0);
+    }
+
+    /**
+     * Splits value bytes into chunks and encodes each one.
+     *
+     * @param raw The value bytes.
+     * @param chunkSize The maximum number of value bytes per chunk.
+     * @param threshold The chunk size at which compression is attempted.
+     * @return The encoded chunks.
+     */
+    public static byte[][] encodeChunks(byte[] raw, int chunkSize, int threshold) {
+        int count = Math.max(1, (raw.length + chunkSize - 1) / chunkSize);
+        byte[][] chunks = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int offset = i * chunkSize;
+            chunks[i] = ValueCodec.encode(raw, offset, Math.min(chunkSize, raw.length - offset), threshold);
+        }
+        return chunks;
+    }
+
+    /**
+     * Decodes and concatenates all chunks. Values kept unencoded are returned without a copy,
+     * so the returned array must not be modified.
+     *
+     * @return The value bytes.
+     * @throws IllegalStateException If the value is too large to fit in a single array.
+     */
+    public byte[] decode() {
+        if (raw != null) {
+            return raw;
+        }
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Value is too large to be read in one piece; read it by chunks instead.");
+        }
+        if (chunks.length == 1) {
+            return ValueCodec.decode(chunks[0]);
+        }
+        byte[] value = new byte[(int) length];
+        int offset = 0;
+        for (byte[] chunk : chunks) {
+            byte[] decoded = ValueCodec.decode(chunk);
+            System.arraycopy(decoded, 0, value, offset, decoded.length);
+            offset += decoded.length;
+        }
+        return value;
+    }
+
+    /**
+     * Gets one encoded chunk.
+     *
+     * @param index The chunk index.
+     * @return The encoded chunk.
+     */
+    public byte[] getChunk(int index) {
+        if (raw != null) {
+            return ValueCodec.encode(raw, 0, raw.length, ValueCodec.NEVER_COMPRESS);
+        }
+        return chunks[index];
+    }
+
+    /**
+     * Gets the number of chunks.
+     *
+     * @return The chunk count.
+     */
+    public int getChunkCount() {
+        return raw != null ? 1 : chunks.length;
+    }
+
+    /**
+     * Gets the number of compressed chunks.
+     *
+     * @return The count of chunks stored with Deflate.
+     */
+    public int getCompressedChunkCount() {
+        if (raw != null) {
+            return 0;
+        }
+        int count = 0;
+        for (byte[] chunk : chunks) {
+            if (ValueCodec.isCompressed(chunk)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Indicates whether the value is held unencoded.
+     *
+     * @return true if the value bytes are stored as they are.
+     */
+    public boolean isRaw() {
+        return raw != null;
+    }
+
+    /**
+     * Gets the length of the decoded value.
+     *
+     * @return The value length in bytes.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the number of bytes the encoded chunks occupy.
+     *
+     * @return The stored size in bytes.
+     */
+    public long getStoredSize() {
+        return storedSize;
+    }
+
+    /**
+     * Gets the store version assigned to this write.
+     *
+     * @return The version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Indicates whether the value was written by a replica and carries a replication stamp.
+     *
+     * @return true if the value has a stamp.
+     */
+    public boolean isStamped() {
+        return stampWriter != null;
+    }
+
+    /**
+     * Gets the timestamp of the replicated write that produced this value.
+     *
+     * @return The timestamp, or 0 if the value is not stamped.
+     */
+    public long getStampTime() {
+        return stampTime;
+    }
+
+    /**
+     * Gets the id of the node that coordinated the replicated write that produced this value.
+     *
+     * @return The writer id, or null if the value is not stamped.
+     */
+    public String getStampWriter() {
+        return stampWriter;
+    }
+
+    /**
+     * Writes the value, as stored, to a data stream. Chunks are written still encoded.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(version);
+        // Stamped values use forms 2 and 3, so values written before stamps existed still read as 0 and 1
+        int stamped = stampWriter == null ? 0 : STAMPED_FORM;
+        if (raw != null) {
+            out.writeByte(stamped);
+            writeStamp(out);
+            out.writeInt(raw.length);
+            out.write(raw);
+            return;
+        }
+        out.writeByte(1 + stamped);
+        writeStamp(out);
+        out.writeLong(length);
+        out.writeInt(chunks.length);
+        for (byte[] chunk : chunks) {
+            out.writeInt(chunk.length);
+            out.write(chunk);
+        }
+    }
+
+    /**
+     * Reads a value written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in The stream to read from.
+     * @return The value.
+     * @throws IOException If the stream cannot be read or is corrupt.
+     */
+    public static StoredValue readFrom(DataInput in) throws IOException {
+        long version = in.readLong();
+        byte form = in.readByte();
+        if (form < 0 || form > 1 + STAMPED_FORM) {
+            throw new IOException("Corrupt stored value: unknown form " + form);
+        }
+        long stampTime = 0;
+        String stampWriter = null;
+        if (form >= STAMPED_FORM) {
+            stampTime = in.readLong();
+            stampWriter = in.readUTF();
+            form -= STAMPED_FORM;
+        }
+        StoredValue value = form == 0 ? new StoredValue(readBytes(in), version) : readChunks(in, version);
+        return stampWriter == null ? value : value.withStamp(stampTime, stampWriter);
+    }
+
+    private void writeStamp(DataOutput out) throws IOException {
+        if (stampWriter != null) {
+            out.writeLong(stampTime);
+            out.writeUTF(stampWriter);
+        }
+    }
+
+    private static StoredValue readChunks(DataInput in, long version) throws IOException {
+        long length = in.readLong();
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt stored value: negative chunk count.");
+        }
+        byte[][] chunks = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            chunks[i] = readBytes(in);
+        }
+        return new StoredValue(chunks, length, version);
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Corrupt stored value: negative length.");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,388 @@
+package server;
+
+import api.ErrorCode;
+import api.KeyValueResponse;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Runs many concurrent get, put and delete operations against a {@link KeyValue} store in process,
+ * records the history of every round, and checks it with the {@link LinearizabilityChecker}. It is
+ * meant to be run after any change to the store's locking.
+ * <p>
+ * Each round is driven by a seed. The seed fixes each thread's operations, keys and unique values,
+ * and the pauses injected between operations: none, a yield, a busy spin or a short park. These
+ * pauses spread the threads over different interleavings from round to round. The JVM decides the
+ * final interleaving, so a rerun with the same seed explores the same region of schedules rather
+ * than the exact same one. A failing round therefore also writes its history to
+ * {@code stress-<target>-<seed>.history}, and {@code --check} repeats the check on that exact
+ * history.
+ * <p>
+ * Targets:
+ * <ul>
+ *     <li>{@code store}: {@link KeyValue} with the memory engine. Half of the gets are single-key
+ *     {@link KeyValue#snapshotGet(String...)} calls.</li>
+ *     <li>{@code rpc}: a {@link KeyValueRpcImpl} over the memory engine, with request coalescing and
+ *     write combining on.</li>
+ *     <li>{@code lsm}: {@link KeyValue} with the lsm engine and a tiny memtable, so segments are flushed
+ *     and compacted throughout the round.</li>
+ *     <li>{@code racy}: a deliberately broken store whose delete checks for the key and then removes
+ *     it without holding the lock. It is not part of {@code all}; run it to confirm that the
+ *     harness catches a lost check-then-act.</li>
+ * </ul>
+ * While a round runs, another thread opens and closes snapshots, so writes keep recording MVCC
+ * version chains and the collector keeps trimming them.
+ * <p>
+ * Usage: {@code java -cp server.jar server.StressHarness [--target store|rpc|lsm|racy|all] [--seed N]
+ * [--rounds N] [--threads N] [--ops N] [--keys N]}, or {@code --check <history file>}. The exit
+ * status is 1 if any round is not linearizable.
+ */
+public class StressHarness {
+
+    private static final long MAX_STEPS_PER_KEY = 20_000_000L;
+    private static final int VALUE_PADDING = 24;
+
+    /**
+     * The operations of the store under test.
+     */
+    private interface Target {
+        String get(String key, boolean snapshot) throws Exception;
+
+        void put(String key, String value) throws Exception;
+
+        boolean delete(String key) throws Exception;
+
+        KeyValue store();
+
+        void close() throws Exception;
+    }
+
+    /**
+     * One planned operation of a thread.
+     */
+    private static class Step {
+        final LinearizabilityChecker.Kind kind;
+        final String key;
+        final String value;
+        final boolean snapshot;
+        final int pause;
+        final int pauseLength;
+
+        Step(LinearizabilityChecker.Kind kind, String key, String value, boolean snapshot, int pause, int pauseLength) {
+            this.kind = kind;
+            this.key = key;
+            this.value = value;
+            this.snapshot = snapshot;
+            this.pause = pause;
+            this.pauseLength = pauseLength;
+        }
+    }
+
+    /**
+     * Runs the harness.
+     *
+     * @param args The options described in the class comment.
+     * @throws Exception If a round cannot be set up.
+     */
+    public static void main(String[] args) throws Exception {
+        String target = "all";
+        long seed = System.currentTimeMillis() % 100_000;
+        int rounds = 20;
+        int threads = 8;
+        int ops = 200;
+        int keys = 4;
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException(String.format("Option %s needs a value.", option));
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--check": System.exit(checkFile(Paths.get(value)) ? 0 : 1); return;
+                case "--target": target = value; break;
+                case "--seed": seed = Long.parseLong(value); break;
+                case "--rounds": rounds = Integer.parseInt(value); break;
+                case "--threads": threads = Integer.parseInt(value); break;
+                case "--ops": ops = Integer.parseInt(value); break;
+                case "--keys": keys = Integer.parseInt(value); break;
+                default: throw new IllegalArgumentException(String.format("Unknown option %s.", option));
+            }
+        }
+        List<String> targets = target.equals("all") ? Arrays.asList("store", "rpc", "lsm") : Arrays.asList(target);
+        for (String name : targets) {
+            if (!Arrays.asList("store", "rpc", "lsm", "racy").contains(name)) {
+                throw new IllegalArgumentException(String.format("Unknown target %s.", name));
+            }
+        }
+        if (threads < 1 || ops < 1 || keys < 1 || rounds < 1) {
+            throw new IllegalArgumentException("Rounds, threads, ops and keys must be positive.");
+        }
+        System.out.println(String.format("Stress: targets %s, seeds %d..%d, %d threads x %d operations on %d keys per round.",
+                targets, seed, seed + rounds - 1, threads, ops, keys));
+
+        ServerLogger.setEnabled(false);
+        Path dataDir = Files.createTempDirectory("kv-stress");
+        int failures = 0;
+        try {
+            for (String name : targets) {
+                for (int round = 0; round < rounds; round++) {
+                    if (!round(name, seed + round, threads, ops, keys, dataDir)) {
+                        failures++;
+                        System.out.println(String.format("Reproduce with: java -cp server.jar server.StressHarness --target %s "
+                                + "--seed %d --rounds 1 --threads %d --ops %d --keys %d", name, seed + round, threads, ops, keys));
+                    }
+                }
+            }
+        } finally {
+            ServerLogger.setEnabled(true);
+            try (Stream<Path> files = Files.walk(dataDir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        System.out.println(failures == 0 ? "All rounds are linearizable." : String.format("%d rounds are not linearizable.", failures));
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static boolean round(String name, long seed, int threads, int ops, int keys, Path dataDir) throws Exception {
+        Target target = open(name, seed, dataDir);
+        List<List<Step>> plans = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            plans.add(plan(new Random(seed * 1_000_003L + t), t, ops, keys, !name.equals("rpc")));
+        }
+        List<List<LinearizabilityChecker.Operation>> histories = new ArrayList<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        long origin = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int client = t;
+            List<LinearizabilityChecker.Operation> history = new ArrayList<>(ops);
+            histories.add(history);
+            workers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (Step step : plans.get(client)) {
+                        pause(step);
+                        history.add(execute(target, client, step, origin));
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "stress-" + t));
+        }
+        Random churnRandom = new Random(~seed);
+        Thread churn = new Thread(() -> {
+            // Keeps snapshots open so that writes record version chains for the collector to trim
+            while (running.get()) {
+                Snapshot snapshot = target.store().openSnapshot();
+                try {
+                    LockSupport.parkNanos(churnRandom.nextInt(200_000));
+                } finally {
+                    snapshot.close();
+                }
+                LockSupport.parkNanos(churnRandom.nextInt(100_000));
+            }
+        }, "stress-snapshots");
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        churn.start();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        running.set(false);
+        churn.join();
+        target.close();
+        if (failure.get() != null) {
+            System.out.println(String.format("Round with seed %d on %s failed: %s", seed, name, failure.get()));
+            return false;
+        }
+
+        List<LinearizabilityChecker.Operation> history = new ArrayList<>();
+        for (List<LinearizabilityChecker.Operation> threadHistory : histories) {
+            history.addAll(threadHistory);
+        }
+        long checkStart = System.nanoTime();
+        LinearizabilityChecker.Result result = LinearizabilityChecker.check(history, MAX_STEPS_PER_KEY);
+        long checkMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - checkStart);
+        if (result.getOutcome() == LinearizabilityChecker.Outcome.LINEARIZABLE) {
+            System.out.println(String.format("seed %d %-5s: %,d operations linearizable (checked in %d ms)", seed, name, history.size(), checkMillis));
+            return true;
+        }
+        Path file = Paths.get(String.format("stress-%s-%d.history", name, seed));
+        LinearizabilityChecker.write(file, history);
+        System.out.println(String.format("seed %d %-5s: %s", seed, name, result.getOutcome()));
+        System.out.println(result.getExplanation());
+        System.out.println(String.format("History written to %s; re-check it with --check %s", file, file));
+        // An undecided round is reported but does not count as a violation
+        return result.getOutcome() == LinearizabilityChecker.Outcome.UNKNOWN;
+    }
+
+    /**
+     * Plans a thread's operations: about 45% gets, 40% puts and 15% deletes, each preceded by a pause.
+     */
+    private static List<Step> plan(Random random, int client, int ops, int keys, boolean snapshots) {
+        List<Step> steps = new ArrayList<>(ops);
+        char[] padding = new char[VALUE_PADDING];
+        Arrays.fill(padding, 'x');
+        for (int i = 0; i < ops; i++) {
+            String key = "key-" + random.nextInt(keys);
+            int roll = random.nextInt(100);
+            LinearizabilityChecker.Kind kind = roll < 45 ? LinearizabilityChecker.Kind.GET
+                    : roll < 85 ? LinearizabilityChecker.Kind.PUT : LinearizabilityChecker.Kind.DELETE;
+            // Values are unique, so a get names the put it observed
+            String value = kind == LinearizabilityChecker.Kind.PUT ? String.format("c%d-%d-%s", client, i, new String(padding)) : null;
+            boolean snapshot = snapshots && random.nextBoolean();
+            int pauseRoll = random.nextInt(100);
+            int pause = pauseRoll < 60 ? 0 : pauseRoll < 85 ? 1 : pauseRoll < 95 ? 2 : 3;
+            steps.add(new Step(kind, key, value, snapshot, pause, random.nextInt(2000)));
+        }
+        return steps;
+    }
+
+    private static void pause(Step step) {
+        switch (step.pause) {
+            case 1:
+                Thread.yield();
+                break;
+            case 2:
+                for (int i = 0; i < step.pauseLength; i++) {
+                    Thread.onSpinWait();
+                }
+                break;
+            case 3:
+                LockSupport.parkNanos(step.pauseLength * 10L);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static LinearizabilityChecker.Operation execute(Target target, int client, Step step, long origin) throws Exception {
+        long call = System.nanoTime() - origin;
+        String value = null;
+        boolean found = false;
+        switch (step.kind) {
+            case GET: value = target.get(step.key, step.snapshot); break;
+            case PUT: target.put(step.key, step.value); value = step.value; break;
+            default: found = target.delete(step.key); break;
+        }
+        long ret = System.nanoTime() - origin;
+        return new LinearizabilityChecker.Operation(client, step.kind, step.key, value, found, call, ret);
+    }
+
+    private static Target open(String name, long seed, Path dataDir) throws Exception {
+        StoreConfig config = new StoreConfig(String.format("stress-%s-%d", name, seed));
+        if (name.equals("lsm")) {
+            config.set("engine", "lsm");
+            config.set("dataDir", dataDir.toString());
+            config.set("memtableBytes", "2048");
+            config.set("blockCacheBytes", "65536");
+            config.set("compactionTrigger", "2");
+        } else {
+            config.set("engine", "memory");
+        }
+        config.set("coalesce", String.valueOf(name.equals("rpc")));
+        config.set("combineWrites", String.valueOf(name.equals("rpc")));
+        KeyValue store = new KeyValue(config);
+        if (name.equals("rpc")) {
+            KeyValueRpcImpl service = new KeyValueRpcImpl(store);
+            return new Target() {
+                @Override
+                public String get(String key, boolean snapshot) throws Exception {
+                    KeyValueResponse response = service.get(key);
+                    if (!response.isSuccess() && response.getErrorCode() != ErrorCode.NOT_FOUND) {
+                        throw new IllegalStateException("GET failed: " + response.getErrorMsg());
+                    }
+                    return response.isSuccess() ? response.getValue() : null;
+                }
+
+                @Override
+                public void put(String key, String value) throws Exception {
+                    KeyValueResponse response = service.put(key, value);
+                    if (!response.isSuccess()) {
+                        throw new IllegalStateException("PUT failed: " + response.getErrorMsg());
+                    }
+                }
+
+                @Override
+                public boolean delete(String key) throws Exception {
+                    KeyValueResponse response = service.delete(key);
+                    if (!response.isSuccess() && response.getErrorCode() != ErrorCode.NOT_FOUND) {
+                        throw new IllegalStateException("DELETE failed: " + response.getErrorMsg());
+                    }
+                    return response.isSuccess();
+                }
+
+                @Override
+                public KeyValue store() {
+                    return store;
+                }
+
+                @Override
+                public void close() throws Exception {
+                    UnicastRemoteObject.unexportObject(service, true);
+                    store.close();
+                }
+            };
+        }
+        boolean racy = name.equals("racy");
+        return new Target() {
+            @Override
+            public String get(String key, boolean snapshot) {
+                return snapshot ? store.snapshotGet(key)[0] : store.get(key);
+            }
+
+            @Override
+            public void put(String key, String value) {
+                store.put(key, value);
+            }
+
+            @Override
+            public boolean delete(String key) {
+                if (racy) {
+                    // Broken on purpose: another delete can remove the key between the check and the removal
+                    boolean present = store.get(key) != null;
+                    Thread.yield();
+                    store.delete(key);
+                    return present;
+                }
+                return store.delete(key);
+            }
+
+            @Override
+            public KeyValue store() {
+                return store;
+            }
+
+            @Override
+            public void close() throws Exception {
+                store.close();
+            }
+        };
+    }
+
+    private static boolean checkFile(Path file) throws Exception {
+        List<LinearizabilityChecker.Operation> history = LinearizabilityChecker.read(file);
+        LinearizabilityChecker.Result result = LinearizabilityChecker.check(history, MAX_STEPS_PER_KEY);
+        System.out.println(String.format("%s: %s", file, result.getOutcome()));
+        System.out.println(result.getExplanation());
+        return result.getOutcome() != LinearizabilityChecker.Outcome.NOT_LINEARIZABLE;
+    }
+}
@@ -0,0 +1,59 @@
+package server;
+
+/**
+ * Limits the request rate of one client. The bucket holds up to {@code burst} tokens and refills at
+ * {@code rate} tokens per second; each request takes one token, and a request that finds the bucket
+ * empty is rejected rather than delayed, so a client over its rate costs the server almost nothing.
+ */
+public class TokenBucket {
+
+    private final double ratePerNano;
+    private final double burst;
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * Constructs a full TokenBucket.
+     *
+     * @param ratePerSecond The sustained number of requests per second.
+     * @param burst The number of requests that may be made at once after a quiet period.
+     */
+    public TokenBucket(double ratePerSecond, double burst) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate must be positive and burst at least 1.");
+        }
+        this.ratePerNano = ratePerSecond / 1e9;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @return 0 if a token was taken, otherwise the number of milliseconds until one will be available.
+     */
+    public synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * ratePerNano);
+        lastRefillNanos = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / ratePerNano / 1e6));
+    }
+
+    /**
+     * Indicates whether the bucket has refilled to its burst. A full bucket behaves exactly like a
+     * new one, so it can be dropped and created again later without giving its client anything.
+     *
+     * @return true if the bucket holds its whole burst.
+     */
+    public synchronized boolean isFull() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * ratePerNano);
+        lastRefillNanos = now;
+        return tokens >= burst;
+    }
+}
@@ -0,0 +1,168 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Records every change made to an {@link LsmEngine} memtable before it is applied, so that
+ * changes not yet flushed to a {@link SegmentFile} survive a crash. Each record carries a CRC32
+ * of its body; replay stops at the first torn or corrupt record, which can only be the last one
+ * written before the crash. Records reach the operating system as they are appended, or with the
+ * next {@link #flush()} if appended without flushing, and the disk on {@link #sync()}.
+ * This class is not thread-safe.
+ */
+public class WriteAheadLog {
+
+    private final Path path;
+    private final FileChannel channel;
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+    private final StoreStats stats;
+
+    /**
+     * Creates a new, empty log file.
+     *
+     * @param path The log file to create.
+     * @param stats The engine counters; bytes appended are added to {@code lsm.walBytes}.
+     * @throws IOException If the file cannot be created.
+     */
+    public WriteAheadLog(Path path, StoreStats stats) throws IOException {
+        this.path = path;
+        this.stats = stats;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+    }
+
+    /**
+     * Appends a change, leaving it in the buffer unless asked to flush, so that a group of changes
+     * reaches the operating system in one write. A removal's record ends with its change sequence,
+     * which a value carries itself.
+     *
+     * @param key The key.
+     * @param value The new value, or {@link LsmEngine#TOMBSTONE} if the key was removed.
+     * @param sequence The change sequence of the removal; ignored for a new value.
+     * @param flush true to write the buffered records out to the operating system.
+     * @throws IOException If the record cannot be written.
+     */
+    public void append(ByteKey key, StoredValue value, long sequence, boolean flush) throws IOException {
+        record.reset();
+        SegmentFile.writeEntry(recordOut, key, value);
+        if (value == LsmEngine.TOMBSTONE) {
+            recordOut.writeLong(sequence);
+        }
+        crc.reset();
+        crc.update(record.toByteArray(), 0, record.size());
+        out.writeInt(record.size());
+        out.writeInt((int) crc.getValue());
+        record.writeTo(out);
+        if (flush) {
+            out.flush();
+        }
+        stats.add("lsm.walBytes", 8 + record.size());
+    }
+
+    /**
+     * Writes the buffered records out to the operating system, so they survive a crash of the process.
+     *
+     * @throws IOException If the records cannot be written.
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Forces every appended record to disk.
+     *
+     * @throws IOException If the file cannot be synced.
+     */
+    public void sync() throws IOException {
+        out.flush();
+        channel.force(false);
+    }
+
+    /**
+     * Syncs and closes the log.
+     *
+     * @throws IOException If the file cannot be synced or closed.
+     */
+    public void close() throws IOException {
+        sync();
+        out.close();
+    }
+
+    /**
+     * Gets the log file.
+     *
+     * @return The path.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Reads back the changes recorded in a log file, in the order they were appended.
+     *
+     * @param path The log file.
+     * @param visitor The callback receiving each key and value, {@link LsmEngine#TOMBSTONE} for removals.
+     * @param sequences The callback receiving the change sequence of each record.
+     * @return The number of records replayed.
+     * @throws IOException If the file cannot be read.
+     */
+    public static int replay(Path path, BiConsumer<ByteKey, StoredValue> visitor, LongConsumer sequences) throws IOException {
+        int count = 0;
+        long fileSize = Files.size(path);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] body;
+                int checksum;
+                try {
+                    int length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < 0 || length > fileSize) {
+                        break;
+                    }
+                    body = new byte[length];
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(body, 0, body.length);
+                if ((int) crc.getValue() != checksum) {
+                    ServerLogger.error(String.format("Stopped replaying %s at a corrupt record after %d records.", path, count));
+                    break;
+                }
+                DataInputStream entry = new DataInputStream(new ByteArrayInputStream(body));
+                byte[] key = new byte[entry.readInt()];
+                entry.readFully(key);
+                StoredValue value = entry.readByte() == 1 ? LsmEngine.TOMBSTONE : StoredValue.readFrom(entry);
+                // Removals logged before their sequence was recorded end with the entry
+                if (value != LsmEngine.TOMBSTONE) {
+                    sequences.accept(value.getVersion());
+                } else if (entry.available() >= 8) {
+                    sequences.accept(entry.readLong());
+                }
+                visitor.accept(new ByteKey(key), value);
+                count++;
+            }
+        }
+        return count;
+    }
+}
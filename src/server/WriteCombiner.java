@@ -0,0 +1,233 @@
+package server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Combines concurrent puts and deletes to a {@link KeyValue} store into batches (flat combining).
+ * N concurrent writers then take the store's mutex, commit to the storage engine, and log a line
+ * about once per batch instead of N times.
+ * <p>
+ * A writer that finds no combiner and an empty queue applies its write at once, without queueing
+ * it, so light traffic pays no added latency. Otherwise the writer adds its write to a lock-free
+ * queue and tries to become the combiner. The combiner takes the queued writes, up to the batch
+ * limit, and applies them in arrival order with {@link KeyValue#applyWrites(String[], String[], int)}.
+ * It then gives up the role and wakes each writer of the batch. Writers that are still waiting spin
+ * briefly, then park until their write has been applied or the combiner role is free, in which
+ * case one of them takes it over.
+ * <p>
+ * Batches never wait for more writes to arrive; they only grow when writes arrive while another
+ * batch is being applied. The batch limit adapts to load. It doubles when a full batch left writes
+ * waiting and was applied within {@value #TARGET_BATCH_NANOS} ns. It halves when a batch took
+ * longer than that, so that no writer waits behind an oversized batch.
+ */
+public class WriteCombiner {
+
+    private static final int MIN_BATCH = 4;
+    private static final int MAX_BATCH = 1024;
+    private static final long TARGET_BATCH_NANOS = 500_000;
+    // Spinning only helps when the combiner runs on another processor
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;
+    // Safety net against a missed wake-up; waiters are normally unparked as soon as their write is applied
+    private static final long PARK_NANOS = 1_000_000;
+
+    private final KeyValue store;
+    private final ConcurrentLinkedQueue<Write> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean combining = new AtomicBoolean();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    // Only used by the current combiner; the combining flag orders the accesses
+    private final String[] keys = new String[MAX_BATCH];
+    private final String[] values = new String[MAX_BATCH];
+    private int batchLimit = MIN_BATCH;
+    private volatile int maxBatch;
+
+    /**
+     * One queued write and, once applied, its result.
+     */
+    private static class Write {
+        final String key;
+        final String value;
+        final Thread writer;
+        boolean applied;
+        RuntimeException failure;
+        volatile boolean done;
+
+        Write(String key, String value, Thread writer) {
+            this.key = key;
+            this.value = value;
+            this.writer = writer;
+        }
+    }
+
+    /**
+     * Constructs a WriteCombiner.
+     *
+     * @param store The store to apply the writes to.
+     */
+    public WriteCombiner(KeyValue store) {
+        this.store = store;
+    }
+
+    /**
+     * Inserts or updates a key, in a batch with concurrent writes.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @throws IllegalStateException If the store is shut down.
+     */
+    public void put(String key, String value) {
+        submit(key, value);
+    }
+
+    /**
+     * Deletes a key, in a batch with concurrent writes.
+     *
+     * @param key The key.
+     * @return true if the key was found and deleted.
+     * @throws IllegalStateException If the store is shut down.
+     */
+    public boolean delete(String key) {
+        return submit(key, null);
+    }
+
+    private boolean submit(String key, String value) {
+        writes.increment();
+        if (queue.isEmpty() && combining.compareAndSet(false, true)) {
+            boolean applied;
+            try {
+                if (value == null) {
+                    applied = store.delete(key);
+                } else {
+                    store.put(key, value);
+                    applied = true;
+                }
+                batches.increment();
+            } finally {
+                release();
+            }
+            return applied;
+        }
+        Write write = new Write(key, value, Thread.currentThread());
+        queue.offer(write);
+        int spins = 0;
+        while (!write.done) {
+            if (!combining.get() && combining.compareAndSet(false, true)) {
+                Write[] batch;
+                try {
+                    batch = combine();
+                } finally {
+                    release();
+                }
+                // Woken after the role is given up, so that the next batch can start meanwhile
+                for (Write done : batch) {
+                    if (done != null && done != write) {
+                        LockSupport.unpark(done.writer);
+                    }
+                }
+            } else if (spins < SPINS) {
+                spins++;
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+        }
+        if (write.failure != null) {
+            throw write.failure;
+        }
+        return write.applied;
+    }
+
+    /**
+     * Gives up the combiner role, and wakes a queued writer to take it over, since writes that
+     * arrived after the last batch was taken would otherwise wait for the next writer to arrive.
+     */
+    private void release() {
+        combining.set(false);
+        Write next = queue.peek();
+        if (next != null) {
+            LockSupport.unpark(next.writer);
+        }
+    }
+
+    /**
+     * Applies one batch of queued writes and hands each its result. Must be called holding the combiner role.
+     *
+     * @return The writes applied, whose writers are still to be woken.
+     */
+    private Write[] combine() {
+        Write[] batch = new Write[Math.min(batchLimit, queue.size())];
+        int count = 0;
+        Write next;
+        while (count < batch.length && (next = queue.poll()) != null) {
+            batch[count] = next;
+            keys[count] = next.key;
+            values[count] = next.value;
+            count++;
+        }
+        if (count == 0) {
+            // Another combiner took this combiner's own write
+            return batch;
+        }
+        long start = System.nanoTime();
+        boolean[] applied = null;
+        RuntimeException failure = null;
+        try {
+            applied = store.applyWrites(keys, values, count);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        long elapsed = System.nanoTime() - start;
+        for (int i = 0; i < count; i++) {
+            Write write = batch[i];
+            write.applied = applied != null && applied[i];
+            write.failure = failure;
+            write.done = true;
+            keys[i] = null;
+            values[i] = null;
+        }
+        batches.increment();
+        if (count > maxBatch) {
+            maxBatch = count;
+        }
+        adapt(count, elapsed);
+        return batch;
+    }
+
+    private void adapt(int count, long elapsedNanos) {
+        if (elapsedNanos > TARGET_BATCH_NANOS) {
+            batchLimit = Math.max(MIN_BATCH, batchLimit / 2);
+        } else if (count == batchLimit && !queue.isEmpty()) {
+            batchLimit = Math.min(MAX_BATCH, batchLimit * 2);
+        }
+    }
+
+    /**
+     * Gets the number of writes submitted.
+     *
+     * @return The number of writes.
+     */
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    /**
+     * Gets the number of batches applied, counting each write applied at once as a batch of one.
+     *
+     * @return The number of batches.
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * Gets the largest batch applied so far.
+     *
+     * @return The size of the largest batch.
+     */
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+}
@@ -0,0 +1,141 @@
+# Measures how fast a server answers its first GET, and how much memory it uses at that point, for
+# the default deployment and the fast-start one (jlink-trimmed runtime, AppCDS archive, warm-up).
+#
+#   ./startup_benchmark.sh docker     build server/Dockerfile and server/Dockerfile.fast and compare the containers
+#   ./startup_benchmark.sh local      compare the same settings as plain processes, without Docker
+#
+# Each configuration is started RUNS times (default 5). A client.StartupProbe is started before the
+# server and polls it every 10 ms. The time to first GET is measured from the launch of the server
+# to the probe's first answered GET. The time that GET took on its own and the memory used right
+# after it are reported too. Each column is a median. Configurations with warm-up send WARMUP
+# rounds (default 20) before the server reports ready.
+RUNS=${RUNS:-5}
+PORT=${PORT:-1199}
+WARMUP=${WARMUP:-20}
+OUT_DIR=${OUT_DIR:-/tmp/kv-startup}
+PROJECT_NETWORK='6650-network'
+SERVER_IMAGE='6650-server-image'
+FAST_IMAGE='6650-server-fast-image'
+CLIENT_IMAGE='6650-client-image'
+
+median() {
+  sort -n | awk '{ v[NR] = $1 } END { print v[int((NR + 1) / 2)] }'
+}
+
+# Prints the epoch millis at which the probe saw its first answered GET
+probe_time() {
+  sed -n 's/.*First successful GET at \([0-9]*\),.*/\1/p' "$1"
+}
+
+# Prints how long the probe's first answered GET took, in milliseconds
+probe_latency() {
+  sed -n 's/.*the GET took \([0-9.]*\) ms.*/\1/p' "$1"
+}
+
+row() {
+  printf "| %-35s | %6s ms | %6s ms | %6s MB |\n" "$1" "$(median < "$OUT_DIR/times")" \
+    "$(median < "$OUT_DIR/latency")" "$(median < "$OUT_DIR/memory")"
+}
+
+reset_results() {
+  : > "$OUT_DIR/times"
+  : > "$OUT_DIR/latency"
+  : > "$OUT_DIR/memory"
+}
+
+record_probe() {
+  echo $(( $(probe_time "$OUT_DIR/probe.out") - $1 )) >> "$OUT_DIR/times"
+  probe_latency "$OUT_DIR/probe.out" >> "$OUT_DIR/latency"
+}
+
+header() {
+  echo "| Configuration                       | First GET | GET itself | Memory    |"
+  echo "|-------------------------------------|-----------|------------|-----------|"
+}
+
+# measure_local <label> <java> <environment assignments> <java options>
+measure_local() {
+  reset_results
+  for run in $(seq "$RUNS"); do
+    java -cp "$OUT_DIR/client.jar" client.StartupProbe localhost "$PORT" > "$OUT_DIR/probe.out" &
+    probe=$!
+    sleep 1
+    launch=$(date +%s%3N)
+    env RMI_PORT="$PORT" $3 "$2" $4 -cp "$OUT_DIR/server.jar" server.ServerApp "$PORT" > "$OUT_DIR/server.log" 2>&1 &
+    server=$!
+    wait $probe || { echo "Probe failed, see $OUT_DIR/server.log"; kill $server; exit 1; }
+    record_probe "$launch"
+    echo $(( $(ps -o rss= -p $server) / 1024 )) >> "$OUT_DIR/memory"
+    kill $server && wait $server 2> /dev/null
+  done
+  row "$1"
+}
+
+# train <java> <archive>: records the classes a warmed-up server loads and archives them
+train() {
+  RMI_PORT=$PORT KV_WARMUP_REQUESTS=$WARMUP KV_TRAINING_RUN=true \
+    "$1" -XX:DumpLoadedClassList="$OUT_DIR/classes.lst" -cp "$OUT_DIR/server.jar" server.ServerApp "$PORT" > /dev/null
+  "$1" -Xshare:dump -XX:SharedClassListFile="$OUT_DIR/classes.lst" -XX:SharedArchiveFile="$2" -cp "$OUT_DIR/server.jar" > /dev/null
+}
+
+# measure_docker <label> <image> <docker run options>
+measure_docker() {
+  reset_results
+  for run in $(seq "$RUNS"); do
+    docker run -d --name kv-startup-probe --network $PROJECT_NETWORK $CLIENT_IMAGE \
+      java -cp client.jar client.StartupProbe kv-startup-server "$PORT" > /dev/null
+    sleep 2
+    launch=$(date +%s%3N)
+    docker run -d --name kv-startup-server --network $PROJECT_NETWORK -e RMI_PORT="$PORT" $3 "$2" > /dev/null
+    docker wait kv-startup-probe > /dev/null
+    docker logs kv-startup-probe > "$OUT_DIR/probe.out" 2>&1
+    record_probe "$launch"
+    docker stats --no-stream --format '{{.MemUsage}}' kv-startup-server | awk '{ print int($1) }' >> "$OUT_DIR/memory"
+    docker rm -f kv-startup-probe kv-startup-server > /dev/null
+  done
+  row "$1"
+}
+
+mkdir -p "$OUT_DIR"
+case "$1" in
+  local)
+    echo "----------Compiling into $OUT_DIR----------"
+    rm -rf "$OUT_DIR/server" "$OUT_DIR/client" "$OUT_DIR/jre"
+    javac --release 11 -d "$OUT_DIR/server" api/*.java server/*.java || exit 1
+    javac --release 11 -d "$OUT_DIR/client" api/*.java client/*.java || exit 1
+    jar cf "$OUT_DIR/server.jar" -C "$OUT_DIR/server" .
+    jar cf "$OUT_DIR/client.jar" -C "$OUT_DIR/client" .
+    echo "----------Building the trimmed runtime and the class-data sharing archives----------"
+    jlink --add-modules "$(jdeps --print-module-deps "$OUT_DIR/server.jar")" --strip-debug --no-header-files \
+      --no-man-pages --compress=2 --output "$OUT_DIR/jre" || exit 1
+    "$OUT_DIR/jre/bin/java" -Xshare:dump > /dev/null
+    train java "$OUT_DIR/server.jsa"
+    train "$OUT_DIR/jre/bin/java" "$OUT_DIR/server-jre.jsa"
+    echo "Runtime size: full JDK $(du -sm "$(dirname "$(dirname "$(readlink -f "$(command -v java)")")")" | cut -f1) MB," \
+      "trimmed $(du -sm "$OUT_DIR/jre" | cut -f1) MB"
+    header
+    measure_local "Default JVM" java "" ""
+    measure_local "AppCDS" java "" "-XX:SharedArchiveFile=$OUT_DIR/server.jsa"
+    measure_local "jlink + AppCDS + SerialGC" "$OUT_DIR/jre/bin/java" "" \
+      "-XX:SharedArchiveFile=$OUT_DIR/server-jre.jsa -XX:+UseSerialGC"
+    measure_local "jlink + AppCDS + SerialGC + warm-up" "$OUT_DIR/jre/bin/java" "KV_WARMUP_REQUESTS=$WARMUP" \
+      "-XX:SharedArchiveFile=$OUT_DIR/server-jre.jsa -XX:+UseSerialGC"
+    ;;
+  docker)
+    echo "----------Building images----------"
+    docker network create $PROJECT_NETWORK 2> /dev/null
+    docker build -q -t $SERVER_IMAGE -f server/Dockerfile . > /dev/null || exit 1
+    docker build -q -t $FAST_IMAGE -f server/Dockerfile.fast . > /dev/null || exit 1
+    docker build -q -t $CLIENT_IMAGE -f client/Dockerfile . > /dev/null || exit 1
+    echo "Image size: default $(( $(docker image inspect -f '{{.Size}}' $SERVER_IMAGE) / 1048576 )) MB," \
+      "fast $(( $(docker image inspect -f '{{.Size}}' $FAST_IMAGE) / 1048576 )) MB"
+    header
+    measure_docker "$SERVER_IMAGE" $SERVER_IMAGE ""
+    measure_docker "$FAST_IMAGE, no warm-up" $FAST_IMAGE "-e KV_WARMUP_REQUESTS=0"
+    measure_docker "$FAST_IMAGE, $WARMUP warm-up rounds" $FAST_IMAGE "-e KV_WARMUP_REQUESTS=$WARMUP"
+    ;;
+  *)
+    echo "Usage: $0 local|docker"
+    exit 1
+    ;;
+esac